@@ -0,0 +1,109 @@
+package org.karpukhin.smsviewer.benchmark;
+
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Synthetic data for benchmarks. Data depends only on the seed, so results of
+ * different runs can be compared
+ *
+ * @author Pavel Karpukhin
+ */
+public class BenchmarkData {
+
+    public static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private static final String[] WORDS = {
+            "hello", "world", "meeting", "tomorrow", "ok", "call", "me", "later",
+            "\u043f\u0440\u0438\u0432\u0435\u0442", "\u0437\u0430\u0432\u0442\u0440\u0430"
+    };
+
+    static final long START = 1230768000000L;
+    static final long PERIOD = 4 * 365 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * Returns text of "*.vmg" file with one message as Nokia phones write it
+     * @param number phone number
+     * @param timestamp date of message
+     * @param inbox whether message was received
+     * @param body text of message
+     * @return text of file
+     */
+    public static String vmessage(String number, long timestamp, boolean inbox, String body) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        SimpleDateFormat bodyFormat = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
+        bodyFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return "BEGIN:VMSG\r\n"
+                + "VERSION:1.1\r\n"
+                + "X-IRMC-STATUS:READ\r\n"
+                + "X-IRMC-BOX:" + (inbox ? "INBOX" : "SENDBOX") + "\r\n"
+                + "X-NOK-DT:" + format.format(new Date(timestamp)) + "\r\n"
+                + "X-MESSAGE-TYPE:" + (inbox ? "DELIVER" : "SUBMIT") + "\r\n"
+                + "BEGIN:VCARD\r\n"
+                + "VERSION:3.0\r\n"
+                + "N:\r\n"
+                + "TEL:" + number + "\r\n"
+                + "END:VCARD\r\n"
+                + "BEGIN:VENV\r\n"
+                + "BEGIN:VBODY\r\n"
+                + "Date:" + bodyFormat.format(new Date(timestamp)) + "\r\n"
+                + body.replace("\n", "\r\n") + "\r\n"
+                + "END:VBODY\r\n"
+                + "END:VENV\r\n"
+                + "END:VMSG\r\n";
+    }
+
+    /**
+     * Returns body made of random words
+     * @param random source of randomness
+     * @param length approximate length in characters
+     * @return body
+     */
+    public static String body(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            if (sb.length() > 0) {
+                sb.append(sb.length() % 70 < 8 ? '\n' : ' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns phone number with the given index
+     * @param index index
+     * @return phone number
+     */
+    public static String number(int index) {
+        return String.format("+7916%07d", index);
+    }
+
+    /**
+     * Returns messages with random dates spread over the given number of phone numbers
+     * @param count number of messages
+     * @param numbers number of phone numbers
+     * @param seed seed
+     * @return list of messages
+     */
+    public static List<Message> messages(int count, int numbers, long seed) {
+        Random random = new Random(seed);
+        ContactTable contacts = new ContactTable();
+        List<Message> messages = new ArrayList<Message>(count);
+        for (int i = 0; i < count; i++) {
+            long timestamp = START + (long) (random.nextDouble() * PERIOD);
+            messages.add(new Message.Builder(contacts).setTimestamp(timestamp).setNumber(number(random.nextInt(numbers)))
+                    .setText(body(random, 20 + random.nextInt(140))).setInbox(random.nextBoolean()).build());
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,244 @@
+package org.karpukhin.smsviewer.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes tree of "*.vmg" files with one message each in UTF-16LE as Nokia phones write them.
+ * Tree depends only on parameters and seed:
+ * <pre>
+ * --output &lt;directory&gt; [--files &lt;number&gt;] [--contacts &lt;number&gt;] [--distribution uniform|zipf]
+ *          [--skew &lt;exponent&gt;] [--body-min &lt;chars&gt;] [--body-max &lt;chars&gt;] [--depth &lt;levels&gt;]
+ *          [--files-per-directory &lt;number&gt;] [--duplicates &lt;ratio&gt;] [--seed &lt;number&gt;]
+ * </pre>
+ * With Zipf distribution the contact of rank k gets messages in proportion to 1/k^skew, so a few
+ * contacts have most of messages as in real phones. Files are put into leaf directories nested
+ * to the given depth. Duplicates are exact copies of recently written messages saved under
+ * another name, as when several backups of a phone are copied into one folder.
+ *
+ * @author Pavel Karpukhin
+ */
+public class CorpusGenerator {
+
+    public static final String UNIFORM = "uniform";
+    public static final String ZIPF = "zipf";
+
+    private static final int RECENT_MESSAGES = 4096;
+
+    private int files = 10000;
+    private int contacts = 200;
+    private String distribution = ZIPF;
+    private double skew = 1.0;
+    private int bodyMin = 10;
+    private int bodyMax = 300;
+    private int depth = 2;
+    private int filesPerDirectory = 1000;
+    private double duplicates = 0.02;
+    private long seed = 1;
+
+    public int getFiles() {
+        return files;
+    }
+
+    public CorpusGenerator setFiles(int files) {
+        this.files = files;
+        return this;
+    }
+
+    /**
+     * Returns parameters in command line syntax, trees with equal descriptions are equal
+     * @return description
+     */
+    public String describe() {
+        return String.format(Locale.ENGLISH, "--files %d --contacts %d --distribution %s --skew %s --body-min %d --body-max %d"
+                        + " --depth %d --files-per-directory %d --duplicates %s --seed %d",
+                files, contacts, distribution, skew, bodyMin, bodyMax, depth, filesPerDirectory, duplicates, seed);
+    }
+
+    /**
+     * Writes files into the directory
+     * @param root directory, created if it does not exist
+     * @return total size of written files in bytes
+     * @throws IOException if a file can not be written
+     */
+    public long generate(File root) throws IOException {
+        validate();
+        Random random = new Random(seed);
+        double[] weights = cumulativeWeights();
+        byte[][] recent = new byte[RECENT_MESSAGES][];
+        int leaves = (files + filesPerDirectory - 1) / filesPerDirectory;
+        int fanout = depth > 0 ? Math.max(2, (int) Math.ceil(Math.pow(leaves, 1.0 / depth))) : 1;
+        File directory = null;
+        long bytes = 0;
+        for (int i = 0; i < files; i++) {
+            if (i % filesPerDirectory == 0) {
+                directory = leaf(root, i / filesPerDirectory, fanout);
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Directory " + directory + " can not be created");
+                }
+            }
+            byte[] content;
+            if (i > 0 && random.nextDouble() < duplicates) {
+                content = recent[random.nextInt(Math.min(i, RECENT_MESSAGES))];
+            } else {
+                int contact = pick(random, weights);
+                long timestamp = BenchmarkData.START + (long) (random.nextDouble() * BenchmarkData.PERIOD) / 1000 * 1000;
+                String body = BenchmarkData.body(random, bodyMin + random.nextInt(bodyMax - bodyMin + 1));
+                content = BenchmarkData.vmessage(BenchmarkData.number(contact), timestamp, random.nextBoolean(), body)
+                        .getBytes(BenchmarkData.UTF_16LE);
+                recent[i % RECENT_MESSAGES] = content;
+            }
+            OutputStream out = new FileOutputStream(new File(directory, String.format("%08d.vmg", i)));
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            bytes += content.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns directory of the leaf with the given number, its path is the number written
+     * with {@code depth} digits in base of fanout
+     */
+    private File leaf(File root, int leaf, int fanout) {
+        String[] names = new String[depth];
+        for (int level = depth - 1; level >= 0; level--) {
+            names[level] = "d" + leaf % fanout;
+            leaf /= fanout;
+        }
+        File directory = root;
+        for (String name : names) {
+            directory = new File(directory, name);
+        }
+        return directory;
+    }
+
+    private double[] cumulativeWeights() {
+        double[] weights = new double[contacts];
+        double total = 0;
+        for (int i = 0; i < contacts; i++) {
+            total += ZIPF.equals(distribution) ? 1 / Math.pow(i + 1, skew) : 1;
+            weights[i] = total;
+        }
+        return weights;
+    }
+
+    private static int pick(Random random, double[] weights) {
+        int index = Arrays.binarySearch(weights, random.nextDouble() * weights[weights.length - 1]);
+        return Math.min(index >= 0 ? index + 1 : -index - 1, weights.length - 1);
+    }
+
+    /**
+     * Sets parameter given in command line syntax
+     * @param name option, e.g. "--files"
+     * @param value value
+     * @return {@code false} if it is not an option of the generator
+     * @throws IllegalArgumentException if value is wrong
+     */
+    public boolean setOption(String name, String value) {
+        try {
+            if ("--files".equals(name)) {
+                files = parseCount(value);
+            } else if ("--contacts".equals(name)) {
+                contacts = parseCount(value);
+            } else if ("--distribution".equals(name)) {
+                if (!UNIFORM.equals(value) && !ZIPF.equals(value)) {
+                    throw new IllegalArgumentException("Unknown distribution " + value);
+                }
+                distribution = value;
+            } else if ("--skew".equals(name)) {
+                skew = Double.parseDouble(value);
+            } else if ("--body-min".equals(name)) {
+                bodyMin = parseCount(value);
+            } else if ("--body-max".equals(name)) {
+                bodyMax = parseCount(value);
+            } else if ("--depth".equals(name)) {
+                depth = Integer.parseInt(value);
+            } else if ("--files-per-directory".equals(name)) {
+                filesPerDirectory = parseCount(value);
+            } else if ("--duplicates".equals(name)) {
+                duplicates = Double.parseDouble(value);
+            } else if ("--seed".equals(name)) {
+                seed = Long.parseLong(value);
+            } else {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value of " + name + ": " + value);
+        }
+        return true;
+    }
+
+    /**
+     * Checks parameters set by {@link #setOption(String, String)}
+     * @throws IllegalArgumentException if parameters are inconsistent
+     */
+    public void validate() {
+        if (bodyMax < bodyMin) {
+            throw new IllegalArgumentException("Wrong body length " + bodyMin + ".." + bodyMax);
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("Wrong depth " + depth);
+        }
+        if (duplicates < 0 || duplicates >= 1) {
+            throw new IllegalArgumentException("Wrong ratio of duplicates " + duplicates);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        File output = null;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + args[i]);
+                }
+                if ("--output".equals(args[i])) {
+                    output = new File(args[i + 1]);
+                } else if (!generator.setOption(args[i], args[i + 1])) {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (output == null) {
+                throw new IllegalArgumentException("Output directory is not given");
+            }
+            generator.validate();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: CorpusGenerator --output <directory> " + generator.describe());
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        long bytes = generator.generate(output);
+        System.err.println(String.format("Written %d files, %.1f MB in %.1f s", generator.files,
+                bytes / (1024.0 * 1024.0), (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Parses positive number with optional "k" or "m" suffix
+     * @param value number
+     * @return number
+     */
+    static int parseCount(String value) {
+        String lower = value.toLowerCase();
+        int multiplier = 1;
+        if (lower.endsWith("k")) {
+            multiplier = 1000;
+        } else if (lower.endsWith("m")) {
+            multiplier = 1000000;
+        }
+        int count = Integer.parseInt(multiplier > 1 ? lower.substring(0, lower.length() - 1) : lower) * multiplier;
+        if (count < 1) {
+            throw new NumberFormatException(value);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,70 @@
+package org.karpukhin.smsviewer.benchmark;
+
+import org.karpukhin.smsviewer.utils.DateUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and formatting of dates shown in the conversation view and read from "*.vmg" files.
+ * Dates are taken from an array in turn, so cached results do not hide the cost of formatting
+ * different minutes
+ *
+ * @author Pavel Karpukhin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateBenchmark {
+
+    private static final int SIZE = 4096;
+
+    private final long[] timestamps = new long[SIZE];
+    private final String[] formatted = new String[SIZE];
+    private final String[] vmessageDates = {"20120301T101500Z", "20091231T235959Z", "20150615T080000Z"};
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < SIZE; i++) {
+            timestamps[i] = 1230768000000L + (long) (random.nextDouble() * 4 * 365 * 24 * 60 * 60 * 1000L);
+            formatted[i] = DateUtils.formatDate(new Date(timestamps[i]));
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (SIZE - 1);
+        return index;
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return DateUtils.formatDate(timestamps[next()]);
+    }
+
+    @Benchmark
+    public Date parseDate() throws ParseException {
+        return DateUtils.parseDate(formatted[next()]);
+    }
+
+    @Benchmark
+    public long parseVmessageDate() throws ParseException {
+        return DateUtils.parseVmessageDate(vmessageDates[next() % vmessageDates.length]);
+    }
+}
@@ -0,0 +1,90 @@
+package org.karpukhin.smsviewer.benchmark;
+
+import org.karpukhin.smsviewer.index.ConversationIndex;
+import org.karpukhin.smsviewer.model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grouping of messages by phone number: the list based grouping the viewer used to have
+ * and {@link ConversationIndex} which replaced it
+ *
+ * @author Pavel Karpukhin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GroupingBenchmark {
+
+    private static final int MESSAGES_PER_NUMBER = 200;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private List<Message> messages;
+    private ConversationIndex index;
+    private String number;
+
+    @Setup
+    public void setUp() {
+        messages = BenchmarkData.messages(size, Math.max(1, size / MESSAGES_PER_NUMBER), 1);
+        index = ConversationIndex.build(messages);
+        number = messages.get(0).getNumber();
+    }
+
+    @Benchmark
+    public List<String> extractNumbers() {
+        Set<String> phones = new TreeSet<String>();
+        for (Message message : messages) {
+            phones.add(message.getNumber());
+        }
+        return new LinkedList<String>(phones);
+    }
+
+    @Benchmark
+    public List<Message> getMessagesForNumber() {
+        List<Message> result = new LinkedList<Message>();
+        for (Message m : messages) {
+            if (number.equals(m.getNumber())) {
+                result.add(m);
+            }
+        }
+        Collections.sort(result, new Comparator<Message>() {
+            @Override
+            public int compare(Message m1, Message m2) {
+                return Long.compare(m1.getTimestamp(), m2.getTimestamp());
+            }
+        });
+        return result;
+    }
+
+    @Benchmark
+    public ConversationIndex buildIndex() {
+        return ConversationIndex.build(messages);
+    }
+
+    @Benchmark
+    public List<Message> indexGetMessages() {
+        return index.getMessages(messages.get(0).getContact());
+    }
+}
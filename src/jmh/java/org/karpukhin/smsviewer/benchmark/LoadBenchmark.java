@@ -0,0 +1,233 @@
+package org.karpukhin.smsviewer.benchmark;
+
+import org.karpukhin.smsviewer.index.ConversationIndex;
+import org.karpukhin.smsviewer.index.MessageStore;
+import org.karpukhin.smsviewer.loader.LoadFailure;
+import org.karpukhin.smsviewer.loader.LoadListener;
+import org.karpukhin.smsviewer.loader.LoadResult;
+import org.karpukhin.smsviewer.loader.LoadedFile;
+import org.karpukhin.smsviewer.loader.MessageLoader;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.ParserEngine;
+import org.karpukhin.smsviewer.utils.ResourceBundleMessageSource;
+import org.karpukhin.smsviewer.view.ContactTreeModel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end loading of trees written by {@link CorpusGenerator}, the same way the viewer
+ * opens a directory: files are parsed by {@link MessageLoader}, published to {@link MessageStore}
+ * as they are loaded and the final index is shown by {@link ContactTreeModel}:
+ * <pre>
+ * [--sizes 10k,100k,1m] [--dir &lt;directory&gt;] [--threads &lt;number&gt;] [options of CorpusGenerator]
+ * </pre>
+ * For every size reports files/s, MB/s, time to the first non-empty tree, time to the complete
+ * tree and peak heap sampled while loading. Trees are generated once into the directory
+ * (temporary directory by default) and reused while parameters are the same, so files are
+ * usually read from the page cache. Parser, lazy bodies and duplicates are set by the same
+ * system properties as in the viewer, the cache of parsed messages is not used.
+ *
+ * @author Pavel Karpukhin
+ */
+public class LoadBenchmark {
+
+    private static final String DESCRIPTION_FILE = "corpus.properties";
+    private static final String DESCRIPTION_KEY = "parameters";
+    private static final long SAMPLE_PERIOD = 10;
+    private static final double BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        CorpusGenerator generator = new CorpusGenerator();
+        List<Integer> sizes = new ArrayList<Integer>();
+        File directory = new File(System.getProperty("java.io.tmpdir"), "smsviewer-corpus");
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + args[i]);
+                }
+                String name = args[i];
+                String value = args[i + 1];
+                if ("--sizes".equals(name)) {
+                    for (String size : value.split(",")) {
+                        sizes.add(CorpusGenerator.parseCount(size.trim()));
+                    }
+                } else if ("--dir".equals(name)) {
+                    directory = new File(value);
+                } else if ("--threads".equals(name)) {
+                    threads = CorpusGenerator.parseCount(value);
+                } else if (!generator.setOption(name, value)) {
+                    throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            generator.validate();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoadBenchmark [--sizes 10k,100k,1m] [--dir <directory>] [--threads <number>] "
+                    + generator.describe());
+            System.exit(2);
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(10000);
+            sizes.add(100000);
+            sizes.add(1000000);
+        }
+
+        System.out.println(String.format("%10s %10s %10s %10s %10s %12s %12s %10s %10s %10s",
+                "files", "MB", "load s", "files/s", "MB/s", "first tree s", "tree s", "peak MB", "messages", "contacts"));
+        for (int size : sizes) {
+            generator.setFiles(size);
+            File root = prepare(generator, new File(directory, "files-" + size));
+            System.out.println(run(root, threads));
+        }
+    }
+
+    /**
+     * Generates tree unless it has been already generated with the same parameters
+     */
+    private static File prepare(CorpusGenerator generator, File root) throws IOException {
+        File description = new File(root, DESCRIPTION_FILE);
+        Properties properties = new Properties();
+        if (description.isFile()) {
+            InputStream in = new FileInputStream(description);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        if (!generator.describe().equals(properties.getProperty(DESCRIPTION_KEY))) {
+            if (root.exists() && !delete(root)) {
+                throw new IOException("Directory " + root + " can not be deleted");
+            }
+            System.err.println("Generating " + generator.getFiles() + " files in " + root);
+            generator.generate(root);
+            properties.setProperty(DESCRIPTION_KEY, generator.describe());
+            OutputStream out = new FileOutputStream(description);
+            try {
+                properties.store(out, "Generated by " + CorpusGenerator.class.getSimpleName());
+            } finally {
+                out.close();
+            }
+        }
+        return root;
+    }
+
+    private static boolean delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        return file.delete();
+    }
+
+    private static String run(File root, int threads) throws Exception {
+        final MessageStore store = new MessageStore();
+        final ContactTreeModel treeModel = new ContactTreeModel(new ResourceBundleMessageSource("messages"));
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong firstTree = new AtomicLong();
+        MessageLoader loader = new MessageLoader(threads, ParserEngine.getDefault(), false,
+                "true".equalsIgnoreCase(System.getProperty(MessageLoader.LAZY_BODIES_PROPERTY)),
+                !"false".equalsIgnoreCase(System.getProperty(MessageLoader.DEDUP_PROPERTY)));
+        HeapSampler sampler = new HeapSampler();
+
+        System.gc();
+        sampler.start();
+        final long start = System.nanoTime();
+        final long epoch = store.getSnapshot().getEpoch();
+        LoadResult result = loader.load(root, new LoadListener() {
+            @Override
+            public void fileFound(String path, long size) {
+            }
+
+            @Override
+            public void fileLoaded(String path, long size, List<Message> messages) {
+                bytes.addAndGet(size);
+                store.append(new LoadedFile(path, messages), epoch);
+                ConversationIndex index = store.flushIfDue().getIndex();
+                // the viewer shows the first snapshot with messages as soon as it is published
+                if (index.size() > 0 && firstTree.get() == 0) {
+                    synchronized (treeModel) {
+                        if (firstTree.get() == 0) {
+                            treeModel.setIndex(index);
+                            firstTree.set(System.nanoTime() - start);
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void fileFailed(LoadFailure failure) {
+            }
+        });
+        long loaded = System.nanoTime() - start;
+        ConversationIndex index = store.replace(result.getFiles());
+        synchronized (treeModel) {
+            treeModel.setIndex(index);
+        }
+        long tree = System.nanoTime() - start;
+        long peak = sampler.finish();
+
+        int files = result.getFiles().size() + result.getFailures().size();
+        double seconds = loaded / 1e9;
+        double megabytes = bytes.get() / BYTES_IN_MEGABYTE;
+        return String.format("%10d %10.1f %10.2f %10.0f %10.1f %12.3f %12.2f %10.0f %10d %10d",
+                files, megabytes, seconds, files / seconds, megabytes / seconds, firstTree.get() / 1e9, tree / 1e9,
+                peak / BYTES_IN_MEGABYTE, index.size(), index.getNumbers().size());
+    }
+
+    /**
+     * Samples used heap until it is stopped
+     */
+    private static class HeapSampler extends Thread {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private volatile boolean stopped;
+        private volatile long peak;
+
+        private HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                sample();
+                try {
+                    Thread.sleep(SAMPLE_PERIOD);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void sample() {
+            peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+        }
+
+        /**
+         * Stops sampling
+         * @return peak of used heap in bytes
+         */
+        private long finish() throws InterruptedException {
+            stopped = true;
+            join();
+            sample();
+            return peak;
+        }
+    }
+}
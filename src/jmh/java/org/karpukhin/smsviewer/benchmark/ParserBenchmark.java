@@ -0,0 +1,59 @@
+package org.karpukhin.smsviewer.benchmark;
+
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.ByteBufferVmessageParser;
+import org.karpukhin.smsviewer.utils.VmessageParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of one "*.vmg" file held in memory with a typical SMS body and with a long body
+ * of a concatenated message
+ *
+ * @author Pavel Karpukhin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"typical", "long"})
+    public String body;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        int length = "long".equals(body) ? 4000 : 120;
+        String text = BenchmarkData.vmessage(BenchmarkData.number(1), 1330596900000L, true,
+                BenchmarkData.body(new Random(1), length));
+        bytes = text.getBytes(BenchmarkData.UTF_16LE);
+    }
+
+    @Benchmark
+    public Message readerParser() {
+        return VmessageParser.parse(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public Message byteBufferParser() {
+        return ByteBufferVmessageParser.parse(ByteBuffer.wrap(bytes));
+    }
+}
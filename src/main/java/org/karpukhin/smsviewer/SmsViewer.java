@@ -1,22 +1,54 @@
 package org.karpukhin.smsviewer;
 
+import org.karpukhin.smsviewer.export.ExportCommand;
+import org.karpukhin.smsviewer.index.ConversationIndex;
+import org.karpukhin.smsviewer.index.MessageStore;
+import org.karpukhin.smsviewer.loader.FolderWatcher;
+import org.karpukhin.smsviewer.loader.LoadFailure;
+import org.karpukhin.smsviewer.loader.LoadListener;
+import org.karpukhin.smsviewer.loader.LoadProgress;
+import org.karpukhin.smsviewer.loader.LoadResult;
+import org.karpukhin.smsviewer.loader.LoadedFile;
+import org.karpukhin.smsviewer.loader.MessageCache;
+import org.karpukhin.smsviewer.loader.MessageLoader;
+import org.karpukhin.smsviewer.metrics.Metrics;
 import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.search.SearchHit;
+import org.karpukhin.smsviewer.search.SearchQuery;
+import org.karpukhin.smsviewer.server.ServeCommand;
+import org.karpukhin.smsviewer.stats.MessageStatistics;
+import org.karpukhin.smsviewer.stats.StatisticsEngine;
 import org.karpukhin.smsviewer.utils.*;
+import org.karpukhin.smsviewer.view.ContactTreeModel;
+import org.karpukhin.smsviewer.view.ConversationTable;
+import org.karpukhin.smsviewer.view.StatisticsPanel;
 
 import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
-import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
+import javax.swing.filechooser.FileFilter;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.prefs.Preferences;
 
 /**
  * @author Pavel Karpukhin
@@ -27,27 +59,94 @@ public class SmsViewer {
 
     private static final int WIDTH = 600;
     private static final int HEIGHT = 400;
+    private static final int MAX_REPORTED_FAILURES = 10;
+    private static final int PROGRESS_UPDATE_DELAY = 250;
+    private static final double BYTES_IN_MEGABYTE = 1024 * 1024;
+    private static final int STATISTICS_TAB = 1;
+
+    /** Preference with path of the last opened folder or archive */
+    private static final String LAST_DIRECTORY_KEY = "last.directory";
+    /** Preference which tells whether the last folder is opened on start */
+    private static final String REOPEN_KEY = "reopen.last.directory";
+
+    /** Time when the application was started, the class is loaded by the launcher before main */
+    private static final long START_NANOS = System.nanoTime();
 
     private MessageSource messageSource;
+    private MessageLoader messageLoader;
 
     private JFrame mainFrame;
     private JMenuBar menuBar;
     private JSplitPane splitPane;
     private JTree tree;
-    private JPanel panel;
+    private ConversationTable conversationTable;
+    private JTabbedPane tabbedPane;
+    /** Tab of statistics, the panel is created when the tab is selected first time */
+    private JPanel statisticsTab;
+    private StatisticsPanel statisticsPanel;
+    /** Chooser is slow to create, it is created after the first frame or when it is needed */
     private JFileChooser fileChooser;
-
-    private DefaultTreeModel treeModel;
-    private List<Message> messages;
+    private JPanel statusPanel;
+    private JLabel statusLabel;
+    private JLabel metricsLabel;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
+    private JCheckBoxMenuItem watchMenuItem;
+    private JCheckBoxMenuItem groupMenuItem;
+    private JCheckBoxMenuItem reopenMenuItem;
+    private JLabel searchLabel;
+    private JTextField searchField;
+
+    private ContactTreeModel treeModel;
+    private MessageStore messageStore;
+    private MessageLoadWorker loadWorker;
+    private FolderWatcher folderWatcher;
+    /** Time when the shown files were last known to be current, later changes are read by the watcher */
+    private long watchSince;
+    private File directory;
+    private String lastQuery;
+    private List<SearchHit> searchHits = Collections.emptyList();
+    private int searchHitIndex;
+    private SearchWorker searchWorker;
+    private final Preferences preferences = Preferences.userNodeForPackage(SmsViewer.class);
+    private StatisticsEngine statisticsEngine;
+    private StatisticsWorker statisticsWorker;
+    /** Whether index has changed since statistics started to be computed */
+    private boolean statisticsOutdated;
 
     public SmsViewer(MessageSource messageSource) {
         this.messageSource = messageSource;
+        this.messageLoader = new MessageLoader();
+        this.messageStore = new MessageStore(messageLoader.getBodyCache());
+        // texts of messages loaded without body are indexed only when they are searched for
+        if (!messageLoader.isLazyBodies()) {
+            messageStore.startIndexing();
+        }
         mainFrame = new JFrame("SMS Viewer");
         menuBar = new JMenuBar();
         splitPane = new JSplitPane();
         tree = new JTree();
-        panel = new JPanel();
+        conversationTable = new ConversationTable(messageLoader.getBodyCache());
+        tabbedPane = new JTabbedPane();
+        statisticsTab = new JPanel(new BorderLayout());
+        statusPanel = new JPanel();
+        statusLabel = new JLabel(" ");
+        metricsLabel = new JLabel();
+        progressBar = new JProgressBar();
+        cancelButton = new JButton(messageSource.getMessage("label.cancel"));
+        searchLabel = new JLabel(messageSource.getMessage("label.search"));
+        searchField = new JTextField();
+    }
 
+    /**
+     * Returns chooser of folders and archives creating it on first call
+     * @return file chooser
+     */
+    private JFileChooser getFileChooser() {
+        if (fileChooser != null) {
+            return fileChooser;
+        }
+        long start = System.nanoTime();
         UIManager.put("FileChooser.openDialogTitleText", messageSource.getMessage("label.open"));
         UIManager.put("FileChooser.lookInLabelText", messageSource.getMessage("label.look.in"));
         UIManager.put("FileChooser.upFolderToolTipText", messageSource.getMessage("label.up.folder"));
@@ -64,6 +163,24 @@ public class SmsViewer {
         UIManager.put("FileChooser.cancelButtonToolTipText", messageSource.getMessage("label.abort.file.chooser.dialog"));
 
         fileChooser = new JFileChooser(/*System.getProperty("user.home")*/);
+        String last = preferences.get(LAST_DIRECTORY_KEY, null);
+        if (last != null && new File(last).getParentFile() != null) {
+            fileChooser.setCurrentDirectory(new File(last).getParentFile());
+        }
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        fileChooser.setFileFilter(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isDirectory() || MessageLoader.isArchive(f);
+            }
+
+            @Override
+            public String getDescription() {
+                return messageSource.getMessage("label.folders.and.archives");
+            }
+        });
+        logger.log(Level.FINE, "File chooser is created in {0} ms", (System.nanoTime() - start) / 1000000);
+        return fileChooser;
     }
 
     /**
@@ -73,15 +190,23 @@ public class SmsViewer {
         initMainFrame();
         initMenu();
         initTree();
+        initSearch();
+        initStatusPanel();
 
         JScrollPane treeScrollPane = new JScrollPane(tree);
-        JScrollPane scrollPane = new JScrollPane(panel, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        JScrollPane scrollPane = new JScrollPane(conversationTable, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
 
-        splitPane.setLeftComponent(treeScrollPane);
-        splitPane.setRightComponent(scrollPane);
+        tabbedPane.addTab(messageSource.getMessage("label.messages"), scrollPane);
+        tabbedPane.addTab(messageSource.getMessage("label.statistics"), statisticsTab);
+        tabbedPane.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                updateStatistics();
+            }
+        });
 
-        //fileChooser.setCurrentDirectory(fileChooser.getFileSystemView().getDefaultDirectory());
-        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        splitPane.setLeftComponent(treeScrollPane);
+        splitPane.setRightComponent(tabbedPane);
 
         createLayout();
     }
@@ -109,6 +234,48 @@ public class SmsViewer {
             }
         });
         menu.add(menuItem);
+        menuItem = new JMenuItem(messageSource.getMessage("label.reload"));
+        menuItem.setToolTipText(messageSource.getMessage("label.reload.tooltip"));
+        menuItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                reloadMessages();
+            }
+        });
+        menu.add(menuItem);
+        watchMenuItem = new JCheckBoxMenuItem(messageSource.getMessage("label.watch"), true);
+        watchMenuItem.setToolTipText(messageSource.getMessage("label.watch.tooltip"));
+        watchMenuItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (watchMenuItem.isSelected()) {
+                    if (loadWorker == null) {
+                        startWatching();
+                    }
+                } else {
+                    stopWatching();
+                }
+            }
+        });
+        menu.add(watchMenuItem);
+        groupMenuItem = new JCheckBoxMenuItem(messageSource.getMessage("label.group.by.date"), false);
+        groupMenuItem.setToolTipText(messageSource.getMessage("label.group.by.date.tooltip"));
+        groupMenuItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                treeModel.setGroupedByDate(groupMenuItem.isSelected());
+            }
+        });
+        menu.add(groupMenuItem);
+        reopenMenuItem = new JCheckBoxMenuItem(messageSource.getMessage("label.reopen"), preferences.getBoolean(REOPEN_KEY, false));
+        reopenMenuItem.setToolTipText(messageSource.getMessage("label.reopen.tooltip"));
+        reopenMenuItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                preferences.putBoolean(REOPEN_KEY, reopenMenuItem.isSelected());
+            }
+        });
+        menu.add(reopenMenuItem);
         menu.addSeparator();
         menuItem = new JMenuItem(messageSource.getMessage("label.exit"));
         menuItem.addActionListener(new ActionListener() {
@@ -122,33 +289,134 @@ public class SmsViewer {
     }
 
     /**
-     * Initializes tree with phone numbers
+     * Initializes tree with phone numbers. Rows have fixed height, so only visible
+     * nodes are requested from the model
      */
     public void initTree() {
-        treeModel = new DefaultTreeModel(new DefaultMutableTreeNode(messageSource.getMessage("label.phones")));
+        treeModel = new ContactTreeModel(messageSource);
         tree.setModel(treeModel);
+        DefaultTreeCellRenderer renderer = new DefaultTreeCellRenderer();
+        tree.setCellRenderer(renderer);
+        tree.setRowHeight(renderer.getTreeCellRendererComponent(tree, "0", false, false, true, 0, false).getPreferredSize().height);
+        tree.setLargeModel(true);
         tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
         tree.addTreeSelectionListener(new TreeSelectionListener() {
             @Override
             public void valueChanged(TreeSelectionEvent e) {
-                DefaultMutableTreeNode node = (DefaultMutableTreeNode) e.getPath().getLastPathComponent();
-                if (node != null && !node.isRoot() && node.isLeaf() && node.getUserObject() instanceof String) {
-                    showMessages(MessageUtils.getMessagesForNumber(messages, (String) node.getUserObject()));
+                Object node = tree.getLastSelectedPathComponent();
+                if (node != null && node != treeModel.getRoot()) {
+                    showMessages(treeModel.getMessages(node));
                 }
             }
         });
     }
 
     /**
-     * Fills the tree with phone numbers
+     * Initializes search field. Enter finds messages, pressing it again with the same
+     * query shows the next hit
+     */
+    public void initSearch() {
+        searchLabel.setLabelFor(searchField);
+        searchField.setToolTipText(messageSource.getMessage("label.search.tooltip"));
+        searchField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                search(searchField.getText());
+            }
+        });
+    }
+
+    /**
+     * Initializes status panel which shows loading progress
+     */
+    public void initStatusPanel() {
+        cancelButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (loadWorker != null) {
+                    loadWorker.cancel(true);
+                }
+            }
+        });
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false);
+        statusPanel.setLayout(new BoxLayout(statusPanel, BoxLayout.LINE_AXIS));
+        metricsLabel.setToolTipText(messageSource.getMessage("label.load.metrics.tooltip"));
+        metricsLabel.setVisible(false);
+        statusPanel.add(statusLabel);
+        statusPanel.add(Box.createHorizontalStrut(10));
+        statusPanel.add(metricsLabel);
+        statusPanel.add(Box.createHorizontalGlue());
+        statusPanel.add(progressBar);
+        statusPanel.add(Box.createHorizontalStrut(5));
+        statusPanel.add(cancelButton);
+    }
+
+    /**
+     * Fills the tree with phone numbers of the store
      */
     public void fillTree() {
-        List<String> phones = MessageUtils.extractNumbers(messages);
-        DefaultMutableTreeNode root = new DefaultMutableTreeNode(messageSource.getMessage("label.phones"));
-        for (String phone : phones) {
-            root.add(new DefaultMutableTreeNode(phone));
+        tree.clearSelection();
+        treeModel.setIndex(messageStore.getIndex());
+        updateStatistics();
+    }
+
+    /**
+     * Adds, replaces and removes messages of the given files in already shown ones
+     * @param changed added or changed files
+     * @param removed paths of removed files or directories
+     */
+    public void updateFiles(Collection<LoadedFile> changed, Collection<String> removed) {
+        updateIndex(messageStore.update(changed, removed));
+    }
+
+    /**
+     * Replaces index of messages. Only inserted, removed and changed contacts are updated
+     * in the tree, so expanded and selected nodes are kept. Messages of the selected node
+     * are updated in place if they have changed
+     * @param index new index
+     */
+    private void updateIndex(ConversationIndex index) {
+        long start = Metrics.start();
+        // hits of the last query may be removed, so the query is run again
+        lastQuery = null;
+        if (searchWorker != null) {
+            searchWorker.outdated = true;
+        }
+        treeModel.setIndex(index);
+        if (!index.getNumbers().isEmpty() && !tree.isExpanded(0)) {
+            tree.expandRow(0);
         }
-        treeModel.setRoot(root);
+        Object selected = tree.getLastSelectedPathComponent();
+        if (selected != null) {
+            // the same node is still selected, so its messages are updated without scrolling to the top
+            conversationTable.updateMessages(treeModel.getMessages(selected));
+        }
+        updateStatistics();
+        Metrics.stop(Metrics.Phase.TREE, start);
+    }
+
+    /**
+     * Computes statistics of the current index in background if they are shown. Changes made
+     * while statistics are computed are counted by the next computation
+     */
+    private void updateStatistics() {
+        if (tabbedPane.getSelectedIndex() != STATISTICS_TAB) {
+            return;
+        }
+        if (statisticsPanel == null) {
+            statisticsPanel = new StatisticsPanel(messageSource);
+            statisticsTab.add(statisticsPanel, BorderLayout.CENTER);
+            statisticsTab.revalidate();
+            statisticsEngine = new StatisticsEngine();
+        }
+        if (statisticsWorker != null) {
+            statisticsOutdated = true;
+            return;
+        }
+        statisticsOutdated = false;
+        statisticsWorker = new StatisticsWorker(treeModel.getIndex());
+        statisticsWorker.execute();
     }
 
     /**
@@ -158,14 +426,24 @@ public class SmsViewer {
      * @throws ApplicationException if path does not exist or path is not a directory
      */
     public List<String> listFiles(String path) throws ApplicationException {
+        return listFiles(getDirectory(path));
+    }
+
+    /**
+     * Returns directory or archive with given path
+     * @param path directory or ZIP or TAR archive
+     * @return directory
+     * @throws ApplicationException if path does not exist or path is neither a directory nor an archive
+     */
+    public File getDirectory(String path) throws ApplicationException {
         File file = new File(path);
         if (!file.exists()) {
             throw new ApplicationException(String.format(messageSource.getMessage("error.path.not.exist"), path));
         }
-        if (!file.isDirectory()) {
+        if (!file.isDirectory() && !MessageLoader.isArchive(file)) {
             throw new ApplicationException(String.format(messageSource.getMessage("error.path.not.directory"), path));
         }
-        return listFiles(file);
+        return file;
     }
 
     /**
@@ -176,6 +454,9 @@ public class SmsViewer {
     public List<String> listFiles(File file) {
         File[] files = file.listFiles();
         List<String> result = new ArrayList<String>();
+        if (files == null) {
+            return result;
+        }
         for (File f : files) {
             //logger.debug(f.getName());
             if (f.isDirectory()) {
@@ -195,12 +476,24 @@ public class SmsViewer {
 
         layout.setHorizontalGroup(layout.createSequentialGroup()
                 .addContainerGap()
-                .addComponent(splitPane)
+                .addGroup(layout.createParallelGroup()
+                        .addGroup(layout.createSequentialGroup()
+                                .addComponent(searchLabel)
+                                .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                                .addComponent(searchField))
+                        .addComponent(splitPane)
+                        .addComponent(statusPanel))
                 .addContainerGap()
         );
         layout.setVerticalGroup(layout.createSequentialGroup()
                 .addContainerGap()
+                .addGroup(layout.createParallelGroup(GroupLayout.Alignment.BASELINE)
+                        .addComponent(searchLabel)
+                        .addComponent(searchField, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(splitPane)
+                .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(statusPanel, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE)
                 .addContainerGap()
         );
 
@@ -208,66 +501,316 @@ public class SmsViewer {
     }
 
     /**
-     * Shows view
+     * Shows view. When the first frame is shown, time since start is reported, things which are
+     * not needed to show it are prepared in background and the last folder is opened if it is
+     * enabled
      */
     public void show() {
+        mainFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                mainFrame.removeWindowListener(this);
+                // the frame is painted by events which are already in the queue
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        firstFrameShown();
+                    }
+                });
+            }
+        });
         mainFrame.setVisible(true);
     }
 
+    private void firstFrameShown() {
+        Metrics.stop(Metrics.Phase.STARTUP, START_NANOS);
+        final long mainMillis = (System.nanoTime() - START_NANOS) / 1000000;
+        final long shownAt = System.currentTimeMillis();
+        Thread warmUp = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Metrics.register();
+                long jvmMillis = shownAt - ManagementFactory.getRuntimeMXBean().getStartTime();
+                logger.log(Level.INFO, "First frame is shown in {0} ms after start of JVM, {1} ms after start of application",
+                        new Object[] {jvmMillis, mainMillis});
+                // reading of home directory is the slow part of creating of file chooser
+                File home = javax.swing.filechooser.FileSystemView.getFileSystemView().getDefaultDirectory();
+                home.listFiles();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        getFileChooser();
+                    }
+                });
+            }
+        }, "warm-up");
+        warmUp.setDaemon(true);
+        warmUp.setPriority(Thread.MIN_PRIORITY);
+        warmUp.start();
+        if (reopenMenuItem.isSelected()) {
+            String last = preferences.get(LAST_DIRECTORY_KEY, null);
+            if (last != null && new File(last).exists()) {
+                try {
+                    loadMessages(getDirectory(last));
+                } catch (ApplicationException e) {
+                    logger.log(Level.WARNING, e.getMessage());
+                }
+            }
+        }
+    }
+
     /**
      * Shows messages
      * @param messages list of message
      */
     public void showMessages(List<Message> messages) {
-        panel.removeAll();
-        GroupLayout layout = new GroupLayout(panel);
-
-        GroupLayout.ParallelGroup horGroup = layout.createParallelGroup();
-        GroupLayout.SequentialGroup verGroup = layout.createSequentialGroup();
-
-        for (Message message : messages) {
-            JTextArea label = new JTextArea(DateUtils.formatDate(message.getDate()) + ": " + message.getText());
-            label.setLineWrap(true);
-            label.setWrapStyleWord(true);
-            if (message.getInbox()) {
-                label.setBackground(Color.green);
-                horGroup.addGroup(layout.createSequentialGroup()
-                        .addComponent(label, 20, 20, Integer.MAX_VALUE)
-                        .addGap(0, 0, 50)
-                );
-            } else {
-                horGroup.addGroup(layout.createSequentialGroup()
-                        .addGap(0, 0, 50)
-                        .addComponent(label, 20, 20, Integer.MAX_VALUE)
-                );
+        conversationTable.setMessages(messages);
+    }
+
+    /**
+     * Finds messages and shows the best hit. If the query has not changed since the last
+     * search the next hit is shown
+     * @param str query typed by user
+     */
+    public void search(String str) {
+        if (!str.equals(lastQuery) || searchHits.isEmpty()) {
+            if (searchWorker != null && str.equals(searchWorker.str)) {
+                return;
+            }
+            SearchQuery query;
+            try {
+                query = SearchQuery.parse(str);
+            } catch (ParseException e) {
+                showError(String.format(messageSource.getMessage("error.search.query"), e.getMessage()));
+                return;
             }
-            verGroup.addComponent(label);
-            verGroup.addPreferredGap(LayoutStyle.ComponentPlacement.RELATED);
+            lastQuery = null;
+            statusLabel.setText(messageSource.getMessage("label.search.progress"));
+            // hits of the previous query are dropped when they come
+            searchWorker = new SearchWorker(str, query);
+            searchWorker.execute();
+            return;
         }
-        verGroup.addGap(0, 0, Integer.MAX_VALUE);
-        layout.setHorizontalGroup(horGroup);
-        layout.setVerticalGroup(verGroup);
-        panel.setLayout(layout);
+        searchHitIndex = (searchHitIndex + 1) % searchHits.size();
+        showSearchHit();
+    }
+
+    private void showSearchHit() {
+        if (searchHits.isEmpty()) {
+            statusLabel.setText(messageSource.getMessage("label.search.nothing"));
+            return;
+        }
+        showSearchHit(searchHits.get(searchHitIndex).getMessage());
+        statusLabel.setText(String.format(messageSource.getMessage("label.search.hit"), searchHitIndex + 1, searchHits.size()));
+    }
+
+    /**
+     * Selects phone number of the message in the tree and shows the message in its conversation
+     * @param message found message
+     */
+    private void showSearchHit(Message message) {
+        TreePath path = treeModel.getPath(message.getContact());
+        if (path == null) {
+            return;
+        }
+        tabbedPane.setSelectedIndex(0);
+        tree.setSelectionPath(path);
+        tree.scrollPathToVisible(path);
+        conversationTable.showMessage(message);
     }
 
     /**
      * Shows dialog where user can select directory
      */
     public void showFolderChooserDialog() {
-        int result = fileChooser.showOpenDialog(mainFrame);
+        JFileChooser chooser = getFileChooser();
+        int result = chooser.showOpenDialog(mainFrame);
         if (result == JFileChooser.APPROVE_OPTION) {
-            List<String> files = new ArrayList<String>();
             try {
-                files = listFiles(fileChooser.getSelectedFile().getAbsolutePath());
+                loadMessages(getDirectory(chooser.getSelectedFile().getAbsolutePath()));
             } catch (ApplicationException e) {
-                JOptionPane.showMessageDialog(mainFrame, e.getMessage(), messageSource.getMessage("label.error"), JOptionPane.ERROR_MESSAGE);
+                showError(e.getMessage());
             }
-            messages = MessageUtils.parseMessages(files);
-            fillTree();
         }
     }
 
+    /**
+     * Starts loading messages from the given directory in background. Messages are shown
+     * as soon as they are parsed, loading which is already in progress is cancelled
+     * @param directory directory
+     */
+    public void loadMessages(File directory) {
+        if (loadWorker != null) {
+            loadWorker.cancel(true);
+        }
+        stopWatching();
+        watchSince = System.currentTimeMillis();
+        this.directory = directory;
+        preferences.put(LAST_DIRECTORY_KEY, directory.getAbsolutePath());
+        messageStore.clear();
+        messageLoader.getBodyCache().clear();
+        lastQuery = null;
+        fillTree();
+        showMessages(Collections.<Message>emptyList());
+        loadWorker = new MessageLoadWorker(directory);
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(true);
+        cancelButton.setVisible(true);
+        loadWorker.start();
+    }
+
+    /**
+     * Loads messages of the current directory again ignoring cached ones
+     */
+    public void reloadMessages() {
+        if (directory != null) {
+            if (loadWorker != null) {
+                loadWorker.cancel(true);
+                loadWorker = null;
+            }
+            MessageCache.invalidate(directory);
+            loadMessages(directory);
+        }
+    }
+
+    /**
+     * Starts watching the current directory, so created, changed and deleted files
+     * are shown without loading the whole directory again
+     */
+    public void startWatching() {
+        stopWatching();
+        // archives are read once, there is nothing to watch
+        if (directory == null || !directory.isDirectory()) {
+            return;
+        }
+        WatchListener listener = new WatchListener();
+        FolderWatcher watcher = new FolderWatcher(directory, messageLoader, listener);
+        listener.watcher = watcher;
+        try {
+            watcher.start(watchSince, messageStore.getSnapshot().getPaths());
+            folderWatcher = watcher;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not watch " + directory, e);
+        }
+    }
+
+    /**
+     * Stops watching the current directory
+     */
+    public void stopWatching() {
+        if (folderWatcher != null) {
+            folderWatcher.close();
+            folderWatcher = null;
+            watchSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Updates status panel with loading progress
+     * @param progress loading progress
+     */
+    public void showProgress(LoadProgress progress) {
+        long found = progress.getFilesFound();
+        long processed = progress.getFilesProcessed();
+        if (found > 0) {
+            progressBar.setIndeterminate(false);
+            progressBar.setMaximum((int) Math.min(found, Integer.MAX_VALUE));
+            progressBar.setValue((int) Math.min(processed, Integer.MAX_VALUE));
+        }
+        statusLabel.setText(String.format(messageSource.getMessage("label.load.progress"),
+                processed, found, progress.getMessages(), progress.getBytes() / BYTES_IN_MEGABYTE));
+    }
+
+    /**
+     * Shows time of loading phases since the given snapshot of metrics
+     * @param start metrics at start of loading
+     */
+    public void showMetrics(Metrics.Snapshot start) {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+        Metrics.Snapshot metrics = Metrics.getInstance().snapshot().since(start);
+        metricsLabel.setText(String.format(messageSource.getMessage("label.load.metrics"),
+                metrics.getMillis(Metrics.Phase.WALK), metrics.getMillis(Metrics.Phase.READ),
+                metrics.getMillis(Metrics.Phase.PARSE), metrics.getMillis(Metrics.Phase.DATE),
+                metrics.getMillis(Metrics.Phase.INDEX), metrics.getMillis(Metrics.Phase.TREE)));
+        metricsLabel.setVisible(true);
+    }
+
+    /**
+     * Finishes loading started by {@link #loadMessages(File)}
+     * @param worker worker which has finished
+     */
+    private void finishLoading(MessageLoadWorker worker) {
+        if (worker != loadWorker) {
+            return;
+        }
+        loadWorker = null;
+        showProgress(worker.progress);
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false);
+        try {
+            LoadResult result = worker.get();
+            // files changed later are compared with loaded messages by the same deduplicator
+            updateIndex(messageStore.replace(result.getFiles(), result.getDeduplicator()));
+            if (result.getDuplicates() > 0) {
+                statusLabel.setText(statusLabel.getText() + " - "
+                        + String.format(messageSource.getMessage("label.load.duplicates"), result.getDuplicates()));
+            }
+            showMetrics(worker.metrics);
+            if (watchMenuItem.isSelected()) {
+                startWatching();
+            }
+            showLoadFailures(result.getFailures());
+        } catch (CancellationException e) {
+            statusLabel.setText(statusLabel.getText() + " - " + messageSource.getMessage("label.load.cancelled"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, e.getMessage(), e.getCause());
+            showError(e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Shows dialog with error
+     * @param message error message
+     */
+    public void showError(String message) {
+        JOptionPane.showMessageDialog(mainFrame, message, messageSource.getMessage("label.error"), JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Shows dialog with files which could not be loaded
+     * @param failures list of failures
+     */
+    public void showLoadFailures(List<LoadFailure> failures) {
+        if (failures.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(String.format(messageSource.getMessage("error.files.not.loaded"), failures.size()));
+        for (int i = 0; i < failures.size() && i < MAX_REPORTED_FAILURES; i++) {
+            sb.append('\n').append(failures.get(i));
+        }
+        if (failures.size() > MAX_REPORTED_FAILURES) {
+            sb.append("\n...");
+        }
+        JOptionPane.showMessageDialog(mainFrame, sb.toString(), messageSource.getMessage("label.warning"), JOptionPane.WARNING_MESSAGE);
+    }
+
     public static void main(String[] args) {
+        if (ExportCommand.isExport(args)) {
+            System.exit(new ExportCommand(System.err).run(args));
+        }
+        if (ServeCommand.isServe(args)) {
+            // threads of the server keep the process alive
+            int code = new ServeCommand(System.err).run(args);
+            if (code != ExportCommand.EXIT_OK) {
+                System.exit(code);
+            }
+            return;
+        }
+        // JMX bean is registered after the first frame is shown
         final MessageSource messageSource = new ResourceBundleMessageSource("messages");
         SwingUtilities.invokeLater(new Runnable() {
             @Override
@@ -279,44 +822,183 @@ public class SmsViewer {
         });
     }
 
-    public static class MessageUtils {
+    /**
+     * Loads messages in background and publishes them to the event dispatch thread in chunks
+     */
+    private class MessageLoadWorker extends SwingWorker<LoadResult, MessageStore.Snapshot> implements LoadListener {
+
+        private final File directory;
+        /** Epoch of the store the files are loaded into */
+        private final long epoch = messageStore.getSnapshot().getEpoch();
+        private final LoadProgress progress = new LoadProgress();
+        private final Metrics.Snapshot metrics = Metrics.getInstance().snapshot();
+        private final Timer timer;
+
+        private MessageLoadWorker(File directory) {
+            this.directory = directory;
+            this.timer = new Timer(PROGRESS_UPDATE_DELAY, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    showProgress(progress);
+                    showMetrics(metrics);
+                }
+            });
+        }
+
+        private void start() {
+            timer.start();
+            execute();
+        }
+
+        @Override
+        protected LoadResult doInBackground() throws Exception {
+            return messageLoader.load(directory, this);
+        }
+
+        @Override
+        public void fileFound(String path, long size) {
+            progress.fileFound();
+        }
+
+        @Override
+        public void fileLoaded(String path, long size, List<Message> messages) {
+            progress.fileLoaded(size, messages.size());
+            // files are indexed by loading threads, the tree is updated with the latest snapshot
+            messageStore.append(new LoadedFile(path, messages), epoch);
+            publish(messageStore.flushIfDue());
+        }
+
+        @Override
+        public void fileFailed(LoadFailure failure) {
+            progress.fileFailed();
+        }
+
+        @Override
+        protected void process(List<MessageStore.Snapshot> chunks) {
+            MessageStore.Snapshot snapshot = messageStore.getSnapshot();
+            if (this == loadWorker && !isDone() && snapshot.getEpoch() == epoch
+                    && snapshot.getIndex() != treeModel.getIndex()) {
+                updateIndex(snapshot.getIndex());
+            }
+        }
+
+        @Override
+        protected void done() {
+            timer.stop();
+            finishLoading(this);
+        }
+    }
+
+    /**
+     * Computes statistics of the index, only conversations changed since the previous
+     * computation are read again
+     */
+    private class StatisticsWorker extends SwingWorker<MessageStatistics, Void> {
+
+        private final ConversationIndex index;
 
-        private static Logger logger = Logger.getLogger(MessageUtils.class.getName());
+        private StatisticsWorker(ConversationIndex index) {
+            this.index = index;
+        }
 
-        public static List<Message> parseMessages(List<String> files) {
-            List<Message> messages = new ArrayList<Message>(files.size());
-            for (String file : files) {
-                logger.log(Level.FINE, file);
-                Message message = VmessageParser.parse(file);
-                if (message != null) {
-                    messages.add(message);
-                }
+        @Override
+        protected MessageStatistics doInBackground() {
+            return statisticsEngine.compute(index);
+        }
+
+        @Override
+        protected void done() {
+            statisticsWorker = null;
+            try {
+                statisticsPanel.setStatistics(get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.log(Level.SEVERE, e.getMessage(), e.getCause());
+            }
+            if (statisticsOutdated) {
+                updateStatistics();
             }
-            return messages;
+        }
+    }
+
+    /**
+     * Finds messages waiting until the search index contains the current messages, texts of
+     * messages loaded without body are read by the first search
+     */
+    private class SearchWorker extends SwingWorker<List<SearchHit>, Void> {
+
+        private final String str;
+        private final SearchQuery query;
+        /** Whether index has changed since the search started */
+        private boolean outdated;
+
+        private SearchWorker(String str, SearchQuery query) {
+            this.str = str;
+            this.query = query;
+        }
+
+        @Override
+        protected List<SearchHit> doInBackground() {
+            return messageStore.search(query);
         }
 
-        public static List<String> extractNumbers(List<Message> messages) {
-            Set<String> phones = new TreeSet<String>();
-            for (Message message : messages) {
-                phones.add(message.getNumber());
+        @Override
+        protected void done() {
+            if (searchWorker != this) {
+                return;
             }
-            return new LinkedList<String>(phones);
+            searchWorker = null;
+            try {
+                searchHits = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.log(Level.SEVERE, e.getMessage(), e.getCause());
+                statusLabel.setText(messageSource.getMessage("label.search.nothing"));
+                return;
+            }
+            lastQuery = outdated ? null : str;
+            searchHitIndex = 0;
+            showSearchHit();
         }
+    }
+
+    /**
+     * Passes changes found by {@link FolderWatcher} to the event dispatch thread. Changes of
+     * a watcher which has been already stopped are ignored
+     */
+    private class WatchListener implements FolderWatcher.Listener {
+
+        private FolderWatcher watcher;
 
-        public static List<Message> getMessagesForNumber(List<Message> messages, String number) {
-            List<Message> result = new LinkedList<Message>();
-            for (Message m : messages) {
-                if (number.equals(m.getNumber())) {
-                    result.add(m);
+        @Override
+        public void filesChanged(final List<LoadedFile> changed, final Set<String> removed) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (watcher == folderWatcher) {
+                        updateFiles(changed, removed);
+                        // copies of removed messages were dropped from other files, they are loaded again
+                        if (messageStore.isReloadRequired()) {
+                            loadMessages(directory);
+                        }
+                    }
                 }
-            }
-            Collections.sort(result, new Comparator<Message>() {
+            });
+        }
+
+        @Override
+        public void rescanRequired() {
+            SwingUtilities.invokeLater(new Runnable() {
                 @Override
-                public int compare(Message m1, Message m2) {
-                    return m1.getDate().compareTo(m2.getDate());
+                public void run() {
+                    if (watcher == folderWatcher) {
+                        loadMessages(directory);
+                    }
                 }
             });
-            return result;
         }
     }
 }
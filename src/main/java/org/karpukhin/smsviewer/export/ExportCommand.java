@@ -0,0 +1,311 @@
+package org.karpukhin.smsviewer.export;
+
+import org.karpukhin.smsviewer.index.ConversationIndex;
+import org.karpukhin.smsviewer.index.ExternalSorter;
+import org.karpukhin.smsviewer.index.MessageFile;
+import org.karpukhin.smsviewer.loader.LoadFailure;
+import org.karpukhin.smsviewer.loader.LoadResult;
+import org.karpukhin.smsviewer.loader.MessageLoader;
+import org.karpukhin.smsviewer.stats.ContactStatistics;
+import org.karpukhin.smsviewer.stats.MessageStatistics;
+import org.karpukhin.smsviewer.stats.StatisticsEngine;
+import org.karpukhin.smsviewer.utils.DateCodec;
+import org.karpukhin.smsviewer.utils.ParserEngine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Command line mode which exports messages of a directory without user interface:
+ * <pre>
+ * --export &lt;directory|archive&gt; [--format csv|jsonl] [--output &lt;file&gt;] [--threads &lt;number&gt;]
+ *          [--order files|contacts] [--stats contacts|days]
+ * </pre>
+ * Messages are written to the standard output unless output file is given. Format is taken
+ * from extension of output file when it is not given, CSV is used by default. Messages are
+ * written in order files are parsed in, with "--order contacts" they are ordered by contact
+ * and date with {@link ExternalSorter} in the temporary directory, so archives larger than
+ * the heap can be exported. With "--stats" statistics of contacts or numbers of messages by
+ * day are written as CSV instead of messages.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ExportCommand {
+
+    private static final Logger logger = Logger.getLogger(ExportCommand.class.getName());
+
+    public static final String EXPORT_OPTION = "--export";
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE =
+            "Usage: run.sh --export <directory|archive> [--format csv|jsonl] [--output <file>] [--threads <number>]"
+                    + " [--order files|contacts] [--stats contacts|days]";
+    private static final String ORDER_FILES = "files";
+    private static final String ORDER_CONTACTS = "contacts";
+    private static final String STATS_CONTACTS = "contacts";
+    private static final String STATS_DAYS = "days";
+    private static final String DAY_FORMAT = "yyyy-MM-dd";
+    private static final int MAX_REPORTED_FAILURES = 10;
+    private static final double BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    private final PrintStream err;
+    private File directory;
+    private ExportFormat format;
+    private File output;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean sorted;
+    /** Kind of statistics or {@code null} if messages are exported */
+    private String statistics;
+
+    public ExportCommand(PrintStream err) {
+        this.err = err;
+    }
+
+    /**
+     * Returns whether command line asks for export
+     * @param args command line arguments
+     * @return {@code true} if application should run without user interface
+     */
+    public static boolean isExport(String[] args) {
+        for (String arg : args) {
+            if (EXPORT_OPTION.equals(arg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses arguments and exports messages
+     * @param args command line arguments
+     * @return exit code
+     */
+    public int run(String[] args) {
+        try {
+            parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            if (statistics != null) {
+                return exportStatistics();
+            }
+            return sorted ? exportSorted() : export();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+            err.println("Export failed: " + e.getMessage());
+            return EXIT_ERROR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Export interrupted");
+            return EXIT_ERROR;
+        }
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + arg);
+            }
+            String value = args[++i];
+            if (EXPORT_OPTION.equals(arg)) {
+                directory = new File(value);
+            } else if ("--format".equals(arg)) {
+                try {
+                    format = ExportFormat.forName(value);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown format " + value);
+                }
+            } else if ("--output".equals(arg)) {
+                output = "-".equals(value) ? null : new File(value);
+            } else if ("--threads".equals(arg)) {
+                try {
+                    threads = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Wrong number of threads " + value);
+                }
+                if (threads < 1) {
+                    throw new IllegalArgumentException("Wrong number of threads " + value);
+                }
+            } else if ("--order".equals(arg)) {
+                if (!ORDER_FILES.equals(value) && !ORDER_CONTACTS.equals(value)) {
+                    throw new IllegalArgumentException("Unknown order " + value);
+                }
+                sorted = ORDER_CONTACTS.equals(value);
+            } else if ("--stats".equals(arg)) {
+                if (!STATS_CONTACTS.equals(value) && !STATS_DAYS.equals(value)) {
+                    throw new IllegalArgumentException("Unknown statistics " + value);
+                }
+                statistics = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory is not given");
+        }
+        if (!directory.isDirectory() && !MessageLoader.isArchive(directory)) {
+            throw new IllegalArgumentException("Path '" + directory + "' is neither a directory nor an archive");
+        }
+        if (format == null) {
+            format = output != null && output.getName().toLowerCase().endsWith(".jsonl")
+                    ? ExportFormat.JSONL : ExportFormat.CSV;
+        }
+    }
+
+    private int export() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        MessageLoader loader = createLoader();
+        MessageExporter exporter = new MessageExporter(openOutput(), format);
+        LoadResult result;
+        try {
+            result = loader.scan(directory, exporter);
+        } finally {
+            exporter.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        err.println(String.format("Exported %d messages from %d files, %.1f MB in %.1f s",
+                exporter.getMessages(), exporter.getFiles(), exporter.getBytes() / BYTES_IN_MEGABYTE, seconds));
+        reportProblems(result);
+        return EXIT_OK;
+    }
+
+    /**
+     * Sorts messages in sorted runs on disk and writes them by contact from the merged file
+     */
+    private int exportSorted() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        File temp = new File(System.getProperty("java.io.tmpdir"));
+        ExternalSorter sorter = new ExternalSorter(temp);
+        LoadResult result;
+        try {
+            result = createLoader().scan(directory, sorter);
+        } catch (IOException e) {
+            sorter.close();
+            throw e;
+        } catch (InterruptedException e) {
+            sorter.close();
+            throw e;
+        }
+        int runs = sorter.getRuns();
+        File file = File.createTempFile("messages-", ".sorted", temp);
+        MessageFile messages = null;
+        MessageExporter exporter = null;
+        try {
+            messages = sorter.finish(file);
+            exporter = new MessageExporter(openOutput(), format);
+            for (String number : messages.getNumbers()) {
+                exporter.conversationLoaded(messages.getMessages(number));
+            }
+        } finally {
+            try {
+                if (exporter != null) {
+                    exporter.close();
+                }
+            } finally {
+                if (messages != null) {
+                    messages.close();
+                }
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        err.println(String.format("Exported %d messages of %d contacts sorted in %d run(s), %.1f MB in %.1f s",
+                exporter.getMessages(), messages.getNumbers().size(), Math.max(runs, 1),
+                exporter.getBytes() / BYTES_IN_MEGABYTE, seconds));
+        reportProblems(result);
+        return EXIT_OK;
+    }
+
+    /**
+     * Loads all messages and writes statistics computed by {@link StatisticsEngine}
+     */
+    private int exportStatistics() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        LoadResult result = createLoader().load(directory);
+        MessageStatistics computed = new StatisticsEngine(threads).compute(ConversationIndex.build(result.getMessages()));
+        Writer writer = new BufferedWriter(Channels.newWriter(openOutput(), "UTF-8"));
+        try {
+            StringBuilder sb = new StringBuilder();
+            if (STATS_CONTACTS.equals(statistics)) {
+                sb.append("number,messages,inbound,outbound,inbound_ratio,first,last,active_days\n");
+                for (ContactStatistics contact : computed.getContacts()) {
+                    ExportFormat.appendCsv(sb, contact.getNumber()).append(',')
+                            .append(contact.getMessages()).append(',')
+                            .append(contact.getInbound()).append(',')
+                            .append(contact.getOutbound()).append(',')
+                            .append(String.format(Locale.ENGLISH, "%.3f", contact.getInboundRatio())).append(',')
+                            .append(DateCodec.forPattern(ExportFormat.DATE_FORMAT).format(contact.getFirst())).append(',')
+                            .append(DateCodec.forPattern(ExportFormat.DATE_FORMAT).format(contact.getLast())).append(',')
+                            .append(contact.getActiveDays()).append('\n');
+                    writer.write(sb.toString());
+                    sb.setLength(0);
+                }
+            } else {
+                writer.write("date,inbound,outbound\n");
+                for (int i = 0; i < computed.getDays(); i++) {
+                    sb.append(DateCodec.forPattern(DAY_FORMAT).format(computed.startOf(computed.getFirstDay() + i))).append(',')
+                            .append(computed.getInbound(i)).append(',')
+                            .append(computed.getOutbound(i)).append('\n');
+                    writer.write(sb.toString());
+                    sb.setLength(0);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        err.println(String.format("Statistics of %d messages of %d contacts in %.1f s",
+                computed.getMessages(), computed.getContacts().size(), seconds));
+        reportProblems(result);
+        return EXIT_OK;
+    }
+
+    private MessageLoader createLoader() {
+        return new MessageLoader(threads, ParserEngine.getDefault(), false, false,
+                !"false".equalsIgnoreCase(System.getProperty(MessageLoader.DEDUP_PROPERTY)));
+    }
+
+    private void reportProblems(LoadResult result) {
+        List<LoadFailure> failures = result.getFailures();
+        if (result.getDuplicates() > 0) {
+            err.println(String.format("%d duplicate messages were skipped", result.getDuplicates()));
+        }
+        if (!failures.isEmpty()) {
+            err.println(String.format("%d file(s) could not be loaded:", failures.size()));
+            for (int i = 0; i < failures.size() && i < MAX_REPORTED_FAILURES; i++) {
+                err.println(failures.get(i));
+            }
+            if (failures.size() > MAX_REPORTED_FAILURES) {
+                err.println("...");
+            }
+        }
+    }
+
+    private WritableByteChannel openOutput() throws IOException {
+        if (output == null) {
+            return Channels.newChannel(System.out);
+        }
+        return FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
@@ -0,0 +1,154 @@
+package org.karpukhin.smsviewer.export;
+
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.DateCodec;
+
+/**
+ * Text formats messages can be exported to. Every message is written as one record with
+ * date in ISO 8601 with offset, phone number as it is written in the file, normalized
+ * number, direction, text and path of the file
+ *
+ * @author Pavel Karpukhin
+ */
+public enum ExportFormat {
+
+    /** Comma separated values as described in RFC 4180 with header line */
+    CSV {
+        @Override
+        public String getHeader() {
+            return "date,number,contact,direction,text,file\r\n";
+        }
+
+        @Override
+        public void append(StringBuilder sb, Message message, String path) {
+            appendCsv(sb, formatDate(message)).append(',');
+            appendCsv(sb, message.getNumber()).append(',');
+            appendCsv(sb, message.getContact().getLabel()).append(',');
+            sb.append(direction(message)).append(',');
+            appendCsv(sb, message.getText()).append(',');
+            appendCsv(sb, path).append("\r\n");
+        }
+    },
+
+    /** One JSON object per line */
+    JSONL {
+        @Override
+        public String getHeader() {
+            return "";
+        }
+
+        @Override
+        public void append(StringBuilder sb, Message message, String path) {
+            sb.append("{\"date\":");
+            appendJson(sb, formatDate(message));
+            sb.append(",\"timestamp\":").append(message.getTimestamp());
+            sb.append(",\"number\":");
+            appendJson(sb, message.getNumber());
+            sb.append(",\"contact\":");
+            appendJson(sb, message.getContact().getLabel());
+            sb.append(",\"direction\":\"").append(direction(message)).append('"');
+            sb.append(",\"text\":");
+            appendJson(sb, message.getText());
+            sb.append(",\"file\":");
+            appendJson(sb, path);
+            sb.append("}\n");
+        }
+    };
+
+    public static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssXXX";
+
+    /**
+     * Returns text written before the first record
+     * @return header, may be empty
+     */
+    public abstract String getHeader();
+
+    /**
+     * Appends record of the message
+     * @param sb buffer
+     * @param message message
+     * @param path path of the file the message was loaded from
+     */
+    public abstract void append(StringBuilder sb, Message message, String path);
+
+    /**
+     * Returns format with the given name ignoring case
+     * @param name name of format
+     * @return format
+     * @throws IllegalArgumentException if there is no such format
+     */
+    public static ExportFormat forName(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    private static String formatDate(Message message) {
+        return DateCodec.forPattern(DATE_FORMAT).format(message.getTimestamp());
+    }
+
+    private static String direction(Message message) {
+        return message.getInbox() ? "in" : "out";
+    }
+
+    static StringBuilder appendCsv(StringBuilder sb, String value) {
+        if (value == null) {
+            return sb;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            return sb.append(value);
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Appends JSON string literal
+     * @param sb buffer
+     * @param value string or {@code null}
+     */
+    public static void appendJson(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,183 @@
+package org.karpukhin.smsviewer.export;
+
+import org.karpukhin.smsviewer.index.MessageFile;
+import org.karpukhin.smsviewer.loader.LoadFailure;
+import org.karpukhin.smsviewer.loader.LoadListener;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes messages of loaded files to a channel in the given format as soon as files are parsed.
+ * Records of one file are formatted by the parsing thread, then they are encoded to UTF-8 into
+ * a direct buffer which is written to the channel when it is full. Records of one file are
+ * never mixed with records of another one, order of files is the order they were parsed in.
+ * Conversations of {@link MessageFile} are written in parts, so they do not have to fit into memory.
+ * <p>
+ * {@link LoadListener} methods can not throw {@link IOException}, so the first write error
+ * is kept, the rest of messages are skipped and the error is thrown by {@link #close()}
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageExporter implements LoadListener, Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_RETAINED_RECORD_SIZE = 1024 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ExportFormat format;
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ThreadLocal<StringBuilder> records = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(4096);
+        }
+    };
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private long bytes;
+    private IOException error;
+
+    public MessageExporter(WritableByteChannel channel, ExportFormat format) throws IOException {
+        this.channel = channel;
+        this.format = format;
+        write(format.getHeader());
+    }
+
+    @Override
+    public void fileFound(String path, long size) {
+    }
+
+    @Override
+    public void fileLoaded(String path, long size, List<Message> loaded) {
+        StringBuilder sb = records.get();
+        sb.setLength(0);
+        for (Message message : loaded) {
+            format.append(sb, message, path);
+        }
+        writeRecords(sb);
+        if (sb.capacity() > MAX_RETAINED_RECORD_SIZE) {
+            records.remove();
+        }
+        files.incrementAndGet();
+        messages.addAndGet(loaded.size());
+    }
+
+    /**
+     * Writes messages of one contact of the file of sorted messages
+     * @param conversation messages ordered by date
+     */
+    public void conversationLoaded(MessageFile.StoredConversation conversation) {
+        StringBuilder sb = records.get();
+        sb.setLength(0);
+        for (int i = 0; i < conversation.size(); i++) {
+            format.append(sb, conversation.get(i), conversation.getPath(i));
+            if (sb.length() >= BUFFER_SIZE) {
+                writeRecords(sb);
+                sb.setLength(0);
+            }
+        }
+        writeRecords(sb);
+        if (sb.capacity() > MAX_RETAINED_RECORD_SIZE) {
+            records.remove();
+        }
+        messages.addAndGet(conversation.size());
+    }
+
+    @Override
+    public void fileFailed(LoadFailure failure) {
+    }
+
+    /**
+     * Returns number of exported files
+     * @return number of files
+     */
+    public long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * Returns number of exported messages
+     * @return number of messages
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    /**
+     * Returns number of bytes written to the channel
+     * @return number of bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Writes buffered records and closes the channel
+     * @throws IOException if records could not be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (error == null) {
+                flushBuffer();
+            }
+        } finally {
+            channel.close();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private synchronized void writeRecords(StringBuilder sb) {
+        if (error == null) {
+            try {
+                write(sb);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    private void write(CharSequence text) throws IOException {
+        CharBuffer in = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(in, buffer, true);
+            if (result.isOverflow()) {
+                flushBuffer();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                try {
+                    result.throwException();
+                } catch (CharacterCodingException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+        encoder.reset();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,55 @@
+package org.karpukhin.smsviewer.index;
+
+import org.karpukhin.smsviewer.model.Message;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of messages sent to or received from one contact ordered by date. Messages
+ * of all numbers with the same canonical key belong to one conversation
+ *
+ * @author Pavel Karpukhin
+ */
+public class Conversation extends AbstractList<Message> implements RandomAccess {
+
+    private final long key;
+    private final String number;
+    private final Message[] messages;
+
+    Conversation(long key, String number, Message[] messages) {
+        this.key = key;
+        this.number = number;
+        this.messages = messages;
+    }
+
+    /**
+     * Returns canonical key of the contact
+     * @return key
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Returns number shown for the contact
+     * @return label of the contact
+     */
+    public String getNumber() {
+        return number;
+    }
+
+    @Override
+    public Message get(int index) {
+        return messages[index];
+    }
+
+    @Override
+    public int size() {
+        return messages.length;
+    }
+
+    Message[] array() {
+        return messages;
+    }
+}
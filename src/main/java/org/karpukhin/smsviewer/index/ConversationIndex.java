@@ -0,0 +1,294 @@
+package org.karpukhin.smsviewer.index;
+
+import org.karpukhin.smsviewer.model.Contact;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable index of messages by contact. Messages are grouped by canonical key of their
+ * phone number, so numbers written in different ways make up one conversation. Messages of
+ * every contact are kept in an array sorted by date, so neither list of numbers nor conversation
+ * has to be computed when it is requested. New messages are added by creating a new index
+ * which shares conversations that have not changed.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ConversationIndex {
+
+    private static final ConversationIndex EMPTY = new ConversationIndex(
+            new Conversation[0], new String[0], new LongIntHashMap(0, -1), 0);
+
+    private static final Comparator<Message> BY_KEY = new Comparator<Message>() {
+        @Override
+        public int compare(Message m1, Message m2) {
+            return Long.compare(m1.getContact().getKey(), m2.getContact().getKey());
+        }
+    };
+
+    private static final Comparator<Message> BY_KEY_AND_DATE = new Comparator<Message>() {
+        @Override
+        public int compare(Message m1, Message m2) {
+            int result = BY_KEY.compare(m1, m2);
+            return result != 0 ? result : BY_DATE.compare(m1, m2);
+        }
+    };
+
+    private static final Comparator<Message> BY_DATE = new Comparator<Message>() {
+        @Override
+        public int compare(Message m1, Message m2) {
+            return Long.compare(m1.getTimestamp(), m2.getTimestamp());
+        }
+    };
+
+    private static final Comparator<Conversation> BY_NUMBER = new Comparator<Conversation>() {
+        @Override
+        public int compare(Conversation c1, Conversation c2) {
+            int result = c1.getNumber().compareTo(c2.getNumber());
+            return result != 0 ? result : Long.compare(c1.getKey(), c2.getKey());
+        }
+    };
+
+    private final Conversation[] conversations;
+    private final String[] numbers;
+    private final List<String> numberList;
+    private final LongIntHashMap positions;
+    private final int size;
+
+    /**
+     * @param conversations conversations ordered by number
+     * @param numbers numbers of conversations
+     * @param positions positions of conversations by key, must not be changed after the index is created
+     * @param size number of messages
+     */
+    private ConversationIndex(Conversation[] conversations, String[] numbers, LongIntHashMap positions, int size) {
+        this.conversations = conversations;
+        this.numbers = numbers;
+        this.numberList = Collections.unmodifiableList(Arrays.asList(numbers));
+        this.positions = positions;
+        this.size = size;
+    }
+
+    /**
+     * Returns index without messages
+     * @return empty index
+     */
+    public static ConversationIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds index of the given messages. Messages with equal dates keep their relative order
+     * @param messages messages
+     * @return index
+     */
+    public static ConversationIndex build(Collection<Message> messages) {
+        return EMPTY.withMessages(messages);
+    }
+
+    /**
+     * Returns new index containing messages of this index and the given messages
+     * @param added messages to add
+     * @return new index
+     */
+    public ConversationIndex withMessages(Collection<Message> added) {
+        return withChanges(added, Collections.<Message>emptyList());
+    }
+
+    /**
+     * Returns new index containing messages of this index without removed messages and with
+     * added messages. Removed messages are compared by identity. Contacts which are left without
+     * messages are removed from the index
+     * @param added messages to add
+     * @param removed messages to remove
+     * @return new index
+     */
+    public ConversationIndex withChanges(Collection<Message> added, Collection<Message> removed) {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return this;
+        }
+        Conversation[] updated = conversations.clone();
+        List<Conversation> created = new ArrayList<Conversation>();
+        boolean numbersChanged = false;
+        int newSize = size;
+
+        if (!removed.isEmpty()) {
+            Message[] sorted = removed.toArray(new Message[removed.size()]);
+            Arrays.sort(sorted, BY_KEY);
+            int from = 0;
+            while (from < sorted.length) {
+                int to = endOfKey(sorted, from);
+                int position = positions.get(sorted[from].getContact().getKey());
+                if (position >= 0 && updated[position] != null) {
+                    Set<Message> set = Collections.newSetFromMap(new IdentityHashMap<Message, Boolean>());
+                    set.addAll(Arrays.asList(sorted).subList(from, to));
+                    Conversation conversation = updated[position];
+                    Message[] remaining = remove(conversation.array(), set);
+                    newSize -= conversation.size() - remaining.length;
+                    if (remaining.length == 0) {
+                        updated[position] = null;
+                        numbersChanged = true;
+                    } else {
+                        updated[position] = new Conversation(conversation.getKey(), conversation.getNumber(), remaining);
+                    }
+                }
+                from = to;
+            }
+        }
+
+        Message[] sorted = added.toArray(new Message[added.size()]);
+        Arrays.sort(sorted, BY_KEY_AND_DATE);
+        int from = 0;
+        while (from < sorted.length) {
+            int to = endOfKey(sorted, from);
+            Contact contact = sorted[from].getContact();
+            int position = positions.get(contact.getKey());
+            if (position >= 0 && updated[position] != null) {
+                Conversation conversation = updated[position];
+                updated[position] = new Conversation(conversation.getKey(), conversation.getNumber(),
+                        merge(conversation.array(), sorted, from, to));
+            } else if (position >= 0) {
+                updated[position] = new Conversation(contact.getKey(), contact.getLabel(), Arrays.copyOfRange(sorted, from, to));
+            } else {
+                numbersChanged = true;
+                created.add(new Conversation(contact.getKey(), contact.getLabel(), Arrays.copyOfRange(sorted, from, to)));
+            }
+            from = to;
+        }
+        newSize += sorted.length;
+
+        if (!numbersChanged) {
+            return new ConversationIndex(updated, numbers, positions, newSize);
+        }
+        for (Conversation conversation : updated) {
+            if (conversation != null) {
+                created.add(conversation);
+            }
+        }
+        Conversation[] all = created.toArray(new Conversation[created.size()]);
+        Arrays.sort(all, BY_NUMBER);
+        String[] allNumbers = new String[all.length];
+        LongIntHashMap allPositions = new LongIntHashMap(all.length, -1);
+        for (int i = 0; i < all.length; i++) {
+            allNumbers[i] = all[i].getNumber();
+            allPositions.put(all[i].getKey(), i);
+        }
+        return new ConversationIndex(all, allNumbers, allPositions, newSize);
+    }
+
+    /**
+     * Returns end of the range of messages with the same key as the message at the given position
+     */
+    private static int endOfKey(Message[] sorted, int from) {
+        long key = sorted[from].getContact().getKey();
+        int to = from + 1;
+        while (to < sorted.length && sorted[to].getContact().getKey() == key) {
+            to++;
+        }
+        return to;
+    }
+
+    /**
+     * Returns array without the given messages keeping order of the rest
+     */
+    private static Message[] remove(Message[] messages, Set<Message> removed) {
+        Message[] result = new Message[messages.length];
+        int count = 0;
+        for (Message message : messages) {
+            if (!removed.contains(message)) {
+                result[count++] = message;
+            }
+        }
+        return count == messages.length ? messages : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Merges sorted array with sorted range of another array
+     */
+    private static Message[] merge(Message[] existing, Message[] added, int from, int to) {
+        Message[] result = new Message[existing.length + to - from];
+        int i = 0;
+        int j = from;
+        int k = 0;
+        while (i < existing.length && j < to) {
+            result[k++] = BY_DATE.compare(added[j], existing[i]) < 0 ? added[j++] : existing[i++];
+        }
+        while (i < existing.length) {
+            result[k++] = existing[i++];
+        }
+        while (j < to) {
+            result[k++] = added[j++];
+        }
+        return result;
+    }
+
+    /**
+     * Returns sorted list of numbers shown for contacts
+     * @return list of phone numbers
+     */
+    public List<String> getNumbers() {
+        return numberList;
+    }
+
+    /**
+     * Returns position of the number in {@link #getNumbers()}
+     * @param number number shown for contact
+     * @return position of the number or {@code -(insertion point) - 1} if there is no such number
+     */
+    public int indexOf(String number) {
+        return Arrays.binarySearch(numbers, number);
+    }
+
+    /**
+     * Returns position of conversation of the contact in {@link #getNumbers()}
+     * @param contact contact
+     * @return position or -1 if there are no messages of the contact
+     */
+    public int indexOf(Contact contact) {
+        return positions.get(contact.getKey());
+    }
+
+    /**
+     * Returns messages sent to or received from the given number ordered by date
+     * @param number number shown for contact
+     * @return list of messages, empty if there are no messages for the number
+     */
+    public List<Message> getMessages(String number) {
+        int position = indexOf(number);
+        return position >= 0 ? conversations[position] : Collections.<Message>emptyList();
+    }
+
+    /**
+     * Returns messages sent to or received from any number of the contact ordered by date
+     * @param contact contact
+     * @return list of messages, empty if there are no messages of the contact
+     */
+    public List<Message> getMessages(Contact contact) {
+        int position = positions.get(contact.getKey());
+        return position >= 0 ? conversations[position] : Collections.<Message>emptyList();
+    }
+
+    /**
+     * Returns conversations in order of {@link #getNumbers()}
+     * @return unmodifiable list of conversations
+     */
+    public List<Conversation> getConversations() {
+        return Collections.unmodifiableList(Arrays.asList(conversations));
+    }
+
+    /**
+     * Returns total number of messages
+     * @return number of messages
+     */
+    public int size() {
+        return size;
+    }
+}
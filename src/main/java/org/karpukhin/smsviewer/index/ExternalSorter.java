@@ -0,0 +1,463 @@
+package org.karpukhin.smsviewer.index;
+
+import org.karpukhin.smsviewer.loader.LoadFailure;
+import org.karpukhin.smsviewer.loader.LoadListener;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sorts messages which do not fit into memory by contact and date. Messages of every loaded
+ * file are encoded by the loading thread, then they are appended to the current run, a buffer of
+ * limited size. When the run is full it is sorted and written to a temporary file, so memory
+ * used by sorting does not depend on number of messages. {@link #finish(File)} merges sorted
+ * runs into one {@link MessageFile}, at most {@link #MAX_MERGE_WAYS} runs at a time, so number
+ * of open files and size of their buffers are limited as well.
+ * <p>
+ * The sorter is passed to {@link org.karpukhin.smsviewer.loader.MessageLoader#scan} as listener.
+ * {@link LoadListener} methods can not throw {@link IOException}, so the first write error
+ * is kept, the rest of messages are skipped and the error is thrown by {@link #finish(File)}.
+ * Messages with equal dates keep the order they were added in.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ExternalSorter implements LoadListener, Closeable {
+
+    private static final Logger logger = Logger.getLogger(ExternalSorter.class.getName());
+
+    /**
+     * System property with size of sorted runs in bytes
+     */
+    public static final String RUN_SIZE_PROPERTY = "smsviewer.external.run.size";
+
+    public static final int DEFAULT_RUN_SIZE = 64 * 1024 * 1024;
+
+    /** Maximum number of runs merged at once */
+    static final int MAX_MERGE_WAYS = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Memory taken by sort keys of one record in addition to its bytes */
+    private static final int RECORD_OVERHEAD = 8 + 8 + 4 + 4;
+    private static final int MAX_RETAINED_BATCH_SIZE = 1024 * 1024;
+
+    private final File directory;
+    private final int runSize;
+    private final List<File> runs = new ArrayList<File>();
+    private final ThreadLocal<Run> batches = new ThreadLocal<Run>() {
+        @Override
+        protected Run initialValue() {
+            return new Run(4096);
+        }
+    };
+    private Run run;
+    private long messages;
+    private int runCounter;
+    private IOException error;
+
+    /**
+     * @param directory directory of temporary files
+     */
+    public ExternalSorter(File directory) {
+        this(directory, Integer.getInteger(RUN_SIZE_PROPERTY, DEFAULT_RUN_SIZE));
+    }
+
+    /**
+     * @param directory directory of temporary files
+     * @param runSize maximum size of messages sorted in memory in bytes
+     */
+    public ExternalSorter(File directory, int runSize) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("Run size must be positive: " + runSize);
+        }
+        this.directory = directory;
+        this.runSize = runSize;
+        this.run = new Run(Math.min(runSize, BUFFER_SIZE));
+    }
+
+    @Override
+    public void fileFound(String path, long size) {
+    }
+
+    @Override
+    public void fileLoaded(String path, long size, List<Message> loaded) {
+        Run batch = batches.get();
+        batch.clear();
+        try {
+            for (Message message : loaded) {
+                batch.add(message, path);
+            }
+        } catch (IOException e) {
+            // memory buffer is not expected to fail
+            throw new IllegalStateException(e);
+        }
+        synchronized (this) {
+            if (error == null) {
+                try {
+                    if (run.count > 0 && run.memory() + batch.memory() > runSize) {
+                        spill();
+                    }
+                    run.addAll(batch);
+                    messages += batch.count;
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+        if (batch.bytes.size() > MAX_RETAINED_BATCH_SIZE) {
+            batches.remove();
+        }
+    }
+
+    @Override
+    public void fileFailed(LoadFailure failure) {
+    }
+
+    /**
+     * Returns number of added messages
+     * @return number of messages
+     */
+    public synchronized long getMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns number of runs written to disk so far
+     * @return number of runs
+     */
+    public synchronized int getRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Merges added messages into the file. Temporary files are deleted
+     * @param file file of sorted messages
+     * @return opened file
+     * @throws IOException if messages could not be written
+     */
+    public synchronized MessageFile finish(File file) throws IOException {
+        try {
+            if (error != null) {
+                throw error;
+            }
+            if (runs.isEmpty()) {
+                // everything fits into memory, the run is written directly to the file
+                MessageFile.Writer writer = new MessageFile.Writer(file, BUFFER_SIZE);
+                try {
+                    for (int index : run.sortedOrder()) {
+                        writer.add(run.bytes.array(), run.starts[index], run.length(index));
+                    }
+                    return writer.finish();
+                } finally {
+                    writer.close();
+                }
+            }
+            if (run.count > 0) {
+                spill();
+            }
+            run = new Run(0);
+            while (runs.size() > MAX_MERGE_WAYS) {
+                List<File> inputs = new ArrayList<File>(runs);
+                for (int from = 0; from < inputs.size(); from += MAX_MERGE_WAYS) {
+                    List<File> group = inputs.subList(from, Math.min(from + MAX_MERGE_WAYS, inputs.size()));
+                    File output = createRunFile();
+                    runs.add(output);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE));
+                    try {
+                        merge(group, new RunSink(out));
+                    } finally {
+                        out.close();
+                    }
+                    delete(group);
+                    runs.removeAll(group);
+                }
+                logger.log(Level.FINE, "{0} runs are merged into {1}", new Object[] {inputs.size(), runs.size()});
+            }
+            MessageFile.Writer writer = new MessageFile.Writer(file, BUFFER_SIZE);
+            try {
+                merge(runs, writer);
+                return writer.finish();
+            } finally {
+                writer.close();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Deletes temporary files
+     */
+    @Override
+    public synchronized void close() {
+        delete(runs);
+        runs.clear();
+        run = new Run(0);
+    }
+
+    /**
+     * Sorts the current run and writes it to a new temporary file
+     */
+    private void spill() throws IOException {
+        File file = createRunFile();
+        runs.add(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        try {
+            for (int index : run.sortedOrder()) {
+                out.writeInt(run.length(index));
+                out.write(run.bytes.array(), run.starts[index], run.length(index));
+            }
+        } finally {
+            out.close();
+        }
+        logger.log(Level.FINE, "Run {0} of {1} messages is written", new Object[] {file, run.count});
+        run.clear();
+    }
+
+    private File createRunFile() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        return File.createTempFile("run-" + (runCounter++) + "-", ".tmp", directory);
+    }
+
+    /**
+     * Merges sorted runs by taking the least record of all runs, runs are compared by their
+     * order when records are equal, so the merge is stable
+     */
+    private static void merge(List<File> inputs, Sink sink) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(inputs.size(), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader r1, RunReader r2) {
+                int result = Long.compare(r1.key, r2.key);
+                if (result == 0) {
+                    result = Long.compare(r1.timestamp, r2.timestamp);
+                }
+                return result != 0 ? result : Integer.compare(r1.order, r2.order);
+            }
+        });
+        List<RunReader> readers = new ArrayList<RunReader>(inputs.size());
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                RunReader reader = new RunReader(inputs.get(i), i);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                sink.add(reader.record, 0, reader.length);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static void delete(List<File> files) {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                logger.log(Level.WARNING, "Could not delete {0}", file);
+            }
+        }
+    }
+
+    /**
+     * Receiver of merged records
+     */
+    interface Sink {
+
+        void add(byte[] record, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Writes merged records as a new run
+     */
+    private static class RunSink implements Sink {
+
+        private final DataOutputStream out;
+
+        private RunSink(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void add(byte[] record, int offset, int length) throws IOException {
+            out.writeInt(length);
+            out.write(record, offset, length);
+        }
+    }
+
+    /**
+     * Buffer which gives access to its array
+     */
+    private static class Bytes extends ByteArrayOutputStream {
+
+        private Bytes(int size) {
+            super(size);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Encoded records with their sort keys
+     */
+    private static class Run {
+
+        private final Bytes bytes;
+        private final DataOutputStream out;
+        private long[] keys = new long[16];
+        private long[] timestamps = new long[16];
+        private int[] starts = new int[16];
+        private int count;
+
+        private Run(int size) {
+            bytes = new Bytes(size);
+            out = new DataOutputStream(bytes);
+        }
+
+        private void add(Message message, String path) throws IOException {
+            ensureCapacity(count + 1);
+            keys[count] = message.getContact().getKey();
+            timestamps[count] = message.getTimestamp();
+            starts[count] = bytes.size();
+            MessageFile.writeRecord(out, message, path);
+            count++;
+        }
+
+        private void addAll(Run other) {
+            ensureCapacity(count + other.count);
+            int shift = bytes.size();
+            System.arraycopy(other.keys, 0, keys, count, other.count);
+            System.arraycopy(other.timestamps, 0, timestamps, count, other.count);
+            for (int i = 0; i < other.count; i++) {
+                starts[count + i] = other.starts[i] + shift;
+            }
+            bytes.write(other.bytes.array(), 0, other.bytes.size());
+            count += other.count;
+        }
+
+        private int length(int index) {
+            return (index + 1 < count ? starts[index + 1] : bytes.size()) - starts[index];
+        }
+
+        private long memory() {
+            return bytes.size() + (long) count * RECORD_OVERHEAD;
+        }
+
+        private void clear() {
+            bytes.reset();
+            count = 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > keys.length) {
+                int size = Math.max(capacity, keys.length * 2);
+                keys = Arrays.copyOf(keys, size);
+                timestamps = Arrays.copyOf(timestamps, size);
+                starts = Arrays.copyOf(starts, size);
+            }
+        }
+
+        /**
+         * Returns positions of records ordered by key and date, bottom-up merge sort keeps
+         * order of equal records
+         */
+        private int[] sortedOrder() {
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            int[] temp = new int[count];
+            for (int width = 1; width < count; width *= 2) {
+                for (int from = 0; from < count; from += 2 * width) {
+                    int middle = Math.min(from + width, count);
+                    int to = Math.min(from + 2 * width, count);
+                    int i = from;
+                    int j = middle;
+                    int k = from;
+                    while (i < middle && j < to) {
+                        temp[k++] = compare(order[j], order[i]) < 0 ? order[j++] : order[i++];
+                    }
+                    while (i < middle) {
+                        temp[k++] = order[i++];
+                    }
+                    while (j < to) {
+                        temp[k++] = order[j++];
+                    }
+                }
+                int[] swap = order;
+                order = temp;
+                temp = swap;
+            }
+            return order;
+        }
+
+        private int compare(int i, int j) {
+            int result = Long.compare(keys[i], keys[j]);
+            return result != 0 ? result : Long.compare(timestamps[i], timestamps[j]);
+        }
+    }
+
+    /**
+     * Reads records of a run one by one
+     */
+    private static class RunReader implements Closeable {
+
+        private final DataInputStream in;
+        private final int order;
+        private byte[] record = new byte[256];
+        private int length;
+        private long key;
+        private long timestamp;
+
+        private RunReader(File file, int order) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            this.order = order;
+        }
+
+        private boolean next() throws IOException {
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            if (length > record.length) {
+                record = new byte[Math.max(length, record.length * 2)];
+            }
+            in.readFully(record, 0, length);
+            key = MessageFile.getKey(record, 0);
+            timestamp = MessageFile.getTimestamp(record, 0);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
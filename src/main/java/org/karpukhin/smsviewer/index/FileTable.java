@@ -0,0 +1,191 @@
+package org.karpukhin.smsviewer.index;
+
+import org.karpukhin.smsviewer.model.Message;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table of messages by path of the file they were loaded from. Paths are spread over
+ * segments by hash, every segment is an ordinary map which is never changed after the table is
+ * created. Changed table is created by {@link Editor} which copies only segments it changes,
+ * the rest are shared with the previous table, so tables can be compared segment by segment.
+ *
+ * @author Pavel Karpukhin
+ */
+class FileTable {
+
+    private static final int SEGMENTS = 64;
+
+    private static final FileTable EMPTY = new FileTable(emptySegments(), 0);
+
+    private final Map<String, List<Message>>[] segments;
+    private final int size;
+
+    private FileTable(Map<String, List<Message>>[] segments, int size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    static FileTable empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns messages of the file
+     * @param path path of the file
+     * @return messages or {@code null} if there is no such file
+     */
+    List<Message> get(String path) {
+        return segments[segment(path)].get(path);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns paths of all files
+     * @return list of paths
+     */
+    List<String> paths() {
+        List<String> paths = new ArrayList<String>(size);
+        for (Map<String, List<Message>> segment : segments) {
+            paths.addAll(segment.keySet());
+        }
+        return paths;
+    }
+
+    Editor edit() {
+        return new Editor(this);
+    }
+
+    /**
+     * Reports files which were added, changed or removed in this table since the older one.
+     * Segments shared by both tables are skipped, files are compared by identity of their lists
+     * @param older older table
+     * @param visitor receiver of changes
+     */
+    void diff(FileTable older, Visitor visitor) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            Map<String, List<Message>> segment = segments[i];
+            Map<String, List<Message>> olderSegment = older.segments[i];
+            if (segment == olderSegment) {
+                continue;
+            }
+            for (String path : olderSegment.keySet()) {
+                if (!segment.containsKey(path)) {
+                    visitor.fileRemoved(path);
+                }
+            }
+            for (Map.Entry<String, List<Message>> entry : segment.entrySet()) {
+                if (olderSegment.get(entry.getKey()) != entry.getValue()) {
+                    visitor.filePut(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private static int segment(String path) {
+        return (path.hashCode() & Integer.MAX_VALUE) % SEGMENTS;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<String, List<Message>>[] emptySegments() {
+        Map<String, List<Message>>[] segments = new Map[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = Collections.emptyMap();
+        }
+        return segments;
+    }
+
+    /**
+     * Receiver of differences of two tables
+     */
+    interface Visitor {
+
+        void filePut(String path, List<Message> messages);
+
+        void fileRemoved(String path);
+    }
+
+    /**
+     * Creates changed copy of the table. A segment is copied when it is changed first time
+     */
+    static class Editor {
+
+        private final Map<String, List<Message>>[] segments;
+        private final boolean[] copied = new boolean[SEGMENTS];
+        private int size;
+
+        private Editor(FileTable table) {
+            this.segments = table.segments.clone();
+            this.size = table.size;
+        }
+
+        /**
+         * Puts messages of the file
+         * @return previous messages of the file or {@code null}
+         */
+        List<Message> put(String path, List<Message> messages) {
+            List<Message> previous = writable(segment(path)).put(path, messages);
+            if (previous == null) {
+                size++;
+            }
+            return previous;
+        }
+
+        /**
+         * Removes the file
+         * @return messages of the file or {@code null} if there is no such file
+         */
+        List<Message> remove(String path) {
+            int segment = segment(path);
+            if (!segments[segment].containsKey(path)) {
+                return null;
+            }
+            size--;
+            return writable(segment).remove(path);
+        }
+
+        /**
+         * Removes all files inside the directory
+         * @param directory path of the directory
+         * @return messages of removed files
+         */
+        List<Message> removeDirectory(String directory) {
+            String prefix = directory + File.separator;
+            List<Message> removed = new ArrayList<Message>();
+            for (int i = 0; i < SEGMENTS; i++) {
+                for (String path : segments[i].keySet().toArray(new String[0])) {
+                    if (path.startsWith(prefix)) {
+                        removed.addAll(remove(path));
+                    }
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Returns table with the changes, later changes copy segments again
+         * @return table
+         */
+        FileTable toTable() {
+            Arrays.fill(copied, false);
+            return new FileTable(segments.clone(), size);
+        }
+
+        private Map<String, List<Message>> writable(int segment) {
+            if (!copied[segment]) {
+                segments[segment] = new HashMap<String, List<Message>>(segments[segment]);
+                copied[segment] = true;
+            }
+            return segments[segment];
+        }
+    }
+}
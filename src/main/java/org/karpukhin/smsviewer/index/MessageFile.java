@@ -0,0 +1,471 @@
+package org.karpukhin.smsviewer.index;
+
+import org.karpukhin.smsviewer.model.Contact;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.model.SourceLocation;
+import org.karpukhin.smsviewer.utils.LongIntHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * File of messages sorted by contact and date, written by {@link ExternalSorter}. The file is
+ * memory-mapped when it is opened, only the table of contacts is read into memory, so
+ * conversations of archives larger than the heap can be shown. Messages are decoded from the
+ * mapped file when they are requested.
+ * <p>
+ * The file starts with a header, then records of messages follow, every record is preceded by
+ * its length. Records are followed by positions of all records and by the table of contacts
+ * with the first message and number of messages of every contact. Files larger than 2 GB are
+ * mapped in chunks, records which cross the end of a chunk are read from the channel.
+ * Instances are thread safe.
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageFile implements Closeable {
+
+    private static final int MAGIC = 0x534D5346;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Distance between starts of mapped chunks */
+    private static final long CHUNK_SIZE = 1L << 30;
+    /** Chunks overlap, so only records longer than this may have to be read from the channel */
+    private static final long CHUNK_OVERLAP = 1L << 20;
+
+    private static final Comparator<Entry> BY_NUMBER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int result = e1.number.compareTo(e2.number);
+            return result != 0 ? result : Long.compare(e1.key, e2.key);
+        }
+    };
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer[] chunks;
+    private final long messages;
+    private final long offsetsPosition;
+    private final String[] numbers;
+    private final List<String> numberList;
+    private final long[] firsts;
+    private final int[] counts;
+    private final LongIntHashMap positions;
+    private final ContactTable contacts;
+
+    private MessageFile(File file, FileChannel channel, ByteBuffer[] chunks, long messages, long offsetsPosition,
+                        String[] numbers, long[] keys, long[] firsts, int[] counts, ContactTable contacts) {
+        this.file = file;
+        this.channel = channel;
+        this.chunks = chunks;
+        this.messages = messages;
+        this.offsetsPosition = offsetsPosition;
+        this.numbers = numbers;
+        this.numberList = Collections.unmodifiableList(Arrays.asList(numbers));
+        this.firsts = firsts;
+        this.counts = counts;
+        this.positions = new LongIntHashMap(keys.length, -1);
+        for (int i = 0; i < keys.length; i++) {
+            positions.put(keys[i], i);
+        }
+        this.contacts = contacts;
+    }
+
+    /**
+     * Opens file written by {@link ExternalSorter}
+     * @param file file
+     * @return opened file
+     * @throws IOException if file could not be read or has wrong format
+     */
+    public static MessageFile open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            long size = channel.size();
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, CHUNK_SIZE + CHUNK_OVERLAP));
+            }
+            if (chunks.length == 0 || size < HEADER_SIZE) {
+                throw new IOException(file + " is not a file of messages");
+            }
+            ByteBuffer header = chunks[0].duplicate();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " has unsupported format");
+            }
+            long messages = header.getLong();
+            long offsetsPosition = header.getLong();
+            long contactsPosition = header.getLong();
+            ByteBuffer table = read(channel, chunks, contactsPosition, (int) (size - contactsPosition));
+            int count = table.getInt();
+            String[] numbers = new String[count];
+            long[] keys = new long[count];
+            long[] firsts = new long[count];
+            int[] counts = new int[count];
+            for (int i = 0; i < count; i++) {
+                numbers[i] = readString(table);
+                keys[i] = table.getLong();
+                firsts[i] = table.getLong();
+                counts[i] = table.getInt();
+            }
+            return new MessageFile(file, channel, chunks, messages, offsetsPosition, numbers, keys, firsts, counts,
+                    new ContactTable());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw new IOException(file + " is corrupted", e);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns sorted list of numbers shown for contacts
+     * @return list of phone numbers
+     */
+    public List<String> getNumbers() {
+        return numberList;
+    }
+
+    /**
+     * Returns position of the number in {@link #getNumbers()}
+     * @param number number shown for contact
+     * @return position of the number or {@code -(insertion point) - 1} if there is no such number
+     */
+    public int indexOf(String number) {
+        return Arrays.binarySearch(numbers, number);
+    }
+
+    /**
+     * Returns messages sent to or received from the given number ordered by date
+     * @param number number shown for contact
+     * @return list of messages, empty if there are no messages for the number
+     */
+    public StoredConversation getMessages(String number) {
+        return getConversation(indexOf(number));
+    }
+
+    /**
+     * Returns messages sent to or received from any number of the contact ordered by date
+     * @param contact contact
+     * @return list of messages, empty if there are no messages of the contact
+     */
+    public StoredConversation getMessages(Contact contact) {
+        return getConversation(positions.get(contact.getKey()));
+    }
+
+    /**
+     * Returns total number of messages
+     * @return number of messages
+     */
+    public long size() {
+        return messages;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private StoredConversation getConversation(int position) {
+        return position >= 0
+                ? new StoredConversation(firsts[position], counts[position])
+                : new StoredConversation(0, 0);
+    }
+
+    private ByteBuffer read(long position, int length) {
+        try {
+            return read(channel, chunks, position, length);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns buffer with the given bytes of the file, from mapped chunk when it contains them
+     */
+    private static ByteBuffer read(FileChannel channel, ByteBuffer[] chunks, long position, int length) throws IOException {
+        int index = (int) (position / CHUNK_SIZE);
+        long offset = position - index * CHUNK_SIZE;
+        if (index < chunks.length && offset + length <= chunks[index].capacity()) {
+            ByteBuffer buffer = chunks[index].duplicate();
+            buffer.limit((int) offset + length);
+            buffer.position((int) offset);
+            return buffer.slice();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes record of the message, contact key and date come first, so records can be compared
+     * without decoding them
+     * @param out output
+     * @param message message
+     * @param path path of the file the message was loaded from
+     * @throws IOException if record could not be written
+     */
+    static void writeRecord(DataOutputStream out, Message message, String path) throws IOException {
+        SourceLocation source = message.getSource();
+        out.writeLong(message.getContact().getKey());
+        out.writeLong(message.getTimestamp());
+        out.writeInt(message.getFlags());
+        writeString(out, message.getNumber());
+        // text of lazy message stays in its file
+        writeString(out, message.hasText() ? message.getText() : null);
+        writeString(out, path);
+        out.writeLong(source != null ? source.getOffset() : -1L);
+        out.writeInt(source != null ? source.getLength() : 0);
+    }
+
+    static long getKey(byte[] record, int offset) {
+        return getLong(record, offset);
+    }
+
+    static long getTimestamp(byte[] record, int offset) {
+        return getLong(record, offset + 8);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Messages of one contact in the file. Every message is decoded when it is requested
+     */
+    public class StoredConversation extends AbstractList<Message> implements RandomAccess {
+
+        private final long first;
+        private final int count;
+
+        private StoredConversation(long first, int count) {
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        public Message get(int index) {
+            ByteBuffer record = record(index);
+            record.position(8);
+            long timestamp = record.getLong();
+            int flags = record.getInt();
+            String number = readString(record);
+            String text = readString(record);
+            String path = readString(record);
+            long offset = record.getLong();
+            int length = record.getInt();
+            SourceLocation source = offset >= 0 ? new SourceLocation(path, offset, length) : null;
+            return new Message(timestamp, contacts.intern(number), text, source, flags);
+        }
+
+        /**
+         * Returns path of the file the message was loaded from
+         * @param index position of the message
+         * @return path
+         */
+        public String getPath(int index) {
+            ByteBuffer record = record(index);
+            record.position(20);
+            readString(record);
+            readString(record);
+            return readString(record);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        private ByteBuffer record(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+            }
+            long position = read(offsetsPosition + (first + index) * 8, 8).getLong();
+            int length = read(position, 4).getInt();
+            return read(position + 4, length);
+        }
+    }
+
+    /**
+     * Contact of the table of contacts
+     */
+    private static class Entry {
+
+        private final String number;
+        private final long key;
+        private final long first;
+        private int count;
+
+        private Entry(String number, long key, long first) {
+            this.number = number;
+            this.key = key;
+            this.first = first;
+        }
+    }
+
+    /**
+     * Writes records ordered by contact key and date into a new file
+     */
+    static class Writer implements ExternalSorter.Sink, Closeable {
+
+        private final File file;
+        private final File offsetsFile;
+        private final ContactTable contacts;
+        private final DataOutputStream out;
+        private final DataOutputStream offsets;
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private Entry entry;
+        private long position = HEADER_SIZE;
+        private long messages;
+
+        Writer(File file, int bufferSize) throws IOException {
+            this.file = file;
+            this.offsetsFile = new File(file.getParentFile(), file.getName() + ".offsets");
+            this.contacts = new ContactTable();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+            this.offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile), bufferSize));
+            out.write(new byte[HEADER_SIZE]);
+        }
+
+        /**
+         * Appends record, records must be ordered by contact key and date
+         * @param record buffer with record written by {@link #writeRecord}
+         * @param offset offset of the record
+         * @param length length of the record
+         * @throws IOException if record could not be written
+         */
+        @Override
+        public void add(byte[] record, int offset, int length) throws IOException {
+            long key = getKey(record, offset);
+            if (entry == null || entry.key != key) {
+                ByteBuffer buffer = ByteBuffer.wrap(record, offset + 20, length - 20);
+                entry = new Entry(contacts.intern(readString(buffer)).getLabel(), key, messages);
+                entries.add(entry);
+            }
+            entry.count++;
+            offsets.writeLong(position);
+            out.writeInt(length);
+            out.write(record, offset, length);
+            position += 4 + length;
+            messages++;
+        }
+
+        /**
+         * Appends positions of records and table of contacts and opens the file
+         * @return written file
+         * @throws IOException if file could not be written
+         */
+        MessageFile finish() throws IOException {
+            offsets.close();
+            long offsetsPosition = position;
+            FileChannel source = new RandomAccessFile(offsetsFile, "r").getChannel();
+            try {
+                out.flush();
+                WritableByteChannel target = Channels.newChannel(out);
+                long transferred = 0;
+                while (transferred < source.size()) {
+                    transferred += source.transferTo(transferred, source.size() - transferred, target);
+                }
+            } finally {
+                source.close();
+            }
+            long contactsPosition = offsetsPosition + messages * 8;
+            Entry[] sorted = entries.toArray(new Entry[entries.size()]);
+            Arrays.sort(sorted, BY_NUMBER);
+            out.writeInt(sorted.length);
+            for (Entry e : sorted) {
+                writeString(out, e.number);
+                out.writeLong(e.key);
+                out.writeLong(e.first);
+                out.writeInt(e.count);
+            }
+            out.close();
+            deleteOffsets();
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeLong(messages);
+                raf.writeLong(offsetsPosition);
+                raf.writeLong(contactsPosition);
+            } finally {
+                raf.close();
+            }
+            return open(file);
+        }
+
+        /**
+         * Closes streams, the file is left unfinished
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                offsets.close();
+            } finally {
+                out.close();
+                deleteOffsets();
+            }
+        }
+
+        private void deleteOffsets() {
+            if (offsetsFile.exists() && !offsetsFile.delete()) {
+                offsetsFile.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package org.karpukhin.smsviewer.index;
+
+import org.karpukhin.smsviewer.loader.Deduplicator;
+import org.karpukhin.smsviewer.loader.LoadedFile;
+import org.karpukhin.smsviewer.metrics.Metrics;
+import org.karpukhin.smsviewer.model.BodySource;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.search.SearchHit;
+import org.karpukhin.smsviewer.search.SearchIndex;
+import org.karpukhin.smsviewer.search.SearchQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Messages of the opened directory grouped by file they were loaded from. Content of the store
+ * is published as immutable {@link Snapshot}: {@link ConversationIndex} and table of files which
+ * share unchanged conversations and segments with the previous snapshot. Readers take the current
+ * snapshot without locking and never see a partially applied change.
+ * <p>
+ * Changes are applied by one writer at a time. Loading threads queue files with
+ * {@link #append(LoadedFile, long)} and call {@link #flush()}, the thread which gets the lock
+ * applies files queued by all threads as one batch while the rest go on loading. Files queued
+ * for a store which has been cleared since then are dropped. Every apply copies the table of
+ * conversations and merges touched conversations, so loading threads call {@link #flushIfDue()}
+ * which applies files at most once per {@link #FLUSH_INTERVAL_MILLIS} unless
+ * {@link #FLUSH_BATCH_SIZE} files are queued.
+ * <p>
+ * Search index is kept by a single indexer thread started by {@link #startIndexing()}: after every
+ * change it brings the index up to date with the current snapshot comparing tables of files,
+ * so neither loading threads nor the event dispatch thread index texts. {@link #search} waits
+ * for the indexer to catch up. Texts of messages loaded without body are read only when
+ * indexing is started.
+ * <p>
+ * Files loaded with duplicates dropped by {@link Deduplicator} are updated through the same
+ * deduplicator, so changed files do not bring copies of messages of other files.
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageStore {
+
+    /** Minimal time between applies of queued files by {@link #flushIfDue()} */
+    public static final long FLUSH_INTERVAL_MILLIS = 100;
+    /** Number of queued files which are applied by {@link #flushIfDue()} without waiting */
+    public static final int FLUSH_BATCH_SIZE = 512;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<Pending>();
+    /** Approximate number of queued files */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    /** Value of {@link System#nanoTime()} when queued files were applied last time */
+    private volatile long lastFlush = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS);
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(
+            new Snapshot(0, 0, ConversationIndex.empty(), FileTable.empty()));
+    /** Deduplicator of the loaded files or {@code null} if copies of messages are kept */
+    private volatile Deduplicator deduplicator;
+    private final BodySource bodies;
+
+    /** Guards the search index, held by the indexer while it applies changes */
+    private final ReentrantLock searchLock = new ReentrantLock();
+    private final SearchIndex searchIndex;
+    /** Snapshot the search index contains, guarded by the search lock */
+    private Snapshot searchSnapshot;
+    /** Indexer thread or {@code null} if indexing is not started */
+    private volatile ExecutorService indexer;
+    /** Whether the indexer has a task which has not started yet */
+    private final AtomicBoolean indexingScheduled = new AtomicBoolean();
+
+    public MessageStore() {
+        this(null);
+    }
+
+    /**
+     * @param bodies reader of texts of messages loaded without body or {@code null} if
+     *               all messages keep their text
+     */
+    public MessageStore(BodySource bodies) {
+        this.bodies = bodies;
+        this.searchIndex = new SearchIndex(bodies);
+    }
+
+    /**
+     * Returns reader of texts of messages loaded without body
+     * @return reader or {@code null}
+     */
+    public BodySource getBodySource() {
+        return bodies;
+    }
+
+    /**
+     * Returns current content of the store
+     * @return snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Returns index of the current snapshot
+     * @return index
+     */
+    public ConversationIndex getIndex() {
+        return snapshot.get().getIndex();
+    }
+
+    /**
+     * Starts the indexer thread which keeps search index up to date with every change.
+     * Does nothing if it is already started
+     */
+    public synchronized void startIndexing() {
+        if (indexer != null) {
+            return;
+        }
+        indexer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "search-indexer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        scheduleIndexing();
+    }
+
+    /**
+     * Finds messages of the current snapshot, starts indexing if it is not started yet.
+     * Waits until the index contains the current snapshot, so it should not be called
+     * from the event dispatch thread
+     * @param query query
+     * @return hits
+     */
+    public List<SearchHit> search(SearchQuery query) {
+        startIndexing();
+        searchLock.lock();
+        try {
+            updateSearchIndex();
+            return searchIndex.search(query);
+        } finally {
+            searchLock.unlock();
+        }
+    }
+
+    private void scheduleIndexing() {
+        ExecutorService current = indexer;
+        if (current != null && indexingScheduled.compareAndSet(false, true)) {
+            current.execute(new Runnable() {
+                @Override
+                public void run() {
+                    indexingScheduled.set(false);
+                    searchLock.lock();
+                    try {
+                        updateSearchIndex();
+                    } finally {
+                        searchLock.unlock();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Brings the search index up to date with the current snapshot, must be called with
+     * the search lock held
+     */
+    private void updateSearchIndex() {
+        long start = Metrics.start();
+        Snapshot current = snapshot.get();
+        if (searchSnapshot == null || searchSnapshot.getEpoch() != current.getEpoch()) {
+            searchIndex.clear();
+            searchSnapshot = new Snapshot(0, current.getEpoch(), ConversationIndex.empty(), FileTable.empty());
+        }
+        if (searchSnapshot != current) {
+            current.files.diff(searchSnapshot.files, new FileTable.Visitor() {
+                @Override
+                public void filePut(String path, List<Message> messages) {
+                    searchIndex.put(path, messages);
+                }
+
+                @Override
+                public void fileRemoved(String path) {
+                    searchIndex.remove(path);
+                }
+            });
+            searchSnapshot = current;
+        }
+        Metrics.stop(Metrics.Phase.INDEX, start);
+    }
+
+    /**
+     * Sets deduplicator which dropped copies of messages of files in the store, it is used
+     * for files updated later
+     * @param deduplicator deduplicator or {@code null} if copies are kept
+     */
+    public void setDeduplicator(Deduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Returns whether removed messages had copies in other files which were dropped, so these
+     * messages are shown only after all files are loaded again
+     * @return {@code true} if files should be loaded again
+     */
+    public boolean isReloadRequired() {
+        Deduplicator current = deduplicator;
+        return current != null && current.hasLostMessages();
+    }
+
+    /**
+     * Returns number of files in the store
+     * @return number of files
+     */
+    public int getFileCount() {
+        return snapshot.get().getFileCount();
+    }
+
+    /**
+     * Removes all messages. Files queued before are dropped
+     */
+    public void clear() {
+        writeLock.lock();
+        try {
+            pending.clear();
+            pendingCount.set(0);
+            deduplicator = null;
+            Snapshot current = snapshot.get();
+            snapshot.set(new Snapshot(current.getVersion() + 1, current.getEpoch() + 1,
+                    ConversationIndex.empty(), FileTable.empty()));
+            scheduleIndexing();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Queues loaded file to be applied by {@link #flush()}. Method does not block
+     * @param file loaded file
+     * @param epoch epoch of the snapshot loading was started for, the file is dropped if
+     *              the store has been cleared since then
+     */
+    public void append(LoadedFile file, long epoch) {
+        pending.add(new Pending(file, epoch));
+        pendingCount.incrementAndGet();
+    }
+
+    /**
+     * Applies queued files like {@link #flush()} if {@link #FLUSH_BATCH_SIZE} files are queued
+     * or {@link #FLUSH_INTERVAL_MILLIS} have passed since they were applied last time. Files
+     * left in the queue are applied by the next call of {@link #flush()} or dropped by
+     * {@link #replace} and {@link #clear()}
+     * @return current snapshot
+     */
+    public Snapshot flushIfDue() {
+        if (pendingCount.get() < FLUSH_BATCH_SIZE
+                && System.nanoTime() - lastFlush < TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS)) {
+            return snapshot.get();
+        }
+        return flush();
+    }
+
+    /**
+     * Applies queued files unless another thread is applying them, in that case files queued
+     * by this thread are applied by that thread
+     * @return current snapshot
+     */
+    public Snapshot flush() {
+        // files queued while the lock is held are seen by the holder after it releases the lock
+        while (!pending.isEmpty() && writeLock.tryLock()) {
+            try {
+                long epoch = snapshot.get().getEpoch();
+                FileTable files = snapshot.get().files;
+                List<LoadedFile> batch = new ArrayList<LoadedFile>();
+                Pending next;
+                while ((next = pending.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    if (next.epoch == epoch && files.get(next.file.getPath()) != next.file.getMessages()) {
+                        batch.add(next.file);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    apply(batch, Collections.<String>emptyList());
+                }
+                lastFlush = System.nanoTime();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return snapshot.get();
+    }
+
+    /**
+     * Replaces content of the store with the given files. Files which are already in the store
+     * with the same list of messages are kept as they are, queued files are dropped
+     * @param loadedFiles files
+     * @return new index
+     */
+    public ConversationIndex replace(Collection<LoadedFile> loadedFiles) {
+        writeLock.lock();
+        try {
+            return replaceFiles(loadedFiles);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces content of the store with files loaded again and sets deduplicator which dropped
+     * copies of their messages. Messages of the store stay available until they are replaced
+     * @param loadedFiles files
+     * @param deduplicator deduplicator of the files or {@code null} if copies are kept
+     * @return new index
+     */
+    public ConversationIndex replace(Collection<LoadedFile> loadedFiles, Deduplicator deduplicator) {
+        writeLock.lock();
+        try {
+            // files are already filtered by their own deduplicator
+            this.deduplicator = null;
+            ConversationIndex index = replaceFiles(loadedFiles);
+            this.deduplicator = deduplicator;
+            return index;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces content of the store, must be called with the lock held
+     */
+    private ConversationIndex replaceFiles(Collection<LoadedFile> loadedFiles) {
+        // queued files belong to the load whose result replaces them
+        pending.clear();
+        pendingCount.set(0);
+        FileTable files = snapshot.get().files;
+        List<LoadedFile> updated = new ArrayList<LoadedFile>();
+        Set<String> paths = new HashSet<String>();
+        for (LoadedFile file : loadedFiles) {
+            paths.add(file.getPath());
+            if (files.get(file.getPath()) != file.getMessages()) {
+                updated.add(file);
+            }
+        }
+        List<String> removedPaths = new ArrayList<String>();
+        for (String path : files.paths()) {
+            if (!paths.contains(path)) {
+                removedPaths.add(path);
+            }
+        }
+        return apply(updated, removedPaths).getIndex();
+    }
+
+    /**
+     * Adds or replaces messages of the given files and removes messages of the removed paths.
+     * Removed path may be a directory, in that case all files inside it are removed
+     * @param updated added or changed files
+     * @param removedPaths paths of removed files or directories
+     * @return new index
+     */
+    public ConversationIndex update(Collection<LoadedFile> updated, Collection<String> removedPaths) {
+        writeLock.lock();
+        try {
+            return apply(updated, removedPaths).getIndex();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Creates and publishes new snapshot, must be called with the lock held
+     */
+    private Snapshot apply(Collection<LoadedFile> updated, Collection<String> removedPaths) {
+        Snapshot previous = snapshot.get();
+        if (updated.isEmpty() && removedPaths.isEmpty()) {
+            return previous;
+        }
+        long start = Metrics.start();
+        FileTable.Editor files = previous.files.edit();
+        List<Message> added = new ArrayList<Message>();
+        List<Message> removed = new ArrayList<Message>();
+        for (String path : removedPaths) {
+            List<Message> messages = files.remove(path);
+            if (messages == null) {
+                messages = files.removeDirectory(path);
+            }
+            removed.addAll(messages);
+            forget(messages);
+        }
+        Deduplicator current = deduplicator;
+        for (LoadedFile file : updated) {
+            List<Message> replaced = files.remove(file.getPath());
+            if (replaced != null) {
+                removed.addAll(replaced);
+                forget(replaced);
+            }
+            List<Message> messages = current != null ? current.filter(file.getMessages()) : file.getMessages();
+            files.put(file.getPath(), messages);
+            added.addAll(messages);
+        }
+        Snapshot next = new Snapshot(previous.getVersion() + 1, previous.getEpoch(),
+                previous.getIndex().withChanges(added, removed), files.toTable());
+        snapshot.set(next);
+        scheduleIndexing();
+        Metrics.stop(Metrics.Phase.INDEX, start);
+        return next;
+    }
+
+    private void forget(List<Message> messages) {
+        Deduplicator current = deduplicator;
+        if (current != null) {
+            current.remove(messages);
+        }
+    }
+
+    /**
+     * File queued by a loading thread
+     */
+    private static class Pending {
+
+        private final LoadedFile file;
+        private final long epoch;
+
+        private Pending(LoadedFile file, long epoch) {
+            this.file = file;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * Immutable content of the store. Version grows with every change, epoch grows when
+     * the store is cleared
+     */
+    public static class Snapshot {
+
+        private final long version;
+        private final long epoch;
+        private final ConversationIndex index;
+        private final FileTable files;
+
+        private Snapshot(long version, long epoch, ConversationIndex index, FileTable files) {
+            this.version = version;
+            this.epoch = epoch;
+            this.index = index;
+            this.files = files;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public ConversationIndex getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns number of files of the snapshot
+         * @return number of files
+         */
+        public int getFileCount() {
+            return files.size();
+        }
+
+        /**
+         * Returns messages of the file
+         * @param path path of the file
+         * @return messages or {@code null} if there is no such file in the snapshot
+         */
+        public List<Message> getMessages(String path) {
+            return files.get(path);
+        }
+
+        /**
+         * Returns paths of all files of the snapshot
+         * @return list of paths
+         */
+        public List<String> getPaths() {
+            return files.paths();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.karpukhin.smsviewer.model.BodySource;
+import org.karpukhin.smsviewer.model.SourceLocation;
+import org.karpukhin.smsviewer.utils.ByteBufferVmessageParser;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Texts of messages loaded without bodies. Text is read from the file of the message
+ * when it is requested and kept in LRU cache limited by total number of characters,
+ * given by "smsviewer.body.cache.size" system property. Text is not read from a file
+ * or archive entry whose size or modification time has changed since it was loaded.
+ * <p>
+ * The last read archive entry is kept inflated unless it is large, so its messages are
+ * not inflated from the start of the entry one by one.
+ *
+ * @author Pavel Karpukhin
+ */
+public class BodyCache implements BodySource {
+
+    private static final Logger logger = Logger.getLogger(BodyCache.class.getName());
+
+    public static final String SIZE_PROPERTY = "smsviewer.body.cache.size";
+
+    private static final int DEFAULT_SIZE = 4 * 1024 * 1024;
+    /** Largest archive entry which is kept inflated, in bytes */
+    private static final int MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+
+    private final int maxSize;
+    private final LinkedHashMap<SourceLocation, String> texts = new LinkedHashMap<SourceLocation, String>(256, 0.75f, true);
+    private int size;
+
+    /** Archive of the last read entry, kept open because reading of central directory is slow */
+    private ZipFile zip;
+    private String zipPath;
+    /** Content of the last read archive entry or {@code null} */
+    private byte[] entryBytes;
+    private String entryPath;
+
+    /**
+     * Creates cache of the size given by "smsviewer.body.cache.size" system property
+     */
+    public BodyCache() {
+        this(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+    }
+
+    public BodyCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public String getText(SourceLocation location) {
+        synchronized (this) {
+            String text = texts.get(location);
+            if (text != null) {
+                return text;
+            }
+        }
+        String text;
+        try {
+            text = ByteBufferVmessageParser.parse(read(location)).getText();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read " + location, e);
+            return "";
+        } catch (IllegalStateException e) {
+            logger.log(Level.WARNING, "Could not parse " + location, e);
+            return "";
+        }
+        if (text == null) {
+            text = "";
+        }
+        put(location, text);
+        return text;
+    }
+
+    /**
+     * Removes all texts and closes the archive
+     */
+    public synchronized void clear() {
+        texts.clear();
+        size = 0;
+        closeZip();
+    }
+
+    private synchronized void put(SourceLocation location, String text) {
+        String previous = texts.put(location, text);
+        if (previous != null) {
+            size -= previous.length();
+        }
+        size += text.length();
+        for (Iterator<String> it = texts.values().iterator(); size > maxSize && it.hasNext(); ) {
+            size -= it.next().length();
+            it.remove();
+        }
+    }
+
+    private ByteBuffer read(SourceLocation location) throws IOException {
+        String path = location.getPath();
+        int separator = path.indexOf(MessageLoader.ARCHIVE_SEPARATOR);
+        if (separator >= 0) {
+            return readEntry(path.substring(0, separator),
+                    path.substring(separator + MessageLoader.ARCHIVE_SEPARATOR.length()), location);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(location.getLength());
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        try {
+            File file = new File(path);
+            if (!location.getFile().isCurrent(raf.length(), file.lastModified())) {
+                throw new IOException(path + " has been changed since it was loaded");
+            }
+            while (buffer.hasRemaining()) {
+                if (raf.getChannel().read(buffer, location.getOffset() + buffer.position()) < 0) {
+                    throw new EOFException(path + " is shorter than expected");
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private synchronized ByteBuffer readEntry(String archive, String name, SourceLocation location) throws IOException {
+        if (zip == null || !archive.equals(zipPath)) {
+            closeZip();
+            zip = new ZipFile(new File(archive));
+            zipPath = archive;
+        }
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("There is no " + name + " in " + archive);
+        }
+        if (!location.getFile().isCurrent(entry.getSize(), entry.getTime())) {
+            throw new IOException(location.getPath() + " has been changed since it was loaded");
+        }
+        if (!location.getPath().equals(entryPath) && entry.getSize() >= 0 && entry.getSize() <= MAX_INFLATED_SIZE) {
+            entryBytes = inflate(entry);
+            entryPath = location.getPath();
+        }
+        if (location.getPath().equals(entryPath)) {
+            if (location.getOffset() + location.getLength() > entryBytes.length) {
+                throw new EOFException(location + " is out of entry");
+            }
+            return ByteBuffer.wrap(entryBytes, (int) location.getOffset(), location.getLength());
+        }
+        byte[] bytes = new byte[location.getLength()];
+        InputStream in = zip.getInputStream(entry);
+        try {
+            long skipped = 0;
+            while (skipped < location.getOffset()) {
+                long n = in.skip(location.getOffset() - skipped);
+                if (n <= 0) {
+                    throw new EOFException(location + " is out of entry");
+                }
+                skipped += n;
+            }
+            int count = 0;
+            while (count < bytes.length) {
+                int n = in.read(bytes, count, bytes.length - count);
+                if (n < 0) {
+                    throw new EOFException(location + " is out of entry");
+                }
+                count += n;
+            }
+        } finally {
+            in.close();
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private byte[] inflate(ZipEntry entry) throws IOException {
+        byte[] bytes = new byte[(int) entry.getSize()];
+        InputStream in = zip.getInputStream(entry);
+        try {
+            int count = 0;
+            while (count < bytes.length) {
+                int n = in.read(bytes, count, bytes.length - count);
+                if (n < 0) {
+                    throw new EOFException(entry.getName() + " is shorter than expected");
+                }
+                count += n;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private void closeZip() {
+        entryBytes = null;
+        entryPath = null;
+        if (zip != null) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Could not close " + zipPath, e);
+            }
+            zip = null;
+            zipPath = null;
+        }
+    }
+}
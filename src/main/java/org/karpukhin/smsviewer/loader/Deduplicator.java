@@ -0,0 +1,163 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.ByteBufferVmessageParser;
+import org.karpukhin.smsviewer.utils.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drops messages which have been already seen in other files, e.g. in overlapping backups.
+ * Messages are compared by 64-bit fingerprint of canonical key of the number, date, direction
+ * and text, fingerprints are kept in primitive sets split into segments with their own locks,
+ * so workers parsing different files rarely wait for each other.
+ * <p>
+ * The first file passed to {@link #filter(List)} which contains a message keeps it. When such file is removed the copies
+ * dropped from other files are lost, {@link #hasLostMessages()} tells that files have to be
+ * loaded again.
+ *
+ * @author Pavel Karpukhin
+ */
+public class Deduplicator {
+
+    private static final int SEGMENTS = 16;
+    private static final int EXPECTED_SIZE = 1024;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Fingerprints of kept messages */
+    private final LongHashSet[] kept = new LongHashSet[SEGMENTS];
+    /** Fingerprints of kept messages which had copies in other files */
+    private final LongHashSet[] copied = new LongHashSet[SEGMENTS];
+    /** Fingerprints of removed messages which had copies in other files */
+    private final LongHashSet[] lost = new LongHashSet[SEGMENTS];
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicInteger lostCount = new AtomicInteger();
+
+    public Deduplicator() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            kept[i] = new LongHashSet(EXPECTED_SIZE);
+            copied[i] = new LongHashSet(0);
+            lost[i] = new LongHashSet(0);
+        }
+    }
+
+    /**
+     * Returns fingerprint of the message. Text of message loaded without text is not read,
+     * hash of the text computed by the parser is used instead
+     * @param message message
+     * @return fingerprint
+     */
+    public static long fingerprint(Message message) {
+        long hash = FNV_OFFSET;
+        hash = (hash ^ message.getContact().getKey()) * FNV_PRIME;
+        hash = (hash ^ message.getTimestamp()) * FNV_PRIME;
+        hash = (hash ^ (message.getInbox() ? 1 : 2)) * FNV_PRIME;
+        long textHash = message.hasText()
+                ? ByteBufferVmessageParser.hashText(message.getText()) : message.getSource().getTextHash();
+        hash = (hash ^ textHash) * FNV_PRIME;
+        // final mixing of MurmurHash3, so segments and slots get different bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Returns messages which have not been seen in other files before and remembers them.
+     * Files should be passed in the same order every time they are loaded, so the same copy
+     * is kept. Equal messages of one file are all kept
+     * @param messages messages of one file
+     * @return the same list if there are no duplicates, otherwise new list without them
+     */
+    public List<Message> filter(List<Message> messages) {
+        List<Message> result = null;
+        // fingerprints first seen in this file, their repetitions in the file are not copies
+        LongHashSet own = null;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            long fingerprint = fingerprint(message);
+            boolean keep;
+            if (own != null && own.contains(fingerprint)) {
+                keep = true;
+            } else {
+                keep = add(fingerprint);
+                if (keep && messages.size() > 1) {
+                    if (own == null) {
+                        own = new LongHashSet(messages.size());
+                    }
+                    own.add(fingerprint);
+                }
+            }
+            if (keep) {
+                if (result != null) {
+                    result.add(message);
+                }
+            } else if (result == null) {
+                result = new ArrayList<Message>(messages.subList(0, i));
+            }
+        }
+        if (result == null) {
+            return messages;
+        }
+        duplicates.addAndGet(messages.size() - result.size());
+        return result;
+    }
+
+    /**
+     * Forgets messages of removed or changed file, so they are kept when they are seen again
+     * @param messages messages returned by {@link #filter(List)} for the file
+     */
+    public void remove(List<Message> messages) {
+        for (Message message : messages) {
+            long fingerprint = fingerprint(message);
+            int segment = segment(fingerprint);
+            synchronized (kept[segment]) {
+                if (kept[segment].remove(fingerprint) && copied[segment].remove(fingerprint)
+                        && lost[segment].add(fingerprint)) {
+                    lostCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns number of dropped messages
+     * @return number of duplicates
+     */
+    public int getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * Returns whether removed messages had copies which were dropped from other files and
+     * have not been seen again since then
+     * @return {@code true} if files have to be loaded again to show all messages
+     */
+    public boolean hasLostMessages() {
+        return lostCount.get() > 0;
+    }
+
+    private boolean add(long fingerprint) {
+        int segment = segment(fingerprint);
+        synchronized (kept[segment]) {
+            if (lost[segment].remove(fingerprint)) {
+                lostCount.decrementAndGet();
+            }
+            if (kept[segment].add(fingerprint)) {
+                return true;
+            }
+            copied[segment].add(fingerprint);
+            return false;
+        }
+    }
+
+    private static int segment(long fingerprint) {
+        return (int) (fingerprint >>> 60);
+    }
+}
@@ -0,0 +1,277 @@
+package org.karpukhin.smsviewer.loader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches directory tree for created, changed and deleted "*.vmg" files with {@link WatchService}.
+ * Events are collected until the tree is quiet for a short period, then changed files are parsed
+ * and the listener is notified about the whole batch. A batch is dispatched after a few seconds
+ * or a thousand files even if events keep coming. When the watch service loses events
+ * the listener is asked to rescan the tree.
+ * <p>
+ * Files written after the tree was loaded but before it is registered produce no events, so
+ * the first registration is compared with the loaded files: files modified since loading
+ * started or not loaded at all are parsed and loaded files which are gone are removed.
+ *
+ * @author Pavel Karpukhin
+ */
+public class FolderWatcher implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(FolderWatcher.class.getName());
+
+    private static final long QUIET_PERIOD = 300;
+    private static final long MAX_BATCH_PERIOD = 3000;
+    private static final int MAX_BATCH_FILES = 1000;
+    /** Modification times are stored with 2 s precision by some file systems */
+    private static final long MTIME_PRECISION = 2000;
+
+    /**
+     * Receives changes of watched tree. Methods are called from the thread of the watcher
+     */
+    public interface Listener {
+
+        /**
+         * Called when files were created, changed or deleted
+         * @param changed created or changed files with their messages
+         * @param removed paths of deleted files and directories and of files which could not be parsed
+         */
+        void filesChanged(List<LoadedFile> changed, Set<String> removed);
+
+        /**
+         * Called when some events were lost and the whole tree has to be loaded again
+         */
+        void rescanRequired();
+    }
+
+    private final Path root;
+    private final MessageLoader loader;
+    private final Listener listener;
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+    private WatchService watchService;
+    private Thread thread;
+    private long since;
+    private Collection<String> known;
+
+    public FolderWatcher(File root, MessageLoader loader, Listener listener) {
+        this.root = root.toPath().toAbsolutePath();
+        this.loader = loader;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching in background thread
+     * @param since time in milliseconds when the loaded files started to be read,
+     *              files modified later are parsed again
+     * @param known paths of the loaded files
+     * @throws IOException if watch service could not be created
+     */
+    public synchronized void start(long since, Collection<String> known) throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Watcher is already started");
+        }
+        this.since = since;
+        this.known = known;
+        watchService = root.getFileSystem().newWatchService();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "folder-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching
+     */
+    @Override
+    public synchronized void close() {
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void watch() {
+        try {
+            Set<Path> found = new LinkedHashSet<Path>();
+            register(root, found);
+            dispatch(reconcile(found));
+            while (!Thread.currentThread().isInterrupted()) {
+                Batch batch = new Batch();
+                WatchKey key = watchService.take();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_PERIOD);
+                while (key != null) {
+                    collect(key, batch);
+                    // events which keep coming are left for the next batch
+                    if (batch.size() >= MAX_BATCH_FILES || System.nanoTime() - deadline >= 0) {
+                        break;
+                    }
+                    key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+                }
+                if (batch.overflow) {
+                    listener.rescanRequired();
+                } else {
+                    dispatch(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, "Watcher of {0} is stopped", root);
+        } catch (ClosedWatchServiceException e) {
+            logger.log(Level.FINE, "Watcher of {0} is closed", root);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not watch " + root, e);
+        }
+    }
+
+    private void collect(WatchKey key, Batch batch) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                batch.overflow = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                batch.changed.remove(path);
+                batch.removed.add(path.toString());
+            } else if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    batch.removed.remove(path.toString());
+                    register(path, batch.changed);
+                }
+            } else if (path.getFileName().toString().endsWith(MessageLoader.EXTENSION)) {
+                batch.removed.remove(path.toString());
+                batch.changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Compares files found by the first registration with the loaded files
+     * @param found message files of the tree
+     * @return files changed since loading started
+     */
+    private Batch reconcile(Set<Path> found) {
+        Batch batch = new Batch();
+        Set<String> missing = new HashSet<String>(known);
+        for (Path path : found) {
+            if (!missing.remove(path.toString())) {
+                batch.changed.add(path);
+                continue;
+            }
+            try {
+                if (Files.getLastModifiedTime(path).toMillis() >= since - MTIME_PRECISION) {
+                    batch.changed.add(path);
+                }
+            } catch (IOException e) {
+                logger.log(Level.FINE, "{0}: {1}", new Object[] {path, e.getMessage()});
+                batch.changed.add(path);
+            }
+        }
+        for (String path : missing) {
+            // files of linked directories are loaded but not watched
+            if (!Files.exists(Paths.get(path))) {
+                batch.removed.add(path);
+            }
+        }
+        return batch;
+    }
+
+    private void dispatch(Batch batch) {
+        List<LoadedFile> changed = new ArrayList<LoadedFile>();
+        for (Path path : batch.changed) {
+            try {
+                changed.add(new LoadedFile(path.toString(), loader.loadFile(path.toFile())));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+                batch.removed.add(path.toString());
+            } catch (IllegalStateException e) {
+                logger.log(Level.FINE, "{0}: {1}", new Object[] {path, e.getMessage()});
+                batch.removed.add(path.toString());
+            }
+        }
+        if (!changed.isEmpty() || !batch.removed.isEmpty()) {
+            listener.filesChanged(changed, batch.removed);
+        }
+    }
+
+    /**
+     * Registers directory and its subdirectories. Files which are already there are
+     * added to the found files, because they could be created before registration
+     */
+    private void register(Path start, final Set<Path> found) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (found != null && MessageLoader.isMessageFile(file, attrs)) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Changes collected during one quiet period
+     */
+    private static class Batch {
+
+        private final Set<Path> changed = new LinkedHashSet<Path>();
+        private final Set<String> removed = new LinkedHashSet<String>();
+        private boolean overflow;
+
+        private int size() {
+            return changed.size() + removed.size();
+        }
+    }
+}
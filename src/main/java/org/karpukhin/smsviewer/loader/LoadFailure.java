@@ -0,0 +1,44 @@
+package org.karpukhin.smsviewer.loader;
+
+/**
+ * Describes file which could not be loaded
+ *
+ * @author Pavel Karpukhin
+ */
+public class LoadFailure {
+
+    private final String path;
+    private final String reason;
+    private final Throwable cause;
+
+    public LoadFailure(String path, String reason) {
+        this(path, reason, null);
+    }
+
+    public LoadFailure(String path, Throwable cause) {
+        this(path, cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName(), cause);
+    }
+
+    public LoadFailure(String path, String reason, Throwable cause) {
+        this.path = path;
+        this.reason = reason;
+        this.cause = cause;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return path + ": " + reason;
+    }
+}
@@ -0,0 +1,35 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.karpukhin.smsviewer.model.Message;
+
+import java.util.List;
+
+/**
+ * Receives notifications while messages are being loaded. Methods are called
+ * from the walking thread and from worker threads, so implementations must be thread safe
+ *
+ * @author Pavel Karpukhin
+ */
+public interface LoadListener {
+
+    /**
+     * Called when message file is found
+     * @param path file path
+     * @param size file size in bytes
+     */
+    void fileFound(String path, long size);
+
+    /**
+     * Called when message file is parsed or taken from cache
+     * @param path file path
+     * @param size file size in bytes
+     * @param messages messages of the file
+     */
+    void fileLoaded(String path, long size, List<Message> messages);
+
+    /**
+     * Called when message file could not be loaded
+     * @param failure failure
+     */
+    void fileFailed(LoadFailure failure);
+}
@@ -0,0 +1,52 @@
+package org.karpukhin.smsviewer.loader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe counters of loading progress
+ *
+ * @author Pavel Karpukhin
+ */
+public class LoadProgress {
+
+    private final AtomicLong filesFound = new AtomicLong();
+    private final AtomicLong filesProcessed = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public void fileFound() {
+        filesFound.incrementAndGet();
+    }
+
+    public void fileLoaded(long size, int messageCount) {
+        bytes.addAndGet(size);
+        messages.addAndGet(messageCount);
+        filesProcessed.incrementAndGet();
+    }
+
+    public void fileFailed() {
+        failures.incrementAndGet();
+        filesProcessed.incrementAndGet();
+    }
+
+    public long getFilesFound() {
+        return filesFound.get();
+    }
+
+    public long getFilesProcessed() {
+        return filesProcessed.get();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
@@ -0,0 +1,79 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.karpukhin.smsviewer.model.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of loading messages from directory
+ *
+ * @author Pavel Karpukhin
+ */
+public class LoadResult {
+
+    private final List<LoadedFile> files;
+    private final List<Message> messages;
+    private final List<LoadFailure> failures;
+    private final Deduplicator deduplicator;
+
+    public LoadResult(List<LoadedFile> files, List<LoadFailure> failures) {
+        this(files, failures, null);
+    }
+
+    /**
+     * @param files loaded files
+     * @param failures files which could not be loaded
+     * @param deduplicator deduplicator which dropped copies of messages or {@code null} if they were kept
+     */
+    public LoadResult(List<LoadedFile> files, List<LoadFailure> failures, Deduplicator deduplicator) {
+        this.files = files;
+        this.failures = failures;
+        this.deduplicator = deduplicator;
+        this.messages = new ArrayList<Message>(files.size());
+        for (LoadedFile file : files) {
+            messages.addAll(file.getMessages());
+        }
+    }
+
+    /**
+     * Returns loaded files ordered by path
+     * @return list of files
+     */
+    public List<LoadedFile> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Returns loaded messages ordered by path of file they were read from
+     * @return list of messages
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns files which could not be loaded ordered by path
+     * @return list of failures
+     */
+    public List<LoadFailure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * Returns deduplicator which knows fingerprints of loaded messages
+     * @return deduplicator or {@code null} if copies of messages were not dropped
+     */
+    public Deduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    /**
+     * Returns number of messages which were dropped because they had been loaded from other files
+     * @return number of duplicates
+     */
+    public int getDuplicates() {
+        return deduplicator != null ? deduplicator.getDuplicates() : 0;
+    }
+}
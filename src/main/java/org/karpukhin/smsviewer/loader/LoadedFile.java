@@ -0,0 +1,33 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.karpukhin.smsviewer.model.Message;
+
+import java.util.List;
+
+/**
+ * Messages loaded from one file
+ *
+ * @author Pavel Karpukhin
+ */
+public class LoadedFile {
+
+    private final String path;
+    private final List<Message> messages;
+
+    public LoadedFile(String path, List<Message> messages) {
+        this.path = path;
+        this.messages = messages;
+    }
+
+    /**
+     * Returns absolute path of the file
+     * @return path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,544 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.model.SourceFile;
+import org.karpukhin.smsviewer.model.SourceLocation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of parsed messages of one directory. For every "*.vmg" file the cache keeps
+ * its path, size and modification time together with parsed messages, so unchanged files
+ * do not have to be parsed again when the directory is opened next time.
+ * <p>
+ * Cache file is memory-mapped when it is opened. Only the header of every record is read at
+ * that moment, messages are decoded from the mapped buffer when the record is requested.
+ * Records requested or put during loading make up the cache which is written by {@link #save()},
+ * so records of deleted files are dropped. Requested records are copied from the mapped buffer
+ * only when the cache is saved. Records put during loading are appended to a spill file next
+ * to the cache files and only their positions are kept in memory, so the cache does not hold
+ * a second copy of loaded messages. Messages loaded without bodies are cached with location of
+ * their text.
+ * <p>
+ * Cache files are stored in the directory given by "smsviewer.cache.dir" system property,
+ * by default in ".sms-viewer/cache" in user home directory. Every save writes the next generation
+ * of the cache into a new file, because a file which is still mapped can not be replaced or
+ * deleted on some systems. Older generations are deleted when it is possible.
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageCache {
+
+    private static final Logger logger = Logger.getLogger(MessageCache.class.getName());
+
+    public static final String DIRECTORY_PROPERTY = "smsviewer.cache.dir";
+
+    private static final int MAGIC = 0x534D5343;
+    private static final int VERSION = 3;
+    private static final String EXTENSION = ".cache";
+    private static final String SPILL_EXTENSION = ".spill";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final boolean lazyBodies;
+    /** Generation the records were read from */
+    private final long generation;
+    private final ContactTable contacts;
+    private final Map<String, Record> records;
+    private final ConcurrentSkipListMap<String, Record> updated = new ConcurrentSkipListMap<String, Record>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    /** File records put during loading are appended to, guarded by this cache */
+    private File spillFile;
+    private RandomAccessFile spill;
+    private long spillLength;
+    /** Whether spill file could not be written, so new records are not cached any more */
+    private boolean spillFailed;
+
+    private MessageCache(File directory, boolean lazyBodies, long generation, ContactTable contacts,
+                         Map<String, Record> records) {
+        this.directory = directory;
+        this.lazyBodies = lazyBodies;
+        this.generation = generation;
+        this.contacts = contacts;
+        this.records = records;
+    }
+
+    /**
+     * Opens cache of the given directory. If there is no cache or it could not be read
+     * the returned cache is empty
+     * @param directory directory with messages
+     * @return cache
+     */
+    public static MessageCache open(File directory) {
+        return open(directory, false, new ContactTable());
+    }
+
+    /**
+     * Opens cache of the given directory. If there is no cache, it could not be read or it
+     * was written with the other mode the returned cache is empty
+     * @param directory directory with messages
+     * @param lazyBodies whether cached messages keep location of their text instead of the text
+     * @param contacts table in which numbers of cached messages are interned
+     * @return cache
+     */
+    public static MessageCache open(File directory, boolean lazyBodies, ContactTable contacts) {
+        long generation = getGeneration(directory);
+        File file = getCacheFile(directory, generation);
+        Map<String, Record> records = Collections.emptyMap();
+        if (file.isFile()) {
+            try {
+                records = readRecords(directory, lazyBodies, file);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not read cache " + file, e);
+            } catch (BufferUnderflowException e) {
+                logger.log(Level.WARNING, "Cache " + file + " is corrupted", e);
+            } catch (IllegalArgumentException e) {
+                logger.log(Level.WARNING, "Cache " + file + " is corrupted", e);
+            }
+        }
+        return new MessageCache(directory, lazyBodies, generation, contacts, records);
+    }
+
+    /**
+     * Creates empty cache of the given directory ignoring existing one
+     * @param directory directory with messages
+     * @return cache
+     */
+    public static MessageCache create(File directory) {
+        return new MessageCache(directory, false, getGeneration(directory), new ContactTable(),
+                Collections.<String, Record>emptyMap());
+    }
+
+    /**
+     * Deletes cache of the given directory. Generations which are still mapped and can not be
+     * deleted are hidden by an empty generation
+     * @param directory directory with messages
+     * @return {@code true} if cache was deleted
+     */
+    public static boolean invalidate(File directory) {
+        long generation = getGeneration(directory);
+        if (deleteGenerations(directory, -1)) {
+            return true;
+        }
+        try {
+            new MessageCache(directory, false, generation, new ContactTable(),
+                    Collections.<String, Record>emptyMap()).save();
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not invalidate cache of " + directory, e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns file where the latest generation of cache of the given directory is stored
+     * @param directory directory with messages
+     * @return cache file, it does not exist if there is no cache
+     */
+    public static File getCacheFile(File directory) {
+        return getCacheFile(directory, getGeneration(directory));
+    }
+
+    private static File getCacheFile(File directory, long generation) {
+        return new File(getCacheDirectory(), digest(directory.getAbsolutePath()) + "." + generation + EXTENSION);
+    }
+
+    private static File getCacheDirectory() {
+        String cacheDirectory = System.getProperty(DIRECTORY_PROPERTY);
+        return cacheDirectory != null
+                ? new File(cacheDirectory)
+                : new File(System.getProperty("user.home"), ".sms-viewer" + File.separator + "cache");
+    }
+
+    /**
+     * Returns the latest generation of cache of the directory
+     * @param directory directory with messages
+     * @return generation or 0 if there is no cache
+     */
+    private static long getGeneration(File directory) {
+        long latest = 0;
+        for (long generation : listGenerations(directory)) {
+            latest = Math.max(latest, generation);
+        }
+        return latest;
+    }
+
+    /**
+     * Deletes all generations of cache of the directory except the given one
+     * @return {@code true} if all of them were deleted
+     */
+    private static boolean deleteGenerations(File directory, long kept) {
+        boolean deleted = true;
+        for (long generation : listGenerations(directory)) {
+            File file = getCacheFile(directory, generation);
+            if (generation != kept && !file.delete() && file.exists()) {
+                logger.log(Level.FINE, "Cache {0} is still in use", file);
+                deleted = false;
+            }
+        }
+        return deleted;
+    }
+
+    private static List<Long> listGenerations(File directory) {
+        String prefix = digest(directory.getAbsolutePath()) + ".";
+        List<Long> generations = new ArrayList<Long>();
+        String[] names = getCacheDirectory().list();
+        if (names == null) {
+            return generations;
+        }
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.endsWith(EXTENSION)) {
+                try {
+                    generations.add(Long.parseLong(name.substring(prefix.length(), name.length() - EXTENSION.length())));
+                } catch (NumberFormatException e) {
+                    // temporary or foreign file
+                }
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Returns cached messages of the file if file has not been changed since it was cached
+     * @param path absolute path of the file
+     * @param size size of the file
+     * @param lastModified modification time of the file
+     * @return messages or {@code null} if file is not cached or has been changed
+     */
+    public List<Message> get(String path, long size, long lastModified) {
+        Record record = records.get(path);
+        if (record == null || record.size != size || record.lastModified != lastModified) {
+            misses.incrementAndGet();
+            return null;
+        }
+        List<Message> messages;
+        try {
+            messages = record.decode(path, contacts);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Cache record of " + path + " is corrupted", e);
+            misses.incrementAndGet();
+            return null;
+        }
+        updated.put(path, record);
+        hits.incrementAndGet();
+        return messages;
+    }
+
+    /**
+     * Puts parsed messages of the file into cache
+     * @param path absolute path of the file
+     * @param size size of the file
+     * @param lastModified modification time of the file
+     * @param messages parsed messages
+     */
+    public void put(String path, long size, long lastModified, List<Message> messages) {
+        byte[] bytes;
+        try {
+            bytes = encode(path, size, lastModified, messages);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        long offset;
+        synchronized (this) {
+            if (spillFailed) {
+                return;
+            }
+            offset = spillLength;
+            try {
+                if (spill == null) {
+                    spillFile = createSpillFile();
+                    spill = new RandomAccessFile(spillFile, "rw");
+                }
+                spill.write(bytes);
+                spillLength += bytes.length;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not write cache records to " + spillFile
+                        + ", new files are not cached", e);
+                spillFailed = true;
+                return;
+            }
+        }
+        updated.put(path, new Record(offset, bytes.length, size, lastModified));
+    }
+
+    /**
+     * Writes files requested with {@link #get} or put with {@link #put} to the next generation
+     * of the cache file and deletes older generations
+     * @throws IOException if cache could not be written
+     */
+    public void save() throws IOException {
+        long next = Math.max(generation, getGeneration(directory)) + 1;
+        File file = getCacheFile(directory, next);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        byte[] chunk = new byte[COPY_BUFFER_SIZE];
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, directory.getAbsolutePath());
+                out.writeBoolean(lazyBodies);
+                out.writeInt(updated.size());
+                synchronized (this) {
+                    for (Record record : updated.values()) {
+                        out.writeInt(record.length);
+                        record.writeTo(out, chunk, spill);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            discard();
+        }
+        Files.move(temp.toPath(), file.toPath());
+        deleteGenerations(directory, next);
+    }
+
+    /**
+     * Deletes records put since the cache was opened without saving them. Called by
+     * {@link #save()}, must be called instead of it if loading is not finished
+     */
+    public synchronized void discard() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Could not close " + spillFile, e);
+            }
+            spill = null;
+            spillLength = 0;
+            if (!spillFile.delete()) {
+                logger.log(Level.FINE, "Could not delete {0}", spillFile);
+            }
+        }
+        updated.clear();
+    }
+
+    /**
+     * Creates the spill file of this cache. It is deleted on exit if the cache is neither saved
+     * nor discarded
+     */
+    private File createSpillFile() throws IOException {
+        File parent = getCacheDirectory();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        File file = File.createTempFile(digest(directory.getAbsolutePath()) + ".", SPILL_EXTENSION, parent);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Returns number of files served from the cache
+     * @return number of hits
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns number of files which were not in the cache or were changed
+     * @return number of misses
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    private static Map<String, Record> readRecords(File directory, boolean lazyBodies, File file) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            logger.log(Level.INFO, "Cache {0} has unsupported format", file);
+            return Collections.emptyMap();
+        }
+        if (!directory.getAbsolutePath().equals(readString(buffer))) {
+            logger.log(Level.INFO, "Cache {0} belongs to another directory", file);
+            return Collections.emptyMap();
+        }
+        if ((buffer.get() != 0) != lazyBodies) {
+            logger.log(Level.INFO, "Cache {0} was written in other mode", file);
+            return Collections.emptyMap();
+        }
+        int count = buffer.getInt();
+        Map<String, Record> records = new HashMap<String, Record>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            int start = buffer.position();
+            String path = readString(buffer);
+            long size = buffer.getLong();
+            long lastModified = buffer.getLong();
+            records.put(path, new Record(buffer, start, length, buffer.position(), size, lastModified));
+            buffer.position(start + length);
+        }
+        return records;
+    }
+
+    private static byte[] encode(String path, long size, long lastModified, List<Message> messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, path);
+        out.writeLong(size);
+        out.writeLong(lastModified);
+        out.writeInt(messages.size());
+        for (Message message : messages) {
+            out.writeLong(message.getTimestamp());
+            out.writeInt(message.getFlags());
+            writeString(out, message.getNumber());
+            SourceLocation source = message.getSource();
+            // text of lazy message is not read just to be cached
+            writeString(out, message.hasText() ? message.getText() : null);
+            out.writeLong(source != null ? source.getOffset() : -1L);
+            out.writeInt(source != null ? source.getLength() : 0);
+            out.writeLong(source != null ? source.getTextHash() : 0L);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(value.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Record of one file in the mapped cache file or in the spill file
+     */
+    private static class Record {
+
+        /** Mapped cache file or {@code null} if the record is in the spill file */
+        private final ByteBuffer buffer;
+        private final int start;
+        private final long spillOffset;
+        private final int length;
+        private final int messagesOffset;
+        private final long size;
+        private final long lastModified;
+
+        private Record(ByteBuffer buffer, int start, int length, int messagesOffset, long size, long lastModified) {
+            this.buffer = buffer;
+            this.start = start;
+            this.spillOffset = -1;
+            this.length = length;
+            this.messagesOffset = messagesOffset;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Creates record put during loading, it is only copied to the cache file when
+         * the cache is saved
+         */
+        private Record(long spillOffset, int length, long size, long lastModified) {
+            this.buffer = null;
+            this.start = -1;
+            this.spillOffset = spillOffset;
+            this.length = length;
+            this.messagesOffset = -1;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private List<Message> decode(String path, ContactTable contacts) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(messagesOffset);
+            int count = in.getInt();
+            List<Message> messages = new ArrayList<Message>(count);
+            SourceFile file = new SourceFile(path, size, lastModified);
+            for (int i = 0; i < count; i++) {
+                long timestamp = in.getLong();
+                int flags = in.getInt();
+                String number = readString(in);
+                String text = readString(in);
+                long offset = in.getLong();
+                int length = in.getInt();
+                long textHash = in.getLong();
+                SourceLocation source = offset >= 0 ? new SourceLocation(file, offset, length, textHash) : null;
+                messages.add(new Message(timestamp, contacts.intern(number), text, source, flags));
+            }
+            return messages;
+        }
+
+        private void writeTo(DataOutputStream out, byte[] chunk, RandomAccessFile spill) throws IOException {
+            ByteBuffer in = null;
+            if (buffer != null) {
+                in = buffer.duplicate();
+                in.position(start);
+            } else {
+                spill.seek(spillOffset);
+            }
+            for (int remaining = length; remaining > 0; ) {
+                int count = Math.min(remaining, chunk.length);
+                if (in != null) {
+                    in.get(chunk, 0, count);
+                } else {
+                    spill.readFully(chunk, 0, count);
+                }
+                out.write(chunk, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+}
@@ -0,0 +1,875 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.karpukhin.smsviewer.metrics.Metrics;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.model.SourceFile;
+import org.karpukhin.smsviewer.utils.ByteBufferVmessageParser;
+import org.karpukhin.smsviewer.utils.ParserEngine;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Loads "*.vmg" files from directory tree. Directory tree is walked by the calling thread
+ * and every found file is immediately passed to a bounded pool of workers, so files are
+ * parsed while the rest of the tree is still being walked. When the queue of the pool is
+ * full the walking thread parses the file itself. A file may contain many messages, files
+ * larger than {@link #SPLIT_THRESHOLD} are split at boundaries of messages and parts are
+ * parsed by idle workers.
+ * <p>
+ * Directories are walked in order of names. When duplicates are dropped, files are passed to
+ * {@link Deduplicator} in that order whichever worker parses them first, so the same copy of
+ * a message is kept every time the tree is loaded.
+ * <p>
+ * ZIP and TAR archives (optionally gzipped) are loaded like directories without extracting
+ * them. Path of a message file in an archive is the path of the archive followed by
+ * {@link #ARCHIVE_SEPARATOR} and name of the entry.
+ * <p>
+ * With "smsviewer.lazy.bodies" system property messages of files and ZIP entries are loaded
+ * without text, which is read through {@link #getBodyCache()} when it is shown or searched.
+ * Entries of TAR archives keep their text because the archive may be compressed.
+ * <p>
+ * Unless disabled, parsed messages are kept in {@link MessageCache}, so only new and
+ * changed files are parsed when the directory is loaded again.
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageLoader {
+
+    private static final Logger logger = Logger.getLogger(MessageLoader.class.getName());
+
+    public static final String EXTENSION = ".vmg";
+
+    /**
+     * Separates path of an archive and name of its entry in paths of loaded files
+     */
+    public static final String ARCHIVE_SEPARATOR = "!/";
+
+    /**
+     * System property which disables persistent cache when set to "false"
+     */
+    public static final String CACHE_PROPERTY = "smsviewer.cache";
+
+    /**
+     * System property which enables loading of messages without text when set to "true"
+     */
+    public static final String LAZY_BODIES_PROPERTY = "smsviewer.lazy.bodies";
+
+    /**
+     * Name of system property which disables dropping of messages found in several files when it is "false"
+     */
+    public static final String DEDUP_PROPERTY = "smsviewer.dedup";
+
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+
+    /**
+     * Files larger than this are split into parts which are parsed in parallel
+     */
+    private static final long SPLIT_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * TAR entries larger than this are copied to temporary files instead of memory, because
+     * entries read by the walking thread wait in the queue of the pool
+     */
+    private static final long MAX_TAR_ENTRY_IN_MEMORY = SPLIT_THRESHOLD;
+
+    private static final LoadListener NO_LISTENER = new LoadListener() {
+        @Override
+        public void fileFound(String path, long size) {
+        }
+
+        @Override
+        public void fileLoaded(String path, long size, List<Message> messages) {
+        }
+
+        @Override
+        public void fileFailed(LoadFailure failure) {
+        }
+    };
+
+    private final int threads;
+    private final ParserEngine engine;
+    private final boolean cacheEnabled;
+    private final boolean lazyBodies;
+    private final boolean deduplicate;
+    private final BodyCache bodyCache = new BodyCache();
+
+    public MessageLoader() {
+        this(Runtime.getRuntime().availableProcessors(), ParserEngine.getDefault(),
+                !"false".equalsIgnoreCase(System.getProperty(CACHE_PROPERTY)),
+                "true".equalsIgnoreCase(System.getProperty(LAZY_BODIES_PROPERTY)),
+                !"false".equalsIgnoreCase(System.getProperty(DEDUP_PROPERTY)));
+    }
+
+    public MessageLoader(int threads, ParserEngine engine, boolean cacheEnabled) {
+        this(threads, engine, cacheEnabled, false);
+    }
+
+    /**
+     * @param threads number of workers
+     * @param engine parser
+     * @param cacheEnabled whether parsed messages are kept in {@link MessageCache}
+     * @param lazyBodies whether text of messages is left in files and read through {@link BodyCache}
+     *                   when it is requested, supported by {@link ParserEngine#BYTE_BUFFER} only
+     */
+    public MessageLoader(int threads, ParserEngine engine, boolean cacheEnabled, boolean lazyBodies) {
+        this(threads, engine, cacheEnabled, lazyBodies, false);
+    }
+
+    /**
+     * @param threads number of workers
+     * @param engine parser
+     * @param cacheEnabled whether parsed messages are kept in {@link MessageCache}
+     * @param lazyBodies whether text of messages is left in files and read through {@link BodyCache}
+     *                   when it is requested, supported by {@link ParserEngine#BYTE_BUFFER} only
+     * @param deduplicate whether messages which have been already loaded from other files are dropped
+     */
+    public MessageLoader(int threads, ParserEngine engine, boolean cacheEnabled, boolean lazyBodies, boolean deduplicate) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        if (lazyBodies && engine != ParserEngine.BYTE_BUFFER) {
+            logger.log(Level.INFO, "Parser {0} keeps text of messages in memory", engine);
+        }
+        this.threads = threads;
+        this.engine = engine;
+        this.cacheEnabled = cacheEnabled;
+        this.lazyBodies = lazyBodies && engine == ParserEngine.BYTE_BUFFER;
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * Returns whether messages are loaded without text
+     * @return {@code true} if text of messages is read when it is requested
+     */
+    public boolean isLazyBodies() {
+        return lazyBodies;
+    }
+
+    /**
+     * Returns reader of texts of messages loaded without text, it should be given to whoever
+     * shows or searches messages of this loader
+     * @return body cache
+     */
+    public BodyCache getBodyCache() {
+        return bodyCache;
+    }
+
+    /**
+     * Loads messages from every "*.vmg" file in the given directory and every subdirectory
+     * @param directory directory or archive
+     * @return loaded messages ordered by file path and files which could not be loaded
+     * @throws IOException if directory could not be walked or archive could not be read
+     * @throws InterruptedException if current thread was interrupted while waiting for workers
+     */
+    public LoadResult load(File directory) throws IOException, InterruptedException {
+        return load(directory, NO_LISTENER);
+    }
+
+    /**
+     * Loads messages from every "*.vmg" file in the given directory and every subdirectory
+     * notifying the listener about every processed file. Walking is stopped as soon as
+     * the calling thread is interrupted
+     * @param directory directory or archive
+     * @param listener listener
+     * @return loaded messages ordered by file path and files which could not be loaded
+     * @throws IOException if directory could not be walked or archive could not be read
+     * @throws InterruptedException if current thread was interrupted
+     */
+    public LoadResult load(File directory, LoadListener listener) throws IOException, InterruptedException {
+        ContactTable contacts = new ContactTable();
+        Load load = new Load(listener, cacheEnabled ? MessageCache.open(directory, lazyBodies, contacts) : null,
+                contacts, true, deduplicate ? new Deduplicator() : null);
+        try {
+            walk(directory, load);
+            load.saveCache();
+        } finally {
+            load.discardCache();
+        }
+        return load.createResult();
+    }
+
+    /**
+     * Parses every "*.vmg" file in the given directory and every subdirectory passing messages
+     * only to the listener. Neither messages nor cache are kept, so memory used by scanning
+     * does not depend on number of files
+     * @param directory directory or archive
+     * @param listener listener which gets messages of every file
+     * @return result without messages, with files which could not be loaded ordered by path
+     * @throws IOException if directory could not be walked or archive could not be read
+     * @throws InterruptedException if current thread was interrupted
+     */
+    public LoadResult scan(File directory, LoadListener listener) throws IOException, InterruptedException {
+        Load load = new Load(listener, null, new ContactTable(), false, deduplicate ? new Deduplicator() : null);
+        walk(directory, load);
+        return load.createResult();
+    }
+
+    private void walk(File source, Load load) throws IOException, InterruptedException {
+        ThreadPoolExecutor executor = createExecutor();
+        ZipFile zip = null;
+        long start = Metrics.start();
+        try {
+            if (isZip(source)) {
+                zip = new ZipFile(source);
+                walkZip(source, zip, executor, load);
+            } else if (isTar(source)) {
+                walkTar(source, executor, load);
+            } else {
+                walkTree(source, executor, load);
+            }
+        } finally {
+            executor.shutdown();
+            Metrics.stop(Metrics.Phase.WALK, start + load.executeNanos);
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            if (zip != null) {
+                zip.close();
+            }
+        }
+    }
+
+    /**
+     * Walks the tree in order of names, so files come in the same order every time the tree
+     * is loaded. Links are followed, links to ancestors are skipped
+     */
+    private void walkTree(File directory, ThreadPoolExecutor executor, Load load) throws IOException {
+        walkDirectory(directory.toPath(), new HashSet<Object>(), executor, load);
+    }
+
+    private void walkDirectory(Path directory, Set<Object> ancestors, ThreadPoolExecutor executor, Load load)
+            throws IOException {
+        Object key = Files.readAttributes(directory, BasicFileAttributes.class).fileKey();
+        if (key != null && !ancestors.add(key)) {
+            logger.log(Level.WARNING, "Link {0} leads to its ancestor", directory);
+            return;
+        }
+        List<Path> children = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(children);
+        for (Path child : children) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                if (attrs.isDirectory()) {
+                    walkDirectory(child, ancestors, executor, load);
+                } else if (isMessageFile(child, attrs)) {
+                    load.submit(executor, load.new FileTask(child, attrs, executor));
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+                load.fail(new LoadFailure(child.toAbsolutePath().toString(), e));
+            }
+        }
+        if (key != null) {
+            ancestors.remove(key);
+        }
+    }
+
+    /**
+     * Entries are taken from the central directory and every worker inflates its entries itself
+     */
+    private void walkZip(File archive, ZipFile zip, ThreadPoolExecutor executor, Load load) {
+        String prefix = archive.getAbsolutePath() + ARCHIVE_SEPARATOR;
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements() && !Thread.currentThread().isInterrupted()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && entry.getName().endsWith(EXTENSION)) {
+                load.submit(executor, load.new ZipEntryTask(prefix + entry.getName(), zip, entry));
+            }
+        }
+    }
+
+    /**
+     * TAR archive can only be read sequentially, so entries are read by the walking thread
+     * and only parsing is done by workers. Entries larger than {@link #MAX_TAR_ENTRY_IN_MEMORY}
+     * are copied to temporary files which are deleted when they are parsed
+     */
+    private void walkTar(File archive, ThreadPoolExecutor executor, Load load) throws IOException {
+        String prefix = archive.getAbsolutePath() + ARCHIVE_SEPARATOR;
+        InputStream in = new BufferedInputStream(new FileInputStream(archive), 64 * 1024);
+        String name = archive.getName().toLowerCase(Locale.ENGLISH);
+        if (name.endsWith(".gz") || name.endsWith(".tgz")) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        TarReader reader = new TarReader(in);
+        try {
+            TarReader.Entry entry;
+            while ((entry = reader.next()) != null && !Thread.currentThread().isInterrupted()) {
+                if (!entry.getName().endsWith(EXTENSION)) {
+                    continue;
+                }
+                String path = prefix + entry.getName();
+                if (entry.getSize() <= MAX_TAR_ENTRY_IN_MEMORY) {
+                    load.submit(executor, load.new BytesTask(path, entry.getSize(), entry.getLastModified(),
+                            reader.readEntry()));
+                    continue;
+                }
+                File temp;
+                try {
+                    temp = copyToTempFile(reader);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Could not copy " + path + " to temporary file", e);
+                    load.fail(new LoadFailure(path, e));
+                    continue;
+                }
+                load.submit(executor, load.new TempFileTask(path, entry.getSize(), entry.getLastModified(), temp));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Copies current entry of the archive to a new temporary file
+     */
+    private static File copyToTempFile(TarReader reader) throws IOException {
+        File temp = File.createTempFile("smsviewer-", EXTENSION);
+        temp.deleteOnExit();
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                reader.copyEntry(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            deleteTempFile(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    private static void deleteTempFile(File temp) {
+        if (!temp.delete()) {
+            logger.log(Level.FINE, "Could not delete {0}", temp);
+        }
+    }
+
+    /**
+     * Parses one file bypassing the cache
+     * @param file file
+     * @return messages of the file, blocks which could not be parsed are skipped
+     * @throws IOException if file could not be read
+     * @throws IllegalStateException if file does not contain any complete message
+     */
+    public List<Message> loadFile(File file) throws IOException {
+        ParsedMessages parsed = parseFile(file, new ContactTable());
+        if (parsed.getFailure() != null) {
+            logger.log(Level.WARNING, "{0}: {1}", new Object[] {file, parsed.getFailure()});
+        }
+        return parsed.getMessages();
+    }
+
+    private ParsedMessages parseFile(File file, ContactTable contacts) throws IOException {
+        ParsedMessages parsed = new ParsedMessages(contacts);
+        if (lazyBodies) {
+            ByteBufferVmessageParser.parseHeaders(file, parsed);
+        } else {
+            engine.parse(file, parsed);
+        }
+        return parsed;
+    }
+
+    static boolean isMessageFile(Path file, BasicFileAttributes attrs) {
+        return !attrs.isDirectory() && file.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    /**
+     * Returns whether the file is an archive which can be loaded like a directory
+     * @param file file
+     * @return {@code true} if file is ZIP or TAR archive
+     */
+    public static boolean isArchive(File file) {
+        return isZip(file) || isTar(file);
+    }
+
+    private static boolean isZip(File file) {
+        return file.isFile() && file.getName().toLowerCase(Locale.ENGLISH).endsWith(".zip");
+    }
+
+    private static boolean isTar(File file) {
+        String name = file.getName().toLowerCase(Locale.ENGLISH);
+        return file.isFile() && (name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz"));
+    }
+
+    private ThreadPoolExecutor createExecutor() {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUE_SIZE_PER_THREAD),
+                new WorkerThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * State of one invocation of {@link #load(File, LoadListener)}
+     */
+    private class Load {
+
+        private final Queue<LoadedFile> parsed = new ConcurrentLinkedQueue<LoadedFile>();
+        private final Queue<LoadFailure> failures = new ConcurrentLinkedQueue<LoadFailure>();
+        private final LoadListener listener;
+        private final MessageCache cache;
+        /** Contacts of messages of this load, dropped when the load is finished */
+        private final ContactTable contacts;
+        private final boolean keepMessages;
+        /** Drops messages already loaded from other files, {@code null} if duplicates are kept */
+        private final Deduplicator deduplicator;
+
+        /** Time spent by the walking thread in submitting of files, including parsing by itself */
+        private long executeNanos;
+        /** Number of submitted files, used by the walking thread only */
+        private long submitted;
+        /** Parsed files waiting for the deduplicator until files submitted before them are parsed */
+        private final Map<Long, ParsedFile> waiting = new HashMap<Long, ParsedFile>();
+        /** Sequence number of the next file passed to the deduplicator, guarded by {@link #waiting} */
+        private long nextSequence;
+
+        private Load(LoadListener listener, MessageCache cache, ContactTable contacts, boolean keepMessages,
+                     Deduplicator deduplicator) {
+            this.listener = listener;
+            this.cache = cache;
+            this.contacts = contacts;
+            this.keepMessages = keepMessages;
+            this.deduplicator = deduplicator;
+        }
+
+        private void fail(LoadFailure failure) {
+            Metrics.increment(Metrics.Counter.PARSE_FAILURES);
+            failures.add(failure);
+            listener.fileFailed(failure);
+        }
+
+        /**
+         * Records blocks of the file which could not be parsed. The file itself is reported
+         * to the listener as loaded, so it is neither counted as failed nor passed to
+         * {@link LoadListener#fileFailed(LoadFailure)}
+         */
+        private void partlyFailed(LoadFailure failure) {
+            failures.add(failure);
+        }
+
+        private void saveCache() {
+            if (cache == null) {
+                return;
+            }
+            logger.log(Level.FINE, "Cache hits: {0}, misses: {1}", new Object[] {cache.getHits(), cache.getMisses()});
+            try {
+                cache.save();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not save cache", e);
+            }
+        }
+
+        /**
+         * Deletes records of the cache which have not been saved because loading failed
+         */
+        private void discardCache() {
+            if (cache != null) {
+                cache.discard();
+            }
+        }
+
+        private LoadResult createResult() {
+            List<LoadedFile> files = new ArrayList<LoadedFile>(parsed);
+            Collections.sort(files, new Comparator<LoadedFile>() {
+                @Override
+                public int compare(LoadedFile f1, LoadedFile f2) {
+                    return f1.getPath().compareTo(f2.getPath());
+                }
+            });
+            List<LoadFailure> sortedFailures = new ArrayList<LoadFailure>(failures);
+            Collections.sort(sortedFailures, new Comparator<LoadFailure>() {
+                @Override
+                public int compare(LoadFailure f1, LoadFailure f2) {
+                    return f1.getPath().compareTo(f2.getPath());
+                }
+            });
+            return new LoadResult(files, sortedFailures, deduplicator);
+        }
+
+        /**
+         * Passes the task to workers, the file may be parsed by the calling thread
+         */
+        private void submit(ThreadPoolExecutor executor, ParseTask task) {
+            task.sequence = submitted++;
+            Metrics.increment(Metrics.Counter.FILES_SCANNED);
+            listener.fileFound(task.path, task.size);
+            long start = Metrics.start();
+            executor.execute(task);
+            // the file may be parsed by this thread, that time is not a part of walking
+            executeNanos += Metrics.start() - start;
+        }
+
+        /**
+         * Passes messages of the parsed file to the listener. With deduplicator files are filtered
+         * in order they were submitted in, so the same copy of a message is kept every time
+         * the tree is loaded: the file waits until all files submitted before it are parsed
+         * @param task parsed file
+         * @param messages messages or {@code null} if file could not be parsed
+         */
+        private void complete(ParseTask task, List<Message> messages) {
+            if (deduplicator == null) {
+                if (messages != null) {
+                    loaded(new ParsedFile(task, messages));
+                }
+                return;
+            }
+            List<ParsedFile> ready = new ArrayList<ParsedFile>();
+            synchronized (waiting) {
+                waiting.put(task.sequence, new ParsedFile(task, messages));
+                ParsedFile next;
+                while ((next = waiting.remove(nextSequence)) != null) {
+                    nextSequence++;
+                    if (next.messages != null) {
+                        int count = next.messages.size();
+                        next.messages = deduplicator.filter(next.messages);
+                        Metrics.add(Metrics.Counter.DUPLICATES, count - next.messages.size());
+                        ready.add(next);
+                    }
+                }
+            }
+            for (ParsedFile file : ready) {
+                loaded(file);
+            }
+        }
+
+        private void loaded(ParsedFile file) {
+            try {
+                if (keepMessages) {
+                    parsed.add(new LoadedFile(file.task.path, file.messages));
+                }
+                listener.fileLoaded(file.task.path, file.task.size, file.messages);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, e.getMessage(), e);
+                fail(new LoadFailure(file.task.path, e));
+            }
+        }
+
+        /**
+         * Parses one file unless its messages are cached
+         */
+        private abstract class ParseTask implements Runnable {
+
+            private final String path;
+            private final long size;
+            private final long lastModified;
+            /** Position of the file in order of submitting */
+            private long sequence;
+
+            private ParseTask(String path, long size, long lastModified) {
+                this.path = path;
+                this.size = size;
+                this.lastModified = lastModified;
+            }
+
+            protected String getPath() {
+                return path;
+            }
+
+            /**
+             * Returns the file with size and modification time it has been loaded with
+             */
+            protected SourceFile getSourceFile() {
+                return new SourceFile(path, size, lastModified);
+            }
+
+            protected abstract ParsedMessages parse() throws IOException;
+
+            @Override
+            public void run() {
+                logger.log(Level.FINE, path);
+                List<Message> messages = null;
+                try {
+                    messages = cache != null ? cache.get(path, size, lastModified) : null;
+                    if (messages == null) {
+                        ParsedMessages result = parse();
+                        messages = result.getMessages();
+                        if (result.getFailure() != null) {
+                            partlyFailed(new LoadFailure(path, result.getFailure()));
+                        }
+                        if (cache != null) {
+                            Metrics.increment(Metrics.Counter.CACHE_MISSES);
+                            cache.put(path, size, lastModified, messages);
+                        }
+                    } else {
+                        Metrics.increment(Metrics.Counter.CACHE_HITS);
+                    }
+                    Metrics.add(Metrics.Counter.MESSAGES_PARSED, messages.size());
+                } catch (IllegalStateException e) {
+                    logger.log(Level.FINE, "{0}: {1}", new Object[] {path, e.getMessage()});
+                    fail(new LoadFailure(path, e.getMessage()));
+                    messages = null;
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, e.getMessage(), e);
+                    fail(new LoadFailure(path, e));
+                    messages = null;
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, e.getMessage(), e);
+                    fail(new LoadFailure(path, e));
+                    messages = null;
+                }
+                // cache keeps all messages of the file, which of them are duplicates depends on other files
+                complete(this, messages);
+            }
+        }
+
+        private class FileTask extends ParseTask {
+
+            private final Path file;
+            private final ThreadPoolExecutor executor;
+
+            private FileTask(Path file, BasicFileAttributes attrs, ThreadPoolExecutor executor) {
+                super(file.toAbsolutePath().toString(), attrs.size(), attrs.lastModifiedTime().toMillis());
+                this.file = file;
+                this.executor = executor;
+            }
+
+            @Override
+            protected ParsedMessages parse() throws IOException {
+                if (threads > 1 && engine == ParserEngine.BYTE_BUFFER && file.toFile().length() > SPLIT_THRESHOLD) {
+                    return parseParts();
+                }
+                return parseFile(file.toFile(), contacts);
+            }
+
+            /**
+             * Splits large file at boundaries of messages and parses parts by free workers.
+             * Parts which are not taken by workers yet are parsed by this thread. Parts drop
+             * their buffers when they are parsed, so mapped windows of the file are not kept
+             * by tasks left in the queue of the pool
+             */
+            private ParsedMessages parseParts() throws IOException {
+                long start = Metrics.start();
+                List<ByteBufferVmessageParser.Window> windows = ByteBufferVmessageParser.read(file.toFile());
+                Metrics.stop(Metrics.Phase.READ, start);
+                List<PartTask> parts = new ArrayList<PartTask>();
+                for (ByteBufferVmessageParser.Window window : windows) {
+                    Metrics.add(Metrics.Counter.BYTES_READ, window.getBuffer().remaining());
+                    for (ByteBuffer part : ByteBufferVmessageParser.split(window.getBuffer(), threads)) {
+                        parts.add(new PartTask(part, window.getOffset(), lazyBodies ? getSourceFile() : null));
+                    }
+                }
+                for (int i = 1; i < parts.size(); i++) {
+                    executor.execute(parts.get(i));
+                }
+                ParsedMessages result = new ParsedMessages(contacts);
+                for (PartTask part : parts) {
+                    // does nothing if the part is already taken by a worker
+                    part.run();
+                }
+                for (PartTask part : parts) {
+                    result.addAll(part.await());
+                }
+                return result;
+            }
+        }
+
+        /**
+         * Part of large file which is parsed by whichever thread takes it first
+         */
+        private class PartTask implements Runnable {
+
+            /** Part of the file, {@code null} when it is parsed */
+            private ByteBuffer buffer;
+            /** Offset in the file of index 0 of the buffer */
+            private final long offset;
+            private final SourceFile source;
+            private final AtomicBoolean taken = new AtomicBoolean();
+            private final CountDownLatch done = new CountDownLatch(1);
+            private final ParsedMessages parsed = new ParsedMessages(contacts);
+            private RuntimeException error;
+
+            private PartTask(ByteBuffer buffer, long offset, SourceFile source) {
+                this.buffer = buffer;
+                this.offset = offset;
+                this.source = source;
+            }
+
+            @Override
+            public void run() {
+                if (!taken.compareAndSet(false, true)) {
+                    return;
+                }
+                long start = Metrics.start();
+                try {
+                    if (source != null) {
+                        ByteBufferVmessageParser.parseHeaders(buffer, offset, source, parsed);
+                    } else {
+                        ByteBufferVmessageParser.parse(buffer, parsed);
+                    }
+                } catch (RuntimeException e) {
+                    error = e;
+                } finally {
+                    // the task may stay in the queue of the pool, it must not keep the window
+                    buffer = null;
+                    Metrics.stop(Metrics.Phase.PARSE, start);
+                    done.countDown();
+                }
+            }
+
+            private ParsedMessages await() throws IOException {
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for parts of file");
+                }
+                if (error != null) {
+                    throw error;
+                }
+                return parsed;
+            }
+        }
+
+        private class ZipEntryTask extends ParseTask {
+
+            private final ZipFile zip;
+            private final ZipEntry entry;
+
+            private ZipEntryTask(String path, ZipFile zip, ZipEntry entry) {
+                super(path, entry.getSize(), entry.getTime());
+                this.zip = zip;
+                this.entry = entry;
+            }
+
+            @Override
+            protected ParsedMessages parse() throws IOException {
+                InputStream in = zip.getInputStream(entry);
+                try {
+                    ParsedMessages parsed = new ParsedMessages(contacts);
+                    if (lazyBodies) {
+                        ByteBufferVmessageParser.parseHeaders(in, entry.getSize(), getSourceFile(), parsed);
+                    } else {
+                        engine.parse(in, entry.getSize(), parsed);
+                    }
+                    return parsed;
+                } finally {
+                    in.close();
+                }
+            }
+        }
+
+        private class BytesTask extends ParseTask {
+
+            private final byte[] data;
+
+            private BytesTask(String path, long size, long lastModified, byte[] data) {
+                super(path, size, lastModified);
+                this.data = data;
+            }
+
+            @Override
+            protected ParsedMessages parse() throws IOException {
+                ParsedMessages parsed = new ParsedMessages(contacts);
+                engine.parse(new ByteArrayInputStream(data), data.length, parsed);
+                return parsed;
+            }
+        }
+
+        /**
+         * Entry of an archive copied to a temporary file. Messages keep their text, because
+         * the file is deleted when it is parsed
+         */
+        private class TempFileTask extends ParseTask {
+
+            private final File temp;
+
+            private TempFileTask(String path, long size, long lastModified, File temp) {
+                super(path, size, lastModified);
+                this.temp = temp;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    deleteTempFile(temp);
+                }
+            }
+
+            @Override
+            protected ParsedMessages parse() throws IOException {
+                ParsedMessages parsed = new ParsedMessages(contacts);
+                engine.parse(temp, parsed);
+                return parsed;
+            }
+        }
+    }
+
+    /**
+     * Messages of a parsed file waiting to be passed to the listener
+     */
+    private static class ParsedFile {
+
+        private final Load.ParseTask task;
+        private List<Message> messages;
+
+        private ParsedFile(Load.ParseTask task, List<Message> messages) {
+            this.task = task;
+            this.messages = messages;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "message-loader-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.MessageSink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects messages of one file and remembers blocks which could not be parsed
+ *
+ * @author Pavel Karpukhin
+ */
+class ParsedMessages implements MessageSink {
+
+    private final ContactTable contacts;
+    private final List<Message> messages = new ArrayList<Message>();
+    private int failures;
+    private String firstFailure;
+
+    ParsedMessages(ContactTable contacts) {
+        this.contacts = contacts;
+    }
+
+    @Override
+    public void message(Message message) {
+        messages.add(message);
+    }
+
+    @Override
+    public void failed(int index, String reason) {
+        if (failures++ == 0) {
+            firstFailure = reason;
+        }
+    }
+
+    @Override
+    public ContactTable getContacts() {
+        return contacts;
+    }
+
+    /**
+     * Appends messages and failures of the next part of the same file
+     * @param part messages of the part
+     */
+    void addAll(ParsedMessages part) {
+        messages.addAll(part.messages);
+        if (failures == 0) {
+            firstFailure = part.firstFailure;
+        }
+        failures += part.failures;
+    }
+
+    /**
+     * Returns parsed messages
+     * @return messages in order of blocks
+     * @throws IllegalStateException if file does not contain any complete message
+     */
+    List<Message> getMessages() {
+        if (messages.isEmpty()) {
+            throw new IllegalStateException(firstFailure != null ? firstFailure : "No message");
+        }
+        return messages;
+    }
+
+    /**
+     * Returns description of blocks which could not be parsed
+     * @return description or {@code null} if every block was parsed
+     */
+    String getFailure() {
+        if (failures == 0) {
+            return null;
+        }
+        return failures + " of " + (failures + messages.size()) + " messages could not be parsed: " + firstFailure;
+    }
+}
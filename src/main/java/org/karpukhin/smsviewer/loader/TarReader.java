@@ -0,0 +1,311 @@
+package org.karpukhin.smsviewer.loader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Sequential reader of TAR archives. Supports ustar names with prefix, GNU long names and
+ * "path" records of pax headers, which is enough for archives made by GNU tar, bsdtar and
+ * backup tools. Only regular files are returned, other entries are skipped.
+ *
+ * @author Pavel Karpukhin
+ */
+class TarReader implements Closeable {
+
+    private static final int BLOCK_SIZE = 512;
+    /** Largest GNU long name or pax extended header, they hold a few names and attributes */
+    static final int MAX_HEADER_DATA_SIZE = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+
+    /** Bytes of the current entry which have not been read yet, including padding */
+    private long remaining;
+    private long entrySize;
+
+    TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Moves to the next regular file of the archive skipping rest of the current one
+     * @return entry or {@code null} if there are no more entries
+     * @throws IOException if archive could not be read or is corrupted
+     */
+    Entry next() throws IOException {
+        String longName = null;
+        while (true) {
+            skip(remaining);
+            remaining = 0;
+            if (!readBlock(header)) {
+                return null;
+            }
+            if (isZeroBlock(header)) {
+                return null;
+            }
+            if (!checksumMatches(header)) {
+                throw new IOException("Corrupted TAR header");
+            }
+            long size = number(header, 124, 12);
+            if (size < 0 || size > Long.MAX_VALUE - BLOCK_SIZE) {
+                throw new IOException("Corrupted TAR header, size " + size);
+            }
+            char type = (char) header[156];
+            long padded = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+            if (type == 'L') {
+                longName = trim(readHeaderData(size, padded));
+            } else if (type == 'x') {
+                String path = paxPath(readHeaderData(size, padded));
+                if (path != null) {
+                    longName = path;
+                }
+            } else {
+                String name = longName != null ? longName : name(header);
+                if (name.startsWith("./")) {
+                    name = name.substring(2);
+                }
+                longName = null;
+                remaining = padded;
+                entrySize = size;
+                if (type == '0' || type == '\0' || type == '7') {
+                    return new Entry(name, size, number(header, 136, 12) * 1000L);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads whole content of the current entry
+     * @return content of the entry
+     * @throws IOException if archive could not be read
+     */
+    byte[] readEntry() throws IOException {
+        if (entrySize > Integer.MAX_VALUE - BLOCK_SIZE) {
+            throw new IOException("Entry is too large: " + entrySize);
+        }
+        byte[] data = readData(entrySize, remaining);
+        remaining = 0;
+        return data;
+    }
+
+    /**
+     * Copies content of the current entry, unlike {@link #readEntry()} the entry is not kept
+     * in memory. If the output fails the rest of the entry is skipped by {@link #next()}
+     * @param out output
+     * @throws IOException if archive could not be read or output could not be written
+     */
+    void copyEntry(OutputStream out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long count = entrySize;
+        while (count > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (n < 0) {
+                throw new EOFException("Unexpected end of TAR archive");
+            }
+            count -= n;
+            remaining -= n;
+            out.write(buffer, 0, n);
+        }
+        skip(remaining);
+        remaining = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads data of GNU long name or pax extended header, whose size is bounded because it is
+     * read into memory before the entry it describes
+     */
+    private byte[] readHeaderData(long size, long padded) throws IOException {
+        if (size > MAX_HEADER_DATA_SIZE) {
+            throw new IOException("TAR extended header is too large: " + size);
+        }
+        return readData(size, padded);
+    }
+
+    private byte[] readData(long size, long padded) throws IOException {
+        byte[] data = new byte[(int) size];
+        readFully(data, data.length);
+        skip(padded - size);
+        return data;
+    }
+
+    private boolean readBlock(byte[] block) throws IOException {
+        int count = 0;
+        while (count < block.length) {
+            int n = in.read(block, count, block.length - count);
+            if (n < 0) {
+                if (count == 0) {
+                    return false;
+                }
+                throw new EOFException("Unexpected end of TAR archive");
+            }
+            count += n;
+        }
+        return true;
+    }
+
+    private void readFully(byte[] data, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            int n = in.read(data, count, length - count);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of TAR archive");
+            }
+            count += n;
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long n = in.skip(count);
+            if (n <= 0) {
+                // skip of some streams returns 0 before the end, so one byte is read to tell the difference
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of TAR archive");
+                }
+                n = 1;
+            }
+            count -= n;
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean checksumMatches(byte[] block) {
+        long expected = number(block, 148, 8);
+        long sum = 0;
+        for (int i = 0; i < block.length; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : block[i] & 0xFF;
+        }
+        return sum == expected;
+    }
+
+    private static String name(byte[] block) {
+        String name = string(block, 0, 100);
+        if (block[257] == 'u' && block[258] == 's' && block[259] == 't' && block[260] == 'a' && block[261] == 'r') {
+            String prefix = string(block, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Returns value of "path" record of pax extended header, records have form "length key=value\n"
+     */
+    private static String paxPath(byte[] data) {
+        int offset = 0;
+        while (offset < data.length) {
+            int space = offset;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, offset, space - offset, UTF_8));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (space >= offset + length - 1 || offset + length > data.length) {
+                return null;
+            }
+            String record = new String(data, space + 1, offset + length - space - 2, UTF_8);
+            if (record.startsWith("path=")) {
+                return record.substring("path=".length());
+            }
+            offset += length;
+        }
+        return null;
+    }
+
+    private static String string(byte[] block, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+        return new String(block, offset, end - offset, UTF_8);
+    }
+
+    private static String trim(byte[] data) {
+        int end = data.length;
+        while (end > 0 && data[end - 1] == 0) {
+            end--;
+        }
+        return new String(data, 0, end, UTF_8);
+    }
+
+    /**
+     * Parses octal number or GNU base-256 number if the highest bit of the first byte is set
+     */
+    private static long number(byte[] block, int offset, int length) {
+        long result = 0;
+        if ((block[offset] & 0x80) != 0) {
+            result = block[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                result = (result << 8) | (block[i] & 0xFF);
+            }
+            return result;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            byte b = block[i];
+            if (b == 0 || b == ' ') {
+                if (result != 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                break;
+            }
+            result = result * 8 + (b - '0');
+        }
+        return result;
+    }
+
+    /**
+     * Regular file of TAR archive
+     */
+    static class Entry {
+
+        private final String name;
+        private final long size;
+        private final long lastModified;
+
+        private Entry(String name, long size, long lastModified) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package org.karpukhin.smsviewer.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters and timers of loading. Counters and total time of every phase are kept in atomic
+ * arrays, so updating them takes one atomic addition and timing a phase takes two calls
+ * of {@link System#nanoTime()}. Metrics are enabled unless "smsviewer.metrics" system property
+ * is "false", when disabled every method returns without doing anything.
+ * <p>
+ * Phase times are summed over all threads, e.g. time of parsing of files by four threads
+ * may be four times longer than the load itself. When files are parsed by
+ * {@link org.karpukhin.smsviewer.utils.ParserEngine#READER} reading of files is a part of parsing.
+ * Phases timed for every message, e.g. parsing of dates, are summed by {@link Timer} and added
+ * once per file.
+ *
+ * @author Pavel Karpukhin
+ */
+public class Metrics implements MetricsMBean {
+
+    private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+
+    public static final String PROPERTY = "smsviewer.metrics";
+
+    public static final String OBJECT_NAME = "org.karpukhin.smsviewer:type=Metrics";
+
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty(PROPERTY));
+
+    private static final Metrics instance = new Metrics();
+
+    private static final long NANOS_IN_MILLI = 1000000L;
+
+    public enum Counter {
+        FILES_SCANNED, BYTES_READ, MESSAGES_PARSED, PARSE_FAILURES, CACHE_HITS, CACHE_MISSES, DUPLICATES
+    }
+
+    public enum Phase {
+        /** Walking of directory tree */
+        WALK,
+        /** Reading of files */
+        READ,
+        /** Decoding of messages */
+        PARSE,
+        /** Parsing of dates, a part of decoding */
+        DATE,
+        /** Updating of conversation and search indexes */
+        INDEX,
+        /** Updating of phone tree */
+        TREE,
+        /** Start of the application till the first frame is shown */
+        STARTUP
+    }
+
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private final AtomicLongArray nanos = new AtomicLongArray(Phase.values().length);
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers metrics in platform MBean server
+     */
+    public static void register() {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(instance, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            logger.log(Level.FINE, "Metrics are already registered");
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Could not register metrics", e);
+        }
+    }
+
+    /**
+     * Increments the counter
+     * @param counter counter
+     */
+    public static void increment(Counter counter) {
+        if (ENABLED) {
+            instance.counters.incrementAndGet(counter.ordinal());
+        }
+    }
+
+    /**
+     * Adds the value to the counter
+     * @param counter counter
+     * @param value value
+     */
+    public static void add(Counter counter, long value) {
+        if (ENABLED) {
+            instance.counters.addAndGet(counter.ordinal(), value);
+        }
+    }
+
+    /**
+     * Returns start time of a phase to be passed to {@link #stop(Phase, long)}
+     * @return current time in nanoseconds or 0 if metrics are disabled
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds time since the start to the phase
+     * @param phase phase
+     * @param start value returned by {@link #start()}
+     */
+    public static void stop(Phase phase, long start) {
+        if (ENABLED) {
+            instance.nanos.addAndGet(phase.ordinal(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Time of a phase measured many times by one thread, e.g. for every message of a file. Time is
+     * summed in a field and added to the phase by {@link #flush()}, so measuring takes no atomic
+     * operations
+     */
+    public static class Timer {
+
+        private final Phase phase;
+        private long nanos;
+
+        public Timer(Phase phase) {
+            this.phase = phase;
+        }
+
+        /**
+         * Adds time since the start to the sum
+         * @param start value returned by {@link Metrics#start()}
+         */
+        public void stop(long start) {
+            if (ENABLED) {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Adds the summed time to the phase and sets the sum to zero
+         */
+        public void flush() {
+            if (nanos != 0) {
+                instance.nanos.addAndGet(phase.ordinal(), nanos);
+                nanos = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns current values of all counters and timers
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counterValues = new long[counters.length()];
+        for (int i = 0; i < counterValues.length; i++) {
+            counterValues[i] = counters.get(i);
+        }
+        long[] nanoValues = new long[nanos.length()];
+        for (int i = 0; i < nanoValues.length; i++) {
+            nanoValues[i] = nanos.get(i);
+        }
+        return new Snapshot(counterValues, nanoValues);
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    public long getMillis(Phase phase) {
+        return nanos.get(phase.ordinal()) / NANOS_IN_MILLI;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public long getFilesScanned() {
+        return get(Counter.FILES_SCANNED);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return get(Counter.BYTES_READ);
+    }
+
+    @Override
+    public long getMessagesParsed() {
+        return get(Counter.MESSAGES_PARSED);
+    }
+
+    @Override
+    public long getParseFailures() {
+        return get(Counter.PARSE_FAILURES);
+    }
+
+    @Override
+    public long getCacheHits() {
+        return get(Counter.CACHE_HITS);
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return get(Counter.CACHE_MISSES);
+    }
+
+    @Override
+    public long getDuplicates() {
+        return get(Counter.DUPLICATES);
+    }
+
+    @Override
+    public long getWalkMillis() {
+        return getMillis(Phase.WALK);
+    }
+
+    @Override
+    public long getReadMillis() {
+        return getMillis(Phase.READ);
+    }
+
+    @Override
+    public long getParseMillis() {
+        return getMillis(Phase.PARSE);
+    }
+
+    @Override
+    public long getDateMillis() {
+        return getMillis(Phase.DATE);
+    }
+
+    @Override
+    public long getIndexMillis() {
+        return getMillis(Phase.INDEX);
+    }
+
+    @Override
+    public long getTreeMillis() {
+        return getMillis(Phase.TREE);
+    }
+
+    @Override
+    public long getStartupMillis() {
+        return getMillis(Phase.STARTUP);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for (int i = 0; i < nanos.length(); i++) {
+            nanos.set(i, 0);
+        }
+    }
+
+    /**
+     * Values of counters and timers at some moment
+     */
+    public static class Snapshot {
+
+        private final long[] counters;
+        private final long[] nanos;
+
+        private Snapshot(long[] counters, long[] nanos) {
+            this.counters = counters;
+            this.nanos = nanos;
+        }
+
+        public long get(Counter counter) {
+            return counters[counter.ordinal()];
+        }
+
+        public long getMillis(Phase phase) {
+            return nanos[phase.ordinal()] / NANOS_IN_MILLI;
+        }
+
+        /**
+         * Returns changes of values since the given snapshot
+         * @param start earlier snapshot
+         * @return differences of values
+         */
+        public Snapshot since(Snapshot start) {
+            long[] counterValues = new long[counters.length];
+            for (int i = 0; i < counterValues.length; i++) {
+                counterValues[i] = counters[i] - start.counters[i];
+            }
+            long[] nanoValues = new long[nanos.length];
+            for (int i = 0; i < nanoValues.length; i++) {
+                nanoValues[i] = nanos[i] - start.nanos[i];
+            }
+            return new Snapshot(counterValues, nanoValues);
+        }
+    }
+}
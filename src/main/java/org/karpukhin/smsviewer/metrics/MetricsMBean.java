@@ -0,0 +1,45 @@
+package org.karpukhin.smsviewer.metrics;
+
+/**
+ * Management interface of {@link Metrics}. Times are totals of all threads since start
+ * of the application or the last reset
+ *
+ * @author Pavel Karpukhin
+ */
+public interface MetricsMBean {
+
+    boolean isEnabled();
+
+    long getFilesScanned();
+
+    long getBytesRead();
+
+    long getMessagesParsed();
+
+    long getParseFailures();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getDuplicates();
+
+    long getWalkMillis();
+
+    long getReadMillis();
+
+    long getParseMillis();
+
+    long getDateMillis();
+
+    long getIndexMillis();
+
+    long getTreeMillis();
+
+    long getStartupMillis();
+
+    /**
+     * Sets all counters and timers to zero
+     */
+    void reset();
+}
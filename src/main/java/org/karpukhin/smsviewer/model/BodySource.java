@@ -0,0 +1,17 @@
+package org.karpukhin.smsviewer.model;
+
+/**
+ * Reads texts of messages loaded without body. It is given to whoever shows or searches
+ * messages by the code which loaded them
+ *
+ * @author Pavel Karpukhin
+ */
+public interface BodySource {
+
+    /**
+     * Returns text of the message at the given location
+     * @param location location of the message
+     * @return text or empty string if it could not be read
+     */
+    String getText(SourceLocation location);
+}
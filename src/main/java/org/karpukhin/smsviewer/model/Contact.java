@@ -0,0 +1,59 @@
+package org.karpukhin.smsviewer.model;
+
+/**
+ * Phone number shared by all messages sent to or received from it. Numbers written
+ * in different ways which belong to the same person have the same key and label
+ *
+ * @author Pavel Karpukhin
+ */
+public class Contact {
+
+    private final int id;
+    private final String number;
+    private final long key;
+    private final String label;
+
+    Contact(int id, String number, long key, String label) {
+        this.id = id;
+        this.number = number;
+        this.key = key;
+        this.label = label;
+    }
+
+    /**
+     * Returns sequential identifier of the contact in its {@link ContactTable}
+     * @return identifier
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns phone number as it is written in messages
+     * @return phone number
+     */
+    public String getNumber() {
+        return number;
+    }
+
+    /**
+     * Returns canonical key of the number, see {@link PhoneNumberNormalizer}
+     * @return key
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Returns number which is shown for all numbers with the same key
+     * @return normalized number or the number itself if it could not be normalized
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    @Override
+    public String toString() {
+        return number;
+    }
+}
@@ -0,0 +1,73 @@
+package org.karpukhin.smsviewer.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe table of contacts. Every phone number is stored only once,
+ * all messages of the number reference the same {@link Contact}. Every number gets
+ * canonical key from {@link PhoneNumberNormalizer}, numbers which could not be
+ * normalized get keys made from their hash, so the same number has the same key in every table.
+ * Forms of a number which share its key are kept only by contacts of their messages.
+ * <p>
+ * A table is made for every load and is dropped with it, contacts are referenced only by
+ * their messages, so contacts of messages which are no longer shown are not kept.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ContactTable {
+
+    private final ConcurrentMap<String, Contact> contacts = new ConcurrentHashMap<String, Contact>();
+    private final PhoneNumberNormalizer normalizer;
+    private int sequence;
+
+    /**
+     * Creates table which normalizes numbers by {@link PhoneNumberNormalizer#getDefault()}
+     */
+    public ContactTable() {
+        this(PhoneNumberNormalizer.getDefault());
+    }
+
+    public ContactTable(PhoneNumberNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * Returns contact with the given phone number creating it if necessary
+     * @param number phone number
+     * @return contact
+     */
+    public Contact intern(String number) {
+        Contact contact = contacts.get(number);
+        if (contact == null) {
+            contact = create(number);
+        }
+        return contact;
+    }
+
+    private synchronized Contact create(String number) {
+        Contact contact = contacts.get(number);
+        if (contact != null) {
+            return contact;
+        }
+        long key = normalizer.normalize(number);
+        String label;
+        if (key == PhoneNumberNormalizer.UNKNOWN) {
+            key = PhoneNumberNormalizer.getUnknownKey(number);
+            label = number;
+        } else {
+            label = PhoneNumberNormalizer.format(key);
+        }
+        contact = new Contact(sequence++, number, key, label);
+        contacts.put(number, contact);
+        return contact;
+    }
+
+    /**
+     * Returns number of contacts in the table
+     * @return number of contacts
+     */
+    public int size() {
+        return contacts.size();
+    }
+}
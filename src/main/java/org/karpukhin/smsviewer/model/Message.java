@@ -3,54 +3,209 @@ package org.karpukhin.smsviewer.model;
 import java.util.Date;
 
 /**
+ * Immutable message. Date is kept as number of milliseconds since epoch, direction as a flag
+ * and phone number as a reference to the {@link Contact} shared by all its messages.
+ * Instances are created with {@link Builder}.
+ * <p>
+ * Text of a message loaded without body is not kept in memory. It is read from the
+ * {@link SourceLocation} of the message through the {@link BodySource} given by whoever
+ * shows or searches the message.
+ *
  * @author Pavel Karpukhin
  */
 public class Message {
 
-    private Date date;
-    private String number;
-    private String text;
-    private boolean inbox;
+    /** Flag of message received by the phone */
+    public static final int INBOX = 1;
 
-    public Message() {
+    private final long timestamp;
+    private final Contact contact;
+    private final String text;
+    private final SourceLocation source;
+    private final int flags;
+
+    public Message(long timestamp, Contact contact, String text, int flags) {
+        this(timestamp, contact, text, null, flags);
     }
 
-    public Message(Date date, String number, String text, boolean inbox) {
-        this.date = date;
-        this.number = number;
+    /**
+     * @param timestamp date as number of milliseconds since epoch
+     * @param contact phone number
+     * @param text text or {@code null} if it is read from the source when requested
+     * @param source location of the message in its file or {@code null}
+     * @param flags flags
+     */
+    public Message(long timestamp, Contact contact, String text, SourceLocation source, int flags) {
+        this.timestamp = timestamp;
+        this.contact = contact;
         this.text = text;
-        this.inbox = inbox;
+        this.source = source;
+        this.flags = flags;
     }
 
+    /**
+     * Returns new date equal to the date of the message
+     * @return date
+     */
     public Date getDate() {
-        return date;
+        return new Date(timestamp);
     }
 
-    public void setDate(Date date) {
-        this.date = date;
+    /**
+     * Returns date of the message as number of milliseconds since epoch
+     * @return timestamp
+     */
+    public long getTimestamp() {
+        return timestamp;
     }
 
-    public String getNumber() {
-        return number;
+    public Contact getContact() {
+        return contact;
     }
 
-    public void setNumber(String number) {
-        this.number = number;
+    public String getNumber() {
+        return contact.getNumber();
     }
 
+    /**
+     * Returns text of the message kept in memory
+     * @return text or {@code null} if the message was loaded without body
+     */
     public String getText() {
         return text;
     }
 
-    public void setText(String text) {
-        this.text = text;
+    /**
+     * Returns text of the message reading it from the source if it is not kept in memory
+     * @param bodies reader of texts of messages loaded without body or {@code null}
+     * @return text or {@code null} if it is not kept and there is no reader
+     */
+    public String getText(BodySource bodies) {
+        if (text == null && source != null && bodies != null) {
+            return bodies.getText(source);
+        }
+        return text;
+    }
+
+    /**
+     * Returns location of the message in its file
+     * @return location or {@code null} if it is not known
+     */
+    public SourceLocation getSource() {
+        return source;
+    }
+
+    /**
+     * Returns whether text of the message is kept in memory
+     * @return {@code false} if text is read from the source when requested
+     */
+    public boolean hasText() {
+        return text != null || source == null;
+    }
+
+    public int getFlags() {
+        return flags;
     }
 
     public boolean getInbox() {
-        return inbox;
+        return (flags & INBOX) != 0;
     }
 
-    public void setInbox(boolean inbox) {
-        this.inbox = inbox;
+    /**
+     * Builder of messages. Phone numbers are interned in the given contact table
+     */
+    public static class Builder {
+
+        private final ContactTable contacts;
+
+        private long timestamp;
+        private boolean hasDate;
+        private String number;
+        private StringBuilder text;
+        private SourceLocation source;
+        private int flags;
+
+        public Builder(ContactTable contacts) {
+            this.contacts = contacts;
+        }
+
+        public Builder setDate(Date date) {
+            hasDate = date != null;
+            timestamp = hasDate ? date.getTime() : 0L;
+            return this;
+        }
+
+        public Builder setTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+            this.hasDate = true;
+            return this;
+        }
+
+        public boolean hasDate() {
+            return hasDate;
+        }
+
+        public Builder setNumber(String number) {
+            this.number = number;
+            return this;
+        }
+
+        public String getNumber() {
+            return number;
+        }
+
+        public Builder setText(String text) {
+            this.text = text != null ? new StringBuilder(text) : null;
+            return this;
+        }
+
+        /**
+         * Appends line to the text of the message without line separator
+         * @param line line of text
+         * @return this builder
+         */
+        public Builder appendText(CharSequence line) {
+            if (text == null) {
+                text = new StringBuilder(line);
+            } else {
+                text.append(line);
+            }
+            return this;
+        }
+
+        public Builder setInbox(boolean inbox) {
+            flags = inbox ? flags | INBOX : flags & ~INBOX;
+            return this;
+        }
+
+        public Builder setFlags(int flags) {
+            this.flags = flags;
+            return this;
+        }
+
+        /**
+         * Sets location of the message, message without text reads it from there
+         * @param source location
+         * @return this builder
+         */
+        public Builder setSource(SourceLocation source) {
+            this.source = source;
+            return this;
+        }
+
+        /**
+         * Creates message
+         * @return message
+         * @throws IllegalStateException if phone number or date is not set
+         */
+        public Message build() {
+            if (number == null) {
+                throw new IllegalStateException("Phone number is missing");
+            }
+            if (!hasDate) {
+                throw new IllegalStateException("Date is missing");
+            }
+            return new Message(timestamp, contacts.intern(number), text != null ? text.toString() : null, source, flags);
+        }
     }
 }
@@ -0,0 +1,158 @@
+package org.karpukhin.smsviewer.model;
+
+/**
+ * Turns phone numbers written in different ways into canonical numeric keys, so "+7 916 123-45-67",
+ * "89161234567" and "9161234567" get the same key. International numbers are keyed by their digits
+ * with country code, national numbers of the configured length with or without trunk prefix get
+ * the configured country code. Other numbers, e.g. short service numbers, keep their digits and
+ * get negative keys. Numbers with letters can not be normalized.
+ * <p>
+ * Country code, trunk prefix and length of national numbers are taken from system properties
+ * "smsviewer.country.code", "smsviewer.trunk.prefix" and "smsviewer.national.length",
+ * by default they are "7", "8" and 10.
+ *
+ * @author Pavel Karpukhin
+ */
+public class PhoneNumberNormalizer {
+
+    public static final String COUNTRY_CODE_PROPERTY = "smsviewer.country.code";
+    public static final String TRUNK_PREFIX_PROPERTY = "smsviewer.trunk.prefix";
+    public static final String NATIONAL_LENGTH_PROPERTY = "smsviewer.national.length";
+
+    /** Key of numbers which could not be normalized */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    private static final int MAX_INTERNATIONAL_LENGTH = 15;
+    private static final int MAX_LOCAL_LENGTH = 17;
+    /** Local keys keep number of digits in 5 lower bits, so leading zeros are not lost */
+    private static final int LENGTH_BITS = 5;
+    private static final long MIN_LOCAL_KEY = -1 - ((99999999999999999L << LENGTH_BITS) | 31);
+    /** Keys of numbers which could not be normalized are below local keys, they keep 61 bits of hash */
+    private static final int UNKNOWN_HASH_SHIFT = 3;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String countryCode;
+    private final String trunkPrefix;
+    private final int nationalLength;
+
+    public PhoneNumberNormalizer(String countryCode, String trunkPrefix, int nationalLength) {
+        this.countryCode = countryCode;
+        this.trunkPrefix = trunkPrefix;
+        this.nationalLength = nationalLength;
+    }
+
+    /**
+     * Returns normalizer configured with system properties
+     * @return normalizer
+     */
+    public static PhoneNumberNormalizer getDefault() {
+        return new PhoneNumberNormalizer(System.getProperty(COUNTRY_CODE_PROPERTY, "7"),
+                System.getProperty(TRUNK_PREFIX_PROPERTY, "8"),
+                Integer.getInteger(NATIONAL_LENGTH_PROPERTY, 10));
+    }
+
+    /**
+     * Returns canonical key of the phone number
+     * @param number phone number as it is written in message
+     * @return key or {@link #UNKNOWN} if number has letters, has no digits or is too long
+     */
+    public long normalize(String number) {
+        if (number == null) {
+            return UNKNOWN;
+        }
+        StringBuilder digits = new StringBuilder(number.length());
+        boolean plus = false;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            } else if (c == '+' && digits.length() == 0 && !plus) {
+                plus = true;
+            } else if (c != ' ' && c != '-' && c != '(' && c != ')' && c != '.' && c != '/') {
+                return UNKNOWN;
+            }
+        }
+        int length = digits.length();
+        if (length == 0) {
+            return UNKNOWN;
+        }
+        String international = null;
+        if (plus) {
+            international = digits.toString();
+        } else if (length > 2 && digits.charAt(0) == '0' && digits.charAt(1) == '0') {
+            international = digits.substring(2);
+        } else if (length == trunkPrefix.length() + nationalLength && startsWith(digits, trunkPrefix)) {
+            international = countryCode + digits.substring(trunkPrefix.length());
+        } else if (length == countryCode.length() + nationalLength && startsWith(digits, countryCode)) {
+            international = digits.toString();
+        } else if (length == nationalLength) {
+            international = countryCode + digits;
+        }
+        if (international != null && international.length() <= MAX_INTERNATIONAL_LENGTH
+                && international.charAt(0) != '0') {
+            return Long.parseLong(international);
+        }
+        if (length > MAX_LOCAL_LENGTH) {
+            return UNKNOWN;
+        }
+        return -1 - ((Long.parseLong(digits.toString()) << LENGTH_BITS) | length);
+    }
+
+    /**
+     * Returns key of a number which could not be normalized. Key is made from 64-bit FNV-1a
+     * hash of the number, so it does not depend on other numbers and is never numeric
+     * @param number phone number
+     * @return key between {@link #UNKNOWN} and keys of local numbers
+     */
+    public static long getUnknownKey(String number) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < number.length(); i++) {
+            hash = (hash ^ number.charAt(i)) * FNV_PRIME;
+        }
+        return UNKNOWN + 1 + (hash >>> UNKNOWN_HASH_SHIFT);
+    }
+
+    /**
+     * Returns whether the key was made by {@link #normalize(String)}
+     * @param key key
+     * @return {@code true} if key is a normalized number
+     */
+    public static boolean isNumeric(long key) {
+        return key >= MIN_LOCAL_KEY;
+    }
+
+    /**
+     * Formats normalized number, international numbers start with "+"
+     * @param key key made by {@link #normalize(String)}
+     * @return number
+     */
+    public static String format(long key) {
+        if (!isNumeric(key)) {
+            throw new IllegalArgumentException("Key is not a number: " + key);
+        }
+        if (key >= 0) {
+            return "+" + key;
+        }
+        long value = -1 - key;
+        int length = (int) (value & ((1 << LENGTH_BITS) - 1));
+        String digits = Long.toString(value >>> LENGTH_BITS);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = digits.length(); i < length; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    private static boolean startsWith(CharSequence digits, String prefix) {
+        if (prefix.isEmpty() || digits.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (digits.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
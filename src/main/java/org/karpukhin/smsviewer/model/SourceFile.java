@@ -0,0 +1,64 @@
+package org.karpukhin.smsviewer.model;
+
+/**
+ * File or archive entry messages were loaded from, with its size and modification time at that
+ * moment. Shared by locations of all messages of the file, so text is not read from a file
+ * which has been changed since it was loaded
+ *
+ * @author Pavel Karpukhin
+ */
+public class SourceFile {
+
+    /** Size of a file which is not checked */
+    public static final long UNKNOWN_SIZE = -1;
+
+    private final String path;
+    private final long size;
+    private final long lastModified;
+
+    /**
+     * Creates file which is not checked when text is read
+     * @param path path of the file or of the archive entry
+     */
+    public SourceFile(String path) {
+        this(path, UNKNOWN_SIZE, 0L);
+    }
+
+    /**
+     * @param path path of the file or of the archive entry
+     * @param size size in bytes or {@link #UNKNOWN_SIZE}
+     * @param lastModified modification time in milliseconds
+     */
+    public SourceFile(String path, long size, long lastModified) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns whether the file has the given size and modification time
+     * @param size current size
+     * @param lastModified current modification time
+     * @return {@code true} if the file has not been changed or its size is not known
+     */
+    public boolean isCurrent(long size, long lastModified) {
+        return this.size == UNKNOWN_SIZE || this.size == size && this.lastModified == lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
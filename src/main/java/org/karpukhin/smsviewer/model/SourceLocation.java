@@ -0,0 +1,84 @@
+package org.karpukhin.smsviewer.model;
+
+/**
+ * Location of "VMSG" block of a message in its file, used to read text of the message
+ * again when it is not kept in memory. Locations of messages of one file share their
+ * {@link SourceFile}
+ *
+ * @author Pavel Karpukhin
+ */
+public class SourceLocation {
+
+    private final SourceFile file;
+    private final long offset;
+    private final int length;
+    private final long textHash;
+
+    /**
+     * @param path path of the file or of the archive entry
+     * @param offset offset of the block in bytes
+     * @param length length of the block in bytes
+     */
+    public SourceLocation(String path, long offset, int length) {
+        this(new SourceFile(path), offset, length, 0L);
+    }
+
+    /**
+     * @param file file or archive entry
+     * @param offset offset of the block in bytes
+     * @param length length of the block in bytes
+     * @param textHash hash of the text of the message, so messages can be compared without reading it
+     */
+    public SourceLocation(SourceFile file, long offset, int length, long textHash) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.textHash = textHash;
+    }
+
+    public SourceFile getFile() {
+        return file;
+    }
+
+    public String getPath() {
+        return file.getPath();
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns hash of the text computed when the message was parsed
+     * @return hash of the text, see {@link org.karpukhin.smsviewer.utils.ByteBufferVmessageParser#hashText}
+     */
+    public long getTextHash() {
+        return textHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SourceLocation)) {
+            return false;
+        }
+        SourceLocation that = (SourceLocation) o;
+        return offset == that.offset && length == that.length && getPath().equals(that.getPath());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * getPath().hashCode() + (int) (offset ^ (offset >>> 32))) + length;
+    }
+
+    @Override
+    public String toString() {
+        return getPath() + "@" + offset + "+" + length;
+    }
+}
@@ -0,0 +1,31 @@
+package org.karpukhin.smsviewer.search;
+
+import org.karpukhin.smsviewer.model.Message;
+
+/**
+ * Message found by {@link SearchIndex}
+ *
+ * @author Pavel Karpukhin
+ */
+public class SearchHit {
+
+    private final Message message;
+    private final int score;
+
+    public SearchHit(Message message, int score) {
+        this.message = message;
+        this.score = score;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns relevance of the hit, greater is better
+     * @return score
+     */
+    public int getScore() {
+        return score;
+    }
+}
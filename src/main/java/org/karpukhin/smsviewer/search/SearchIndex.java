@@ -0,0 +1,297 @@
+package org.karpukhin.smsviewer.search;
+
+import org.karpukhin.smsviewer.model.BodySource;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory inverted index of message texts. Every message gets an id and every trigram
+ * (three consecutive characters in lower case) of its text has a posting list of ids of
+ * messages containing it. Query text of three or more characters is looked up by
+ * intersecting posting lists of its trigrams, then candidates are checked against the
+ * text itself, so substrings and prefixes of words are found. Shorter queries are checked
+ * against every message.
+ * <p>
+ * Messages are added and removed per file. Ids of removed messages are left in posting lists
+ * and skipped when found, the index is rebuilt when most of the ids are removed. Texts of
+ * messages loaded without body are read through the given {@link BodySource}.
+ * Instances are not thread safe
+ *
+ * @author Pavel Karpukhin
+ */
+public class SearchIndex {
+
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    private static final Comparator<SearchHit> BY_SCORE_AND_DATE = new Comparator<SearchHit>() {
+        @Override
+        public int compare(SearchHit h1, SearchHit h2) {
+            if (h1.getScore() != h2.getScore()) {
+                return h1.getScore() > h2.getScore() ? -1 : 1;
+            }
+            return Long.compare(h2.getMessage().getTimestamp(), h1.getMessage().getTimestamp());
+        }
+    };
+
+    private final BodySource bodies;
+    private final Map<String, Range> files = new LinkedHashMap<String, Range>();
+    private List<Message> messages = new ArrayList<Message>();
+    private Map<Long, Postings> postings = new HashMap<Long, Postings>();
+    private int removedCount;
+
+    public SearchIndex() {
+        this(null);
+    }
+
+    /**
+     * @param bodies reader of texts of messages loaded without body or {@code null}
+     */
+    public SearchIndex(BodySource bodies) {
+        this.bodies = bodies;
+    }
+
+    /**
+     * Adds messages of the file replacing messages which were added for it before
+     * @param path path of the file
+     * @param fileMessages messages of the file
+     */
+    public void put(String path, List<Message> fileMessages) {
+        remove(path);
+        Range range = new Range(messages.size(), messages.size() + fileMessages.size());
+        for (Message message : fileMessages) {
+            addText(messages.size(), message.getText(bodies));
+            messages.add(message);
+        }
+        files.put(path, range);
+    }
+
+    /**
+     * Removes messages of the file
+     * @param path path of the file
+     */
+    public void remove(String path) {
+        Range range = files.remove(path);
+        if (range == null) {
+            return;
+        }
+        for (int id = range.from; id < range.to; id++) {
+            messages.set(id, null);
+        }
+        removedCount += range.to - range.from;
+        if (removedCount >= MIN_COMPACT_SIZE && removedCount > messages.size() / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Removes all messages
+     */
+    public void clear() {
+        files.clear();
+        messages = new ArrayList<Message>();
+        postings = new HashMap<Long, Postings>();
+        removedCount = 0;
+    }
+
+    /**
+     * Returns number of indexed messages
+     * @return number of messages
+     */
+    public int size() {
+        return messages.size() - removedCount;
+    }
+
+    /**
+     * Finds messages matching the query. Hits where the text starts a word or is a whole
+     * word go first, hits with equal score are ordered from the newest message
+     * @param query query
+     * @return hits, not more than limit of the query
+     */
+    public List<SearchHit> search(SearchQuery query) {
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String text = query.getText();
+        List<SearchHit> hits = new ArrayList<SearchHit>();
+        if (text.length() >= 3) {
+            int[] candidates = findCandidates(text);
+            for (int id : candidates) {
+                addHit(hits, messages.get(id), query);
+            }
+        } else {
+            for (Message message : messages) {
+                addHit(hits, message, query);
+            }
+        }
+        Collections.sort(hits, BY_SCORE_AND_DATE);
+        return hits.size() > query.getLimit() ? new ArrayList<SearchHit>(hits.subList(0, query.getLimit())) : hits;
+    }
+
+    private void addHit(List<SearchHit> hits, Message message, SearchQuery query) {
+        if (message == null || message.getTimestamp() < query.getFrom() || message.getTimestamp() >= query.getTo()) {
+            return;
+        }
+        if (query.getNumber() != null && !message.getNumber().contains(query.getNumber())
+                && !message.getContact().getLabel().contains(query.getNumber())) {
+            return;
+        }
+        int score = score(message.getText(bodies), query.getText());
+        if (score >= 0) {
+            hits.add(new SearchHit(message, score));
+        }
+    }
+
+    /**
+     * Returns ids of messages containing every trigram of the text
+     */
+    private int[] findCandidates(String text) {
+        Postings[] lists = new Postings[text.length() - 2];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(trigram(text, i));
+            if (lists[i] == null) {
+                return new int[0];
+            }
+        }
+        Arrays.sort(lists, new Comparator<Postings>() {
+            @Override
+            public int compare(Postings p1, Postings p2) {
+                return Integer.compare(p1.size, p2.size);
+            }
+        });
+        int[] result = Arrays.copyOf(lists[0].ids, lists[0].size);
+        int size = result.length;
+        for (int i = 1; i < lists.length && size > 0; i++) {
+            size = intersect(result, size, lists[i]);
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Keeps in the first array ids which are in the posting list, both are sorted
+     * @return number of kept ids
+     */
+    private static int intersect(int[] ids, int size, Postings list) {
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < size && j < list.size; i++) {
+            while (j < list.size && list.ids[j] < ids[i]) {
+                j++;
+            }
+            if (j < list.size && list.ids[j] == ids[i]) {
+                ids[count++] = ids[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns score of the text for the query or -1 if text does not contain the query
+     */
+    static int score(String text, String query) {
+        if (query.isEmpty()) {
+            return 0;
+        }
+        if (text == null) {
+            return -1;
+        }
+        int best = -1;
+        for (int i = 0; i <= text.length() - query.length(); i++) {
+            if (text.regionMatches(true, i, query, 0, query.length())) {
+                int end = i + query.length();
+                int score = 0;
+                if (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1))) {
+                    score += 2;
+                }
+                if (end == text.length() || !Character.isLetterOrDigit(text.charAt(end))) {
+                    score += 1;
+                }
+                best = Math.max(best, score);
+                if (best == 3) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void addText(int id, String text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            Long key = trigram(text, i);
+            Postings list = postings.get(key);
+            if (list == null) {
+                list = new Postings();
+                postings.put(key, list);
+            }
+            list.add(id);
+        }
+    }
+
+    private static long trigram(String text, int offset) {
+        return ((long) Character.toLowerCase(text.charAt(offset)) << 32)
+                | ((long) Character.toLowerCase(text.charAt(offset + 1)) << 16)
+                | Character.toLowerCase(text.charAt(offset + 2));
+    }
+
+    /**
+     * Rebuilds the index without removed messages
+     */
+    private void compact() {
+        List<Message> oldMessages = messages;
+        messages = new ArrayList<Message>(oldMessages.size() - removedCount);
+        postings = new HashMap<Long, Postings>();
+        removedCount = 0;
+        for (Map.Entry<String, Range> entry : files.entrySet()) {
+            Range range = entry.getValue();
+            Range newRange = new Range(messages.size(), messages.size() + range.to - range.from);
+            for (int id = range.from; id < range.to; id++) {
+                addText(messages.size(), oldMessages.get(id).getText(bodies));
+                messages.add(oldMessages.get(id));
+            }
+            entry.setValue(newRange);
+        }
+    }
+
+    /**
+     * Ids of messages of one file
+     */
+    private static class Range {
+
+        private final int from;
+        private final int to;
+
+        private Range(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Growing sorted array of ids
+     */
+    private static class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.karpukhin.smsviewer.search;
+
+import org.karpukhin.smsviewer.utils.DateCodec;
+
+import java.text.ParseException;
+
+/**
+ * Query of {@link SearchIndex}: text which messages must contain and optional filters
+ * by phone number and date range
+ *
+ * @author Pavel Karpukhin
+ */
+public class SearchQuery {
+
+    public static final String DATE_FORMAT = "dd.MM.yyyy";
+
+    public static final int DEFAULT_LIMIT = 1000;
+
+    private static final String NUMBER_PREFIX = "number:";
+    private static final String FROM_PREFIX = "from:";
+    private static final String TO_PREFIX = "to:";
+    private static final long MILLIS_IN_DAY = 24 * 60 * 60 * 1000L;
+
+    private final String text;
+    private final String number;
+    private final long from;
+    private final long to;
+    private final int limit;
+
+    /**
+     * Creates query
+     * @param text text to find, case is ignored
+     * @param number part of phone number or {@code null} to search all numbers
+     * @param from minimal date of messages, inclusive
+     * @param to maximal date of messages, exclusive
+     * @param limit maximal number of hits
+     */
+    public SearchQuery(String text, String number, long from, long to, int limit) {
+        this.text = text;
+        this.number = number;
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+    }
+
+    /**
+     * Parses query typed by user. Words "number:&lt;digits&gt;", "from:dd.MM.yyyy" and "to:dd.MM.yyyy"
+     * are filters, the rest is text to find. Date range includes both days
+     * @param str query
+     * @return query
+     * @throws ParseException if date of filter could not be parsed
+     */
+    public static SearchQuery parse(String str) throws ParseException {
+        StringBuilder text = new StringBuilder();
+        String number = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        for (String word : str.trim().split("\\s+")) {
+            if (word.startsWith(NUMBER_PREFIX) && word.length() > NUMBER_PREFIX.length()) {
+                number = word.substring(NUMBER_PREFIX.length());
+            } else if (word.startsWith(FROM_PREFIX) && word.length() > FROM_PREFIX.length()) {
+                from = DateCodec.forPattern(DATE_FORMAT).parse(word.substring(FROM_PREFIX.length()));
+            } else if (word.startsWith(TO_PREFIX) && word.length() > TO_PREFIX.length()) {
+                to = DateCodec.forPattern(DATE_FORMAT).parse(word.substring(TO_PREFIX.length())) + MILLIS_IN_DAY;
+            } else if (!word.isEmpty()) {
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(word);
+            }
+        }
+        return new SearchQuery(text.toString(), number, from, to, DEFAULT_LIMIT);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns whether query has neither text nor filters
+     * @return {@code true} if query is empty
+     */
+    public boolean isEmpty() {
+        return text.isEmpty() && number == null && from == Long.MIN_VALUE && to == Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,430 @@
+package org.karpukhin.smsviewer.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.karpukhin.smsviewer.export.ExportFormat;
+import org.karpukhin.smsviewer.index.Conversation;
+import org.karpukhin.smsviewer.index.MessageStore;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.DateCodec;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local HTTP server which gives read only access to messages of {@link MessageStore} as JSON:
+ * <pre>
+ * GET /api/contacts
+ * GET /api/conversations/&lt;number&gt;[?cursor=&lt;cursor&gt;][&amp;limit=&lt;number&gt;]
+ * </pre>
+ * Every request is served from the snapshot current at the moment it came, so the store may be
+ * loaded or updated while the server works. Random id of the server and version of the snapshot
+ * are sent as ETag, request with the same ETag in If-None-Match gets "304 Not Modified" until
+ * the store is changed. The id keeps ETags of another process or server from matching.
+ * <p>
+ * Conversation is returned by pages ordered by date. Cursor of the next page is the date of
+ * the last returned message and number of returned messages with that date, so it stays valid
+ * when messages are added to the conversation or removed from it between requests. Responses
+ * are written in chunks while they are formatted and are never kept in memory as a whole.
+ * <p>
+ * Server listens on the loopback address only.
+ *
+ * @author Pavel Karpukhin
+ */
+public class BrowseServer implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(BrowseServer.class.getName());
+
+    public static final String CONTACTS_PATH = "/api/contacts";
+    public static final String CONVERSATIONS_PATH = "/api/conversations/";
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private static final String JSON_TYPE = "application/json; charset=UTF-8";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int STOP_DELAY = 1;
+
+    private final MessageStore store;
+    /** Prefix of ETags which is unique for the server */
+    private final String id = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Creates server on the loopback address
+     * @param store store of messages
+     * @param port port or 0 to choose any free port
+     * @param threads number of threads serving requests
+     * @throws IOException if the port can not be bound
+     */
+    public BrowseServer(MessageStore store, int port, int threads) throws IOException {
+        this.store = store;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(threads, new ServerThreadFactory());
+        server.setExecutor(executor);
+        server.createContext(CONTACTS_PATH, new ContactsHandler());
+        server.createContext(CONVERSATIONS_PATH, new ConversationHandler());
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Browse server started at " + server.getAddress());
+    }
+
+    /**
+     * Returns address the server listens on
+     * @return address
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops the server waiting a second for requests in progress
+     */
+    @Override
+    public void close() {
+        server.stop(STOP_DELAY);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(STOP_DELAY, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Base of handlers: checks method and ETag of the current snapshot and reports errors
+     */
+    private abstract class JsonHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                    sendError(exchange, 405, "Method " + method + " is not allowed");
+                    return;
+                }
+                MessageStore.Snapshot snapshot = store.getSnapshot();
+                String etag = "\"" + id + "-" + snapshot.getVersion() + "\"";
+                Headers headers = exchange.getResponseHeaders();
+                headers.set("ETag", etag);
+                headers.set("Cache-Control", "no-cache");
+                if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                handle(exchange, snapshot, "HEAD".equals(method));
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Request " + exchange.getRequestURI() + " failed", e);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Request " + exchange.getRequestURI() + " failed", e);
+                sendError(exchange, 500, "Internal error");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Writes response for the snapshot
+         * @param exchange request
+         * @param snapshot current snapshot of the store
+         * @param head whether only headers should be sent
+         * @throws IOException if response can not be written
+         */
+        abstract void handle(HttpExchange exchange, MessageStore.Snapshot snapshot, boolean head) throws IOException;
+    }
+
+    /**
+     * Returns numbers of all contacts with number of messages and dates of the first and last one
+     */
+    private class ContactsHandler extends JsonHandler {
+
+        @Override
+        void handle(HttpExchange exchange, MessageStore.Snapshot snapshot, boolean head) throws IOException {
+            if (!CONTACTS_PATH.equals(exchange.getRequestURI().getPath())) {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+            Writer writer = startResponse(exchange, head);
+            if (writer == null) {
+                return;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"version\":").append(snapshot.getVersion()).append(",\"contacts\":[");
+            boolean first = true;
+            for (Conversation conversation : snapshot.getIndex().getConversations()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append("{\"number\":");
+                ExportFormat.appendJson(sb, conversation.getNumber());
+                sb.append(",\"messages\":").append(conversation.size())
+                        .append(",\"first\":");
+                ExportFormat.appendJson(sb, formatDate(conversation.get(0).getTimestamp()));
+                sb.append(",\"last\":");
+                ExportFormat.appendJson(sb, formatDate(conversation.get(conversation.size() - 1).getTimestamp()));
+                sb.append('}');
+                if (sb.length() >= BUFFER_SIZE) {
+                    writer.write(sb.toString());
+                    sb.setLength(0);
+                }
+            }
+            sb.append("]}");
+            writer.write(sb.toString());
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns page of messages of one number
+     */
+    private class ConversationHandler extends JsonHandler {
+
+        @Override
+        void handle(HttpExchange exchange, MessageStore.Snapshot snapshot, boolean head) throws IOException {
+            String number = exchange.getRequestURI().getPath().substring(CONVERSATIONS_PATH.length());
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            int limit = parseLimit(parameters.get("limit"));
+            Cursor cursor = Cursor.parse(parameters.get("cursor"));
+            int position = snapshot.getIndex().indexOf(number);
+            if (number.isEmpty() || position < 0) {
+                sendError(exchange, 404, "Unknown number " + number);
+                return;
+            }
+            Conversation conversation = snapshot.getIndex().getConversations().get(position);
+            int from = cursor != null ? cursor.positionIn(conversation) : 0;
+            int to = (int) Math.min(conversation.size(), (long) from + limit);
+
+            Writer writer = startResponse(exchange, head);
+            if (writer == null) {
+                return;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"version\":").append(snapshot.getVersion()).append(",\"number\":");
+            ExportFormat.appendJson(sb, number);
+            sb.append(",\"total\":").append(conversation.size()).append(",\"messages\":[");
+            for (int i = from; i < to; i++) {
+                Message message = conversation.get(i);
+                if (i > from) {
+                    sb.append(',');
+                }
+                sb.append("{\"date\":");
+                ExportFormat.appendJson(sb, formatDate(message.getTimestamp()));
+                sb.append(",\"timestamp\":").append(message.getTimestamp())
+                        .append(",\"direction\":\"").append(message.getInbox() ? "in" : "out")
+                        .append("\",\"text\":");
+                ExportFormat.appendJson(sb, message.getText(store.getBodySource()));
+                sb.append('}');
+                if (sb.length() >= BUFFER_SIZE) {
+                    writer.write(sb.toString());
+                    sb.setLength(0);
+                }
+            }
+            sb.append("],\"next\":");
+            ExportFormat.appendJson(sb, to < conversation.size() ? Cursor.after(conversation, to).toString() : null);
+            sb.append('}');
+            writer.write(sb.toString());
+            writer.close();
+        }
+    }
+
+    /**
+     * Position in a conversation: date of the last returned message and number of returned
+     * messages with that date
+     */
+    static class Cursor {
+
+        private final long timestamp;
+        private final int skip;
+
+        Cursor(long timestamp, int skip) {
+            this.timestamp = timestamp;
+            this.skip = skip;
+        }
+
+        /**
+         * Parses cursor written by {@link #toString()}
+         * @param value cursor or {@code null}
+         * @return cursor or {@code null} if value is {@code null}
+         * @throws IllegalArgumentException if value is not a cursor
+         */
+        static Cursor parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            int dot = value.lastIndexOf('.');
+            try {
+                Cursor cursor = new Cursor(Long.parseLong(value.substring(0, Math.max(dot, 0))),
+                        Integer.parseInt(value.substring(dot + 1)));
+                if (cursor.skip < 1) {
+                    throw new IllegalArgumentException("Wrong cursor " + value);
+                }
+                return cursor;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Wrong cursor " + value);
+            }
+        }
+
+        /**
+         * Returns cursor of messages before the given position
+         * @param conversation messages ordered by date
+         * @param position position of the first message of the next page, greater than 0
+         * @return cursor
+         */
+        static Cursor after(List<Message> conversation, int position) {
+            long timestamp = conversation.get(position - 1).getTimestamp();
+            return new Cursor(timestamp, position - lowerBound(conversation, timestamp));
+        }
+
+        /**
+         * Returns position of the first message after the cursor
+         * @param conversation messages ordered by date
+         * @return position
+         */
+        int positionIn(List<Message> conversation) {
+            int from = lowerBound(conversation, timestamp);
+            int to = lowerBound(conversation, timestamp + 1);
+            return (int) Math.min(to, (long) from + skip);
+        }
+
+        private static int lowerBound(List<Message> conversation, long timestamp) {
+            int low = 0;
+            int high = conversation.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (conversation.get(middle).getTimestamp() < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + "." + skip;
+        }
+    }
+
+    /**
+     * Sends headers of successful response
+     * @return writer of the body or {@code null} if body should not be sent
+     */
+    private static Writer startResponse(HttpExchange exchange, boolean head) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+        if (head) {
+            exchange.sendResponseHeaders(200, -1);
+            return null;
+        }
+        // length 0 means chunked transfer encoding
+        exchange.sendResponseHeaders(200, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), "UTF-8"), BUFFER_SIZE);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        ExportFormat.appendJson(sb, message);
+        byte[] body = sb.append('}').toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().remove("ETag");
+        exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Returns whether value of If-None-Match header contains the ETag
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String value : ifNoneMatch.split(",")) {
+            value = value.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if ("*".equals(value) || etag.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int parseLimit(String value) {
+        if (value == null) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit >= 1) {
+                return Math.min(limit, MAX_LIMIT);
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Wrong limit " + value);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static String formatDate(long timestamp) {
+        return DateCodec.forPattern(ExportFormat.DATE_FORMAT).format(timestamp);
+    }
+
+    private static class ServerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "http-server-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.karpukhin.smsviewer.server;
+
+import org.karpukhin.smsviewer.export.ExportCommand;
+import org.karpukhin.smsviewer.index.MessageStore;
+import org.karpukhin.smsviewer.loader.FolderWatcher;
+import org.karpukhin.smsviewer.loader.LoadFailure;
+import org.karpukhin.smsviewer.loader.LoadListener;
+import org.karpukhin.smsviewer.loader.LoadResult;
+import org.karpukhin.smsviewer.loader.LoadedFile;
+import org.karpukhin.smsviewer.loader.MessageLoader;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Command line mode which serves messages of a directory by {@link BrowseServer} without
+ * user interface:
+ * <pre>
+ * --serve &lt;directory|archive&gt; [--port &lt;number&gt;] [--threads &lt;number&gt;]
+ * </pre>
+ * Server is started before messages are loaded, loaded files are published as they are parsed.
+ * Changes of a served directory are applied while the server works. When the directory has to
+ * be loaded again the previous messages are served until the new ones replace them. The command returns when
+ * messages are loaded, the server works until the process is stopped.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ServeCommand {
+
+    private static final Logger logger = Logger.getLogger(ServeCommand.class.getName());
+
+    public static final String SERVE_OPTION = "--serve";
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final String USAGE = "Usage: run.sh --serve <directory|archive> [--port <number>] [--threads <number>]";
+
+    private final PrintStream err;
+    private final MessageLoader loader = new MessageLoader();
+    private final MessageStore store = new MessageStore(loader.getBodyCache());
+    private File directory;
+    private int port = DEFAULT_PORT;
+    private int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** Time when the last loading started */
+    private long loadStarted;
+
+    public ServeCommand(PrintStream err) {
+        this.err = err;
+    }
+
+    /**
+     * Returns whether command line asks for server
+     * @param args command line arguments
+     * @return {@code true} if application should serve messages without user interface
+     */
+    public static boolean isServe(String[] args) {
+        for (String arg : args) {
+            if (SERVE_OPTION.equals(arg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses arguments, starts server and loads messages
+     * @param args command line arguments
+     * @return exit code, server works only if it is {@link ExportCommand#EXIT_OK}
+     */
+    public int run(String[] args) {
+        try {
+            parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return ExportCommand.EXIT_USAGE;
+        }
+        final BrowseServer server;
+        try {
+            server = new BrowseServer(store, port, threads);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+            err.println("Server could not be started: " + e.getMessage());
+            return ExportCommand.EXIT_ERROR;
+        }
+        server.start();
+        err.println(String.format("Serving %s at http://%s:%d%s", directory,
+                server.getAddress().getHostString(), server.getAddress().getPort(), BrowseServer.CONTACTS_PATH));
+        try {
+            load(true);
+            if (directory.isDirectory()) {
+                watch();
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+            err.println("Loading failed: " + e.getMessage());
+            server.close();
+            return ExportCommand.EXIT_ERROR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Loading interrupted");
+            server.close();
+            return ExportCommand.EXIT_ERROR;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.close();
+            }
+        }, "http-server-shutdown"));
+        return ExportCommand.EXIT_OK;
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + arg);
+            }
+            String value = args[++i];
+            if (SERVE_OPTION.equals(arg)) {
+                directory = new File(value);
+            } else if ("--port".equals(arg)) {
+                port = parseNumber(value, "port", 0, 65535);
+            } else if ("--threads".equals(arg)) {
+                threads = parseNumber(value, "number of threads", 1, Integer.MAX_VALUE);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory is not given");
+        }
+        if (!directory.isDirectory() && !MessageLoader.isArchive(directory)) {
+            throw new IllegalArgumentException("Path '" + directory + "' is neither a directory nor an archive");
+        }
+    }
+
+    private static int parseNumber(String value, String name, int min, int max) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Wrong " + name + " " + value);
+    }
+
+    /**
+     * Loads all messages and replaces content of the store with them
+     * @param publish whether every loaded file is published to the server as soon as it is
+     *                parsed, otherwise the store is changed only when all files are loaded
+     */
+    private void load(final boolean publish) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        loadStarted = System.currentTimeMillis();
+        final long epoch = store.getSnapshot().getEpoch();
+        LoadResult result = loader.load(directory, new LoadListener() {
+            @Override
+            public void fileFound(String path, long size) {
+            }
+
+            @Override
+            public void fileLoaded(String path, long size, List<Message> messages) {
+                if (publish) {
+                    store.append(new LoadedFile(path, messages), epoch);
+                    store.flushIfDue();
+                }
+            }
+
+            @Override
+            public void fileFailed(LoadFailure failure) {
+                logger.log(Level.FINE, "File {0} could not be loaded", failure);
+            }
+        });
+        store.replace(result.getFiles(), result.getDeduplicator());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        err.println(String.format("Loaded %d messages of %d contacts from %d files in %.1f s",
+                store.getIndex().size(), store.getIndex().getNumbers().size(), store.getFileCount(), seconds));
+        if (!result.getFailures().isEmpty()) {
+            err.println(String.format("%d file(s) could not be loaded", result.getFailures().size()));
+        }
+    }
+
+    /**
+     * Applies changes of the directory to the store, loads all files again when events are lost
+     */
+    private void watch() throws IOException {
+        FolderWatcher watcher = new FolderWatcher(directory, loader, new FolderWatcher.Listener() {
+            @Override
+            public void filesChanged(List<LoadedFile> changed, Set<String> removed) {
+                store.update(changed, removed);
+                // copies of removed messages were dropped from other files, they are loaded again
+                if (store.isReloadRequired()) {
+                    rescanRequired();
+                }
+            }
+
+            @Override
+            public void rescanRequired() {
+                try {
+                    load(false);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Directory could not be loaded again", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        watcher.start(loadStarted, store.getSnapshot().getPaths());
+    }
+}
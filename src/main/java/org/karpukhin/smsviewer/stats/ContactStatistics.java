@@ -0,0 +1,178 @@
+package org.karpukhin.smsviewer.stats;
+
+import org.karpukhin.smsviewer.index.Conversation;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Immutable statistics of one conversation: numbers of received and sent messages, dates of
+ * the first and the last message and activity by day. Only days with messages are kept,
+ * in ascending order, so size of statistics does not depend on length of the conversation.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ContactStatistics {
+
+    private final String number;
+    private final int inbound;
+    private final int outbound;
+    private final long first;
+    private final long last;
+    private final int[] days;
+    private final int[] inboundByDay;
+    private final int[] outboundByDay;
+
+    private ContactStatistics(String number, int inbound, int outbound, long first, long last,
+                              int[] days, int[] inboundByDay, int[] outboundByDay) {
+        this.number = number;
+        this.inbound = inbound;
+        this.outbound = outbound;
+        this.first = first;
+        this.last = last;
+        this.days = days;
+        this.inboundByDay = inboundByDay;
+        this.outboundByDay = outboundByDay;
+    }
+
+    /**
+     * Computes statistics in one pass over the conversation, days of messages ordered by date
+     * make up runs, so every day is found by comparing with the previous one
+     * @param conversation conversation
+     * @param zone time zone of days
+     * @return statistics
+     */
+    static ContactStatistics compute(Conversation conversation, TimeZone zone) {
+        int size = conversation.size();
+        int[] days = new int[Math.min(size, 16)];
+        int[] inboundByDay = new int[days.length];
+        int[] outboundByDay = new int[days.length];
+        int count = 0;
+        int inbound = 0;
+        for (int i = 0; i < size; i++) {
+            Message message = conversation.get(i);
+            int day = MessageStatistics.dayOf(message.getTimestamp(), zone);
+            if (count == 0 || days[count - 1] != day) {
+                if (count == days.length) {
+                    int capacity = Math.min(size, days.length * 2);
+                    days = Arrays.copyOf(days, capacity);
+                    inboundByDay = Arrays.copyOf(inboundByDay, capacity);
+                    outboundByDay = Arrays.copyOf(outboundByDay, capacity);
+                }
+                days[count++] = day;
+            }
+            if (message.getInbox()) {
+                inbound++;
+                inboundByDay[count - 1]++;
+            } else {
+                outboundByDay[count - 1]++;
+            }
+        }
+        long first = size > 0 ? conversation.get(0).getTimestamp() : 0;
+        long last = size > 0 ? conversation.get(size - 1).getTimestamp() : 0;
+        return new ContactStatistics(conversation.getNumber(), inbound, size - inbound, first, last,
+                Arrays.copyOf(days, count), Arrays.copyOf(inboundByDay, count), Arrays.copyOf(outboundByDay, count));
+    }
+
+    /**
+     * Adds messages of every day to the histograms starting at the given day
+     */
+    void addTo(int[] inboundHistogram, int[] outboundHistogram, int firstDay) {
+        for (int i = 0; i < days.length; i++) {
+            inboundHistogram[days[i] - firstDay] += inboundByDay[i];
+            outboundHistogram[days[i] - firstDay] += outboundByDay[i];
+        }
+    }
+
+    /**
+     * Returns number shown for the contact
+     * @return number
+     */
+    public String getNumber() {
+        return number;
+    }
+
+    public int getMessages() {
+        return inbound + outbound;
+    }
+
+    /**
+     * Returns number of received messages
+     * @return number of messages
+     */
+    public int getInbound() {
+        return inbound;
+    }
+
+    /**
+     * Returns number of sent messages
+     * @return number of messages
+     */
+    public int getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Returns share of received messages
+     * @return value from 0 to 1
+     */
+    public double getInboundRatio() {
+        return inbound + outbound > 0 ? (double) inbound / (inbound + outbound) : 0;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * Returns number of days with messages
+     * @return number of days
+     */
+    public int getActiveDays() {
+        return days.length;
+    }
+
+    public int getFirstDay() {
+        return days.length > 0 ? days[0] : 0;
+    }
+
+    public int getLastDay() {
+        return days.length > 0 ? days[days.length - 1] : 0;
+    }
+
+    /**
+     * Returns received messages by day
+     * @param firstDay first day of the histogram
+     * @param length number of days
+     * @return number of messages of every day
+     */
+    public int[] getInboundHistogram(int firstDay, int length) {
+        return histogram(inboundByDay, firstDay, length);
+    }
+
+    /**
+     * Returns sent messages by day
+     * @param firstDay first day of the histogram
+     * @param length number of days
+     * @return number of messages of every day
+     */
+    public int[] getOutboundHistogram(int firstDay, int length) {
+        return histogram(outboundByDay, firstDay, length);
+    }
+
+    private int[] histogram(int[] counts, int firstDay, int length) {
+        int[] result = new int[length];
+        for (int i = 0; i < days.length; i++) {
+            int position = days[i] - firstDay;
+            if (position >= 0 && position < length) {
+                result[position] = counts[i];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+package org.karpukhin.smsviewer.stats;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Immutable statistics of all loaded messages: statistics of every contact in order of numbers
+ * of {@link org.karpukhin.smsviewer.index.ConversationIndex}, totals and numbers of received and
+ * sent messages of every day from the first day with messages to the last one. Days are numbered
+ * from 1970-01-01 in the time zone the statistics were computed in.
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageStatistics {
+
+    private static final long MILLIS_IN_DAY = 24 * 60 * 60 * 1000L;
+
+    private static final MessageStatistics EMPTY = new MessageStatistics(
+            Collections.<ContactStatistics>emptyList(), 0, 0, 0, new int[0], new int[0], TimeZone.getDefault());
+
+    private final List<ContactStatistics> contacts;
+    private final long inbound;
+    private final long outbound;
+    private final int firstDay;
+    private final int[] inboundByDay;
+    private final int[] outboundByDay;
+    private final TimeZone zone;
+
+    MessageStatistics(List<ContactStatistics> contacts, long inbound, long outbound, int firstDay,
+                      int[] inboundByDay, int[] outboundByDay, TimeZone zone) {
+        this.contacts = Collections.unmodifiableList(contacts);
+        this.inbound = inbound;
+        this.outbound = outbound;
+        this.firstDay = firstDay;
+        this.inboundByDay = inboundByDay;
+        this.outboundByDay = outboundByDay;
+        this.zone = zone;
+    }
+
+    /**
+     * Returns statistics without messages
+     * @return empty statistics
+     */
+    public static MessageStatistics empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns number of the day of the given time
+     * @param timestamp number of milliseconds since epoch
+     * @param zone time zone
+     * @return number of days since 1970-01-01 in the time zone
+     */
+    public static int dayOf(long timestamp, TimeZone zone) {
+        long local = timestamp + zone.getOffset(timestamp);
+        long day = local / MILLIS_IN_DAY;
+        return (int) (local % MILLIS_IN_DAY < 0 ? day - 1 : day);
+    }
+
+    /**
+     * Returns beginning of the day
+     * @param day number of the day returned by {@link #dayOf(long, TimeZone)}
+     * @return number of milliseconds since epoch
+     */
+    public long startOf(int day) {
+        long local = day * MILLIS_IN_DAY;
+        return local - zone.getOffset(local);
+    }
+
+    public List<ContactStatistics> getContacts() {
+        return contacts;
+    }
+
+    public long getMessages() {
+        return inbound + outbound;
+    }
+
+    /**
+     * Returns number of received messages
+     * @return number of messages
+     */
+    public long getInbound() {
+        return inbound;
+    }
+
+    /**
+     * Returns number of sent messages
+     * @return number of messages
+     */
+    public long getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Returns the first day of histograms
+     * @return number of the day
+     */
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * Returns number of days from the first day with messages to the last one
+     * @return length of histograms
+     */
+    public int getDays() {
+        return inboundByDay.length;
+    }
+
+    /**
+     * Returns number of received messages of the day
+     * @param index position of the day from {@link #getFirstDay()}
+     * @return number of messages
+     */
+    public int getInbound(int index) {
+        return inboundByDay[index];
+    }
+
+    /**
+     * Returns number of sent messages of the day
+     * @param index position of the day from {@link #getFirstDay()}
+     * @return number of messages
+     */
+    public int getOutbound(int index) {
+        return outboundByDay[index];
+    }
+}
@@ -0,0 +1,175 @@
+package org.karpukhin.smsviewer.stats;
+
+import org.karpukhin.smsviewer.index.Conversation;
+import org.karpukhin.smsviewer.index.ConversationIndex;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes {@link MessageStatistics} in one parallel pass over conversations of the index.
+ * Ranges of conversations are split by fork-join until they contain few enough messages,
+ * every range counts its messages into its own primitive totals and daily histograms which
+ * are summed when ranges are joined, so workers never share counters.
+ * <p>
+ * Statistics of conversations are kept until the next computation. Conversations which have
+ * not changed are shared between versions of {@link ConversationIndex}, so only new and changed
+ * conversations are read again and the rest only add their days to the histograms.
+ * Instances are thread safe, computations are serialized.
+ *
+ * @author Pavel Karpukhin
+ */
+public class StatisticsEngine {
+
+    /** Ranges with fewer messages are not split */
+    private static final int MIN_MESSAGES_PER_TASK = 8 * 1024;
+    /** Number of tasks per worker, more tasks balance the load better but need more histograms */
+    private static final int TASKS_PER_THREAD = 8;
+
+    private final ForkJoinPool pool;
+    private Map<Conversation, ContactStatistics> computed = new IdentityHashMap<Conversation, ContactStatistics>();
+
+    public StatisticsEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads number of workers
+     */
+    public StatisticsEngine(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Computes statistics of all messages of the index
+     * @param index index
+     * @return statistics
+     */
+    public synchronized MessageStatistics compute(ConversationIndex index) {
+        List<Conversation> conversations = index.getConversations();
+        if (conversations.isEmpty()) {
+            computed = new IdentityHashMap<Conversation, ContactStatistics>();
+            return MessageStatistics.empty();
+        }
+        TimeZone zone = TimeZone.getDefault();
+        ContactStatistics[] contacts = new ContactStatistics[conversations.size()];
+        long[] offsets = new long[conversations.size() + 1];
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        for (int i = 0; i < contacts.length; i++) {
+            Conversation conversation = conversations.get(i);
+            contacts[i] = computed.get(conversation);
+            offsets[i + 1] = offsets[i] + conversation.size();
+            firstDay = Math.min(firstDay, MessageStatistics.dayOf(conversation.get(0).getTimestamp(), zone));
+            lastDay = Math.max(lastDay, MessageStatistics.dayOf(conversation.get(conversation.size() - 1).getTimestamp(), zone));
+        }
+        long threshold = Math.max(MIN_MESSAGES_PER_TASK, offsets[contacts.length] / (pool.getParallelism() * TASKS_PER_THREAD));
+        Totals totals = pool.invoke(new StatisticsTask(conversations, contacts, offsets, 0, contacts.length,
+                threshold, firstDay, lastDay - firstDay + 1, zone));
+
+        Map<Conversation, ContactStatistics> updated = new IdentityHashMap<Conversation, ContactStatistics>(contacts.length * 2);
+        for (int i = 0; i < contacts.length; i++) {
+            updated.put(conversations.get(i), contacts[i]);
+        }
+        computed = updated;
+        return new MessageStatistics(Arrays.asList(contacts), totals.inbound, totals.outbound, firstDay,
+                totals.inboundByDay, totals.outboundByDay, zone);
+    }
+
+    /**
+     * Counters of one range of conversations
+     */
+    private static class Totals {
+
+        private long inbound;
+        private long outbound;
+        private final int[] inboundByDay;
+        private final int[] outboundByDay;
+
+        private Totals(int days) {
+            inboundByDay = new int[days];
+            outboundByDay = new int[days];
+        }
+
+        private Totals merge(Totals other) {
+            inbound += other.inbound;
+            outbound += other.outbound;
+            for (int i = 0; i < inboundByDay.length; i++) {
+                inboundByDay[i] += other.inboundByDay[i];
+                outboundByDay[i] += other.outboundByDay[i];
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Computes statistics of conversations of the range which are not known yet and sums all of them
+     */
+    private static class StatisticsTask extends RecursiveTask<Totals> {
+
+        private final List<Conversation> conversations;
+        /** Known statistics, computed ones are stored by the task of their range */
+        private final ContactStatistics[] contacts;
+        /** Number of messages before every conversation */
+        private final long[] offsets;
+        private final int from;
+        private final int to;
+        private final long threshold;
+        private final int firstDay;
+        private final int days;
+        private final TimeZone zone;
+
+        private StatisticsTask(List<Conversation> conversations, ContactStatistics[] contacts, long[] offsets,
+                               int from, int to, long threshold, int firstDay, int days, TimeZone zone) {
+            this.conversations = conversations;
+            this.contacts = contacts;
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.firstDay = firstDay;
+            this.days = days;
+            this.zone = zone;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from > 1 && offsets[to] - offsets[from] > threshold) {
+                // split by number of messages, so one long conversation does not make a range slow
+                long middleOffset = (offsets[from] + offsets[to]) >>> 1;
+                int middle = Arrays.binarySearch(offsets, from + 1, to, middleOffset);
+                if (middle < 0) {
+                    middle = -middle - 1;
+                }
+                middle = Math.max(from + 1, Math.min(middle, to - 1));
+                StatisticsTask left = new StatisticsTask(conversations, contacts, offsets, from, middle,
+                        threshold, firstDay, days, zone);
+                StatisticsTask right = new StatisticsTask(conversations, contacts, offsets, middle, to,
+                        threshold, firstDay, days, zone);
+                left.fork();
+                Totals totals = right.compute();
+                return totals.merge(left.join());
+            }
+            Totals totals = new Totals(days);
+            for (int i = from; i < to; i++) {
+                ContactStatistics statistics = contacts[i];
+                if (statistics == null) {
+                    statistics = ContactStatistics.compute(conversations.get(i), zone);
+                    contacts[i] = statistics;
+                }
+                totals.inbound += statistics.getInbound();
+                totals.outbound += statistics.getOutbound();
+                statistics.addTo(totals.inboundByDay, totals.outboundByDay, firstDay);
+            }
+            return totals;
+        }
+    }
+}
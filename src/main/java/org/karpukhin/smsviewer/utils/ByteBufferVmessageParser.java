@@ -0,0 +1,737 @@
+package org.karpukhin.smsviewer.utils;
+
+import org.karpukhin.smsviewer.metrics.Metrics;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.model.SourceFile;
+import org.karpukhin.smsviewer.model.SourceLocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parser of VMG files which works directly on UTF-16LE bytes. Keys are recognized by comparing
+ * bytes and only values which are stored in the message are decoded into strings. Small files
+ * are read into a buffer reused by the thread, files up to {@link #MAP_THRESHOLD} into heap
+ * buffers, only larger ones are memory-mapped in windows of about 1 GB which start at
+ * "BEGIN:VMSG" lines, so files larger than 2 GB are parsed as well.
+ * <p>
+ * Mapped buffers are released only when they are garbage collected, until then the file can not
+ * be deleted or replaced on some systems, e.g. on Windows. The parser does not keep references
+ * to windows after the file is parsed, and messages parsed without text keep only the location
+ * of their text, so mapped windows become garbage as soon as parsing is finished.
+ * <p>
+ * Produces the same messages as {@link VmessageParser}.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ByteBufferVmessageParser {
+
+    private static final Logger logger = Logger.getLogger(ByteBufferVmessageParser.class.getName());
+
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    /**
+     * Files larger than this are memory-mapped instead of being read into heap buffer
+     */
+    static final int MAP_THRESHOLD = 32 * 1024 * 1024;
+    /** Largest buffer kept by a thread, larger files and streams are read into buffers which are dropped */
+    static final int MAX_POOLED_SIZE = 1024 * 1024;
+    /** Distance between the start of a mapped window and the first place where it may end */
+    static final int WINDOW_SIZE = 1 << 30;
+    /** Part of the file mapped after a window to find the start of the next one */
+    private static final int WINDOW_OVERLAP = 1 << 20;
+
+    private static final byte[] BEGIN = key("BEGIN:");
+    private static final byte[] BEGIN_VMSG = key("BEGIN:VMSG");
+    private static final byte[] END_VMSG = key("END:VMSG");
+    private static final byte[] END_VCARD = key("END:VCARD");
+    private static final byte[] END_VENV = key("END:VENV");
+    private static final byte[] END_VBODY = key("END:VBODY");
+    private static final byte[] VMSG = key("VMSG");
+    private static final byte[] VCARD = key("VCARD");
+    private static final byte[] VENV = key("VENV");
+    private static final byte[] VBODY = key("VBODY");
+    private static final byte[] TEL = key("TEL:");
+    private static final byte[] DATE = key("Date:");
+    private static final byte[] X_NOK_DT = key("X-NOK-DT:");
+    private static final byte[] X_MESSAGE_TYPE = key("X-MESSAGE-TYPE:");
+    private static final byte[] SUBMIT = key("SUBMIT");
+    private static final byte[] DELIVER = key("DELIVER");
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final DateCodec BODY_DATE = DateCodec.forPattern(VmessageParser.DATE_FORMAT2);
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    /** Offset in the file of the start of the buffer */
+    private final long base;
+    /** Parsed file if text of messages is not kept, {@code null} otherwise */
+    private final SourceFile source;
+    private final ContactTable contacts;
+    /** Time of parsing of dates, added to metrics when the buffer is parsed */
+    private final Metrics.Timer dates = new Metrics.Timer(Metrics.Phase.DATE);
+    private Message.Builder message;
+    /** Hash of body lines of the current message parsed without text */
+    private long textHash;
+
+    /** Offset of the next line in bytes */
+    private int position;
+    /** Offset of the current line in bytes */
+    private int lineStart;
+    /** Offset of the end of the current line in bytes, exclusive */
+    private int lineEnd;
+
+    private ByteBuffer scratch;
+    /** Duplicate of the buffer used for bulk copying, so position of the buffer is not changed */
+    private ByteBuffer view;
+
+    private ByteBufferVmessageParser(ByteBuffer buffer, long base, SourceFile source, ContactTable contacts) {
+        this.buffer = buffer;
+        this.base = base;
+        this.source = source;
+        this.contacts = contacts;
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * Parses every message of the given file
+     * @param file file to parse
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks in the file
+     * @throws IOException if file could not be read
+     */
+    public static int parse(File file, MessageSink sink) throws IOException {
+        return parseFile(file, null, sink);
+    }
+
+    /**
+     * Parses every message of the given file without text. Messages keep their location
+     * in the file together with its size and modification time, text is read from there
+     * when it is requested
+     * @param file file to parse
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks in the file
+     * @throws IOException if file could not be read
+     */
+    public static int parseHeaders(File file, MessageSink sink) throws IOException {
+        return parseFile(file, new SourceFile(file.getAbsolutePath(), file.length(), file.lastModified()), sink);
+    }
+
+    private static int parseFile(File file, SourceFile source, MessageSink sink) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long start = Metrics.start();
+            List<Window> windows = channel.size() > MAP_THRESHOLD
+                    ? map(channel, WINDOW_SIZE)
+                    : Collections.singletonList(new Window(read(channel), 0));
+            Metrics.stop(Metrics.Phase.READ, start);
+            int count = 0;
+            for (Window window : windows) {
+                Metrics.add(Metrics.Counter.BYTES_READ, window.buffer.remaining());
+                start = Metrics.start();
+                try {
+                    count += parseBlocks(window.buffer, window.offset, count, source, sink);
+                } finally {
+                    Metrics.stop(Metrics.Phase.PARSE, start);
+                }
+            }
+            return count;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Parses every message of the stream, e.g. entry of an archive. Stream is read into
+     * the buffer reused by the thread and is not closed
+     * @param stream UTF-16LE encoded messages
+     * @param size number of bytes in the stream or -1 if it is unknown
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks in the stream
+     * @throws IOException if stream could not be read
+     */
+    public static int parse(InputStream stream, long size, MessageSink sink) throws IOException {
+        return parseStream(stream, size, null, sink);
+    }
+
+    /**
+     * Parses every message of the stream without text, see {@link #parseHeaders(File, MessageSink)}
+     * @param stream UTF-16LE encoded messages
+     * @param size number of bytes in the stream or -1 if it is unknown
+     * @param file file of the stream, e.g. archive entry, which is used to read text of messages
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks in the stream
+     * @throws IOException if stream could not be read
+     */
+    public static int parseHeaders(InputStream stream, long size, SourceFile file, MessageSink sink) throws IOException {
+        return parseStream(stream, size, file, sink);
+    }
+
+    private static int parseStream(InputStream stream, long size, SourceFile source, MessageSink sink) throws IOException {
+        long start = Metrics.start();
+        ByteBuffer buffer = read(stream, size);
+        Metrics.stop(Metrics.Phase.READ, start);
+        Metrics.add(Metrics.Counter.BYTES_READ, buffer.remaining());
+        start = Metrics.start();
+        try {
+            return parseBlocks(buffer, 0, 0, source, sink);
+        } finally {
+            Metrics.stop(Metrics.Phase.PARSE, start);
+        }
+    }
+
+    /**
+     * Returns content of the whole file, e.g. to {@link #split} it. Files up to {@link #MAP_THRESHOLD}
+     * are read into a new heap buffer, larger ones are memory-mapped like by {@link #map(File)}.
+     * Callers should drop the windows as soon as they are parsed, see the class description
+     * @param file file
+     * @return windows in order of the file, none if the file is empty
+     * @throws IOException if file could not be read
+     */
+    public static List<Window> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                return map(channel, WINDOW_SIZE);
+            }
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until buffer is full or end of file is reached
+            }
+            buffer.flip();
+            return Collections.singletonList(new Window(buffer, 0));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Memory-maps the whole file in windows of about 1 GB, e.g. to {@link #split} them.
+     * Every window but the first one starts with "BEGIN:VMSG" line
+     * @param file file
+     * @return read-only windows in order of the file, none if the file is empty
+     * @throws IOException if file could not be mapped
+     */
+    public static List<Window> map(File file) throws IOException {
+        return map(file, WINDOW_SIZE);
+    }
+
+    static List<Window> map(File file, int windowSize) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return map(raf.getChannel(), windowSize);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static List<Window> map(FileChannel channel, int windowSize) throws IOException {
+        long size = channel.size();
+        List<Window> windows = new ArrayList<Window>();
+        long from = 0;
+        while (from < size) {
+            long overlap = WINDOW_OVERLAP;
+            ByteBuffer buffer;
+            int end;
+            while (true) {
+                int length = (int) Math.min(size - from, windowSize + overlap);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+                end = from + length == size ? length : blockStart(buffer, windowSize, 0, length);
+                if (end < length || from + length == size) {
+                    break;
+                }
+                // the message which crosses the end of the window is longer than the overlap
+                if (windowSize + overlap * 2 > Integer.MAX_VALUE) {
+                    throw new IOException("Message at offset " + (from + windowSize) + " is too large");
+                }
+                overlap *= 2;
+            }
+            buffer.limit(end);
+            windows.add(new Window(buffer, from));
+            from += end;
+        }
+        return windows;
+    }
+
+    private static ByteBuffer read(InputStream stream, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Message is too large: " + size);
+        }
+        if (size < 0) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = stream.read(chunk)) >= 0) {
+                out.write(chunk, 0, n);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+        ByteBuffer buffer = pooledBuffer((int) size);
+        while (buffer.hasRemaining()) {
+            int n = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (n < 0) {
+                break;
+            }
+            buffer.position(buffer.position() + n);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads whole file which is not larger than {@link #MAP_THRESHOLD} into pooled buffer, or into
+     * a buffer which is dropped if the file is larger than {@link #MAX_POOLED_SIZE}
+     */
+    private static ByteBuffer read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = pooledBuffer((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // read until buffer is full or end of file is reached
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Parses the first UTF-16LE encoded message between position and limit of the buffer.
+     * Position of the buffer is not changed, number of the message is interned in a table of its own
+     * @param buffer buffer
+     * @return parsed message
+     * @throws IllegalStateException if there is no message or its phone number or date is missing
+     */
+    public static Message parse(ByteBuffer buffer) {
+        ByteBufferVmessageParser parser = new ByteBufferVmessageParser(buffer, 0, null, new ContactTable());
+        try {
+            if (!parser.nextVmsg()) {
+                throw new IllegalStateException("No message");
+            }
+        } finally {
+            parser.dates.flush();
+        }
+        return parser.message.build();
+    }
+
+    /**
+     * Parses every UTF-16LE encoded message between position and limit of the buffer passing
+     * them to the sink one by one. Position of the buffer is not changed
+     * @param buffer buffer
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks
+     */
+    public static int parse(ByteBuffer buffer, MessageSink sink) {
+        return parseBlocks(buffer, 0, 0, null, sink);
+    }
+
+    /**
+     * Parses every message of the buffer without text, see {@link #parseHeaders(File, MessageSink)}.
+     * Offsets of messages are indexes in the buffer, so the buffer should start at the beginning
+     * of the file, parts made by {@link #split} may be passed as well
+     * @param buffer buffer
+     * @param file file which is used to read text of messages
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks
+     */
+    public static int parseHeaders(ByteBuffer buffer, SourceFile file, MessageSink sink) {
+        return parseBlocks(buffer, 0, 0, file, sink);
+    }
+
+    /**
+     * Parses every message of the buffer without text, see {@link #parseHeaders(File, MessageSink)}.
+     * Offsets of messages are indexes in the buffer plus offset of the buffer in the file, so
+     * windows made by {@link #map(File)} and their parts may be passed
+     * @param buffer buffer
+     * @param offset offset in the file of index 0 of the buffer
+     * @param file file which is used to read text of messages
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks
+     */
+    public static int parseHeaders(ByteBuffer buffer, long offset, SourceFile file, MessageSink sink) {
+        return parseBlocks(buffer, offset, 0, file, sink);
+    }
+
+    /**
+     * Parses blocks of the buffer, indexes of failed blocks are counted from the given one
+     */
+    private static int parseBlocks(ByteBuffer buffer, long base, int firstIndex, SourceFile source, MessageSink sink) {
+        ByteBufferVmessageParser parser = new ByteBufferVmessageParser(buffer, base, source, sink.getContacts());
+        int count = 0;
+        try {
+            while (parser.nextVmsg()) {
+                Message message = null;
+                try {
+                    message = parser.message.build();
+                } catch (IllegalStateException e) {
+                    sink.failed(firstIndex + count, e.getMessage());
+                }
+                if (message != null) {
+                    sink.message(message);
+                }
+                count++;
+            }
+        } finally {
+            parser.dates.flush();
+        }
+        return count;
+    }
+
+    /**
+     * Returns 64-bit FNV-1a hash of characters of the text. Messages parsed without text keep
+     * the same hash of their decoded text in {@link SourceLocation#getTextHash()}
+     * @param text text or {@code null}, which has the same hash as empty text
+     * @return hash
+     */
+    public static long hashText(CharSequence text) {
+        return hashText(FNV_OFFSET, text);
+    }
+
+    private static long hashText(long hash, CharSequence text) {
+        for (int i = 0; text != null && i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Splits messages between position and limit of the buffer into parts of about the same
+     * size which can be parsed independently. Every part but the first one starts with
+     * "BEGIN:VMSG" line, so no block is cut. Parts share content of the buffer
+     * @param buffer buffer
+     * @param parts desired number of parts
+     * @return at most given number of parts, fewer if there are not enough blocks
+     */
+    public static List<ByteBuffer> split(ByteBuffer buffer, int parts) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        List<ByteBuffer> result = new ArrayList<ByteBuffer>(parts);
+        int from = start;
+        for (int i = 1; i < parts; i++) {
+            int offset = start + (int) ((long) (limit - start) * i / parts);
+            offset = blockStart(buffer, Math.max(offset, from + 2), start, limit);
+            if (offset >= limit) {
+                break;
+            }
+            result.add(slice(buffer, from, offset));
+            from = offset;
+        }
+        result.add(slice(buffer, from, limit));
+        return result;
+    }
+
+    /**
+     * Returns offset of the first "BEGIN:VMSG" line at or after the offset or limit if there is none
+     */
+    private static int blockStart(ByteBuffer buffer, int offset, int start, int limit) {
+        // lines start at even offsets from the start of UTF-16LE text
+        for (int i = start + ((offset - start + 1) & ~1); i + BEGIN_VMSG.length <= limit; i += 2) {
+            if ((i == start || isLineBreak(charAt(buffer, i - 2, limit)))
+                    && matches(buffer, i, BEGIN_VMSG)
+                    && (i + BEGIN_VMSG.length == limit || isLineBreak(charAt(buffer, i + BEGIN_VMSG.length, limit)))) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        ByteBuffer part = buffer.duplicate();
+        part.limit(to);
+        part.position(from);
+        return part;
+    }
+
+    /**
+     * Returns heap buffer of the current thread which can hold at least given number of bytes.
+     * Buffers larger than {@link #MAX_POOLED_SIZE} are not kept by the thread
+     */
+    static ByteBuffer pooledBuffer(int capacity) {
+        if (capacity > MAX_POOLED_SIZE) {
+            return ByteBuffer.allocate(capacity);
+        }
+        ByteBuffer buffer = buffers.get();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, 64 * 1024));
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    /**
+     * Parses the next "VMSG" block into new {@link #message}
+     * @return {@code false} if there are no more blocks
+     */
+    private boolean nextVmsg() {
+        while (nextLine()) {
+            if (startsWith(BEGIN)) {
+                if (valueEquals(BEGIN, VMSG)) {
+                    int blockStart = lineStart;
+                    message = new Message.Builder(contacts);
+                    textHash = FNV_OFFSET;
+                    parseVmsg();
+                    if (source != null) {
+                        message.setSource(new SourceLocation(source, base + blockStart, position - blockStart, textHash));
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void parseVmsg() {
+        while (nextLine()) {
+            if (startsWith(END_VMSG)) {
+                break;
+            }
+            if (startsWith(BEGIN)) {
+                if (valueEquals(BEGIN, VCARD)) {
+                    parseVcard();
+                } else if (valueEquals(BEGIN, VENV)) {
+                    parseVenv();
+                }
+            } else if (startsWith(X_MESSAGE_TYPE)) {
+                if (valueEquals(X_MESSAGE_TYPE, SUBMIT)) {
+                    message.setInbox(false);
+                } else if (valueEquals(X_MESSAGE_TYPE, DELIVER)) {
+                    message.setInbox(true);
+                }
+            } else if (startsWith(X_NOK_DT)) {
+                if (!message.hasDate()) {
+                    long start = Metrics.start();
+                    try {
+                        message.setTimestamp(DateUtils.parseVmessageDate(value(X_NOK_DT)));
+                    } catch (ParseException e) {
+                        logger.log(Level.SEVERE, e.getMessage(), e);
+                    } finally {
+                        dates.stop(start);
+                    }
+                }
+            }
+        }
+    }
+
+    private void parseVcard() {
+        while (nextLine()) {
+            if (startsWith(END_VCARD)) {
+                break;
+            }
+            if (startsWith(TEL)) {
+                message.setNumber(value(TEL));
+            }
+        }
+    }
+
+    private void parseVenv() {
+        while (nextLine()) {
+            if (startsWith(END_VENV)) {
+                break;
+            }
+            if (startsWith(BEGIN)) {
+                if (valueEquals(BEGIN, VBODY)) {
+                    parseVbody();
+                } else if (valueEquals(BEGIN, VCARD)) {
+                    parseVcard();
+                } else if (valueEquals(BEGIN, VENV)) {
+                    parseVenv();
+                }
+            } else if (startsWith(TEL)) {
+                message.setNumber(value(TEL));
+            }
+        }
+    }
+
+    private void parseVbody() {
+        while (nextLine()) {
+            if (startsWith(END_VBODY)) {
+                break;
+            }
+            if (startsWith(DATE)) {
+                if (!message.hasDate()) {
+                    long start = Metrics.start();
+                    try {
+                        message.setTimestamp(BODY_DATE.parse(value(DATE)));
+                    } catch (ParseException e) {
+                        logger.log(Level.SEVERE, e.getMessage(), e);
+                    } finally {
+                        dates.stop(start);
+                    }
+                }
+            } else if (source == null) {
+                message.appendText(decode(lineStart, lineEnd));
+            } else {
+                textHash = hashLine(textHash);
+            }
+        }
+    }
+
+    /**
+     * Adds characters of the current line to the hash of the text without decoding it. Decoder
+     * replaces unpaired surrogates and a trailing odd byte, so lines with surrogates or odd
+     * number of bytes are decoded and hashed as the text of the message parsed with text
+     * @param hash hash of the previous lines
+     * @return hash including the line
+     */
+    private long hashLine(long hash) {
+        if (((lineEnd - lineStart) & 1) == 0) {
+            long lineHash = hash;
+            int i = lineStart;
+            while (i < lineEnd && !Character.isSurrogate(charAt(i))) {
+                lineHash = (lineHash ^ charAt(i)) * FNV_PRIME;
+                i += 2;
+            }
+            if (i >= lineEnd) {
+                return lineHash;
+            }
+        }
+        return hashText(hash, decode(lineStart, lineEnd));
+    }
+
+    /**
+     * Moves to the next line. Lines are terminated the same way as in
+     * {@link java.io.BufferedReader#readLine()}: by LF, CR or CR LF
+     * @return {@code false} if there are no more lines
+     */
+    private boolean nextLine() {
+        if (position >= limit) {
+            return false;
+        }
+        lineStart = position;
+        int i = position;
+        while (i < limit) {
+            char c = charAt(i);
+            if (c == '\n') {
+                lineEnd = i;
+                position = i + 2;
+                return true;
+            }
+            if (c == '\r') {
+                lineEnd = i;
+                position = i + 2;
+                if (position < limit && charAt(position) == '\n') {
+                    position += 2;
+                }
+                return true;
+            }
+            i += 2;
+        }
+        lineEnd = limit;
+        position = limit;
+        return true;
+    }
+
+    private char charAt(int offset) {
+        return charAt(buffer, offset, limit);
+    }
+
+    private static char charAt(ByteBuffer buffer, int offset, int limit) {
+        if (offset + 1 >= limit) {
+            return '\uFFFD';
+        }
+        return (char) ((buffer.get(offset) & 0xFF) | (buffer.get(offset + 1) & 0xFF) << 8);
+    }
+
+    private boolean startsWith(byte[] key) {
+        return lineEnd - lineStart >= key.length && matches(lineStart, key);
+    }
+
+    /**
+     * Checks that the rest of the line after the key is equal to the value
+     */
+    private boolean valueEquals(byte[] key, byte[] value) {
+        return lineEnd - lineStart == key.length + value.length && matches(lineStart + key.length, value);
+    }
+
+    private boolean matches(int offset, byte[] bytes) {
+        return matches(buffer, offset, bytes);
+    }
+
+    private static boolean matches(ByteBuffer buffer, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String value(byte[] key) {
+        return decode(lineStart + key.length, lineEnd);
+    }
+
+    private String decode(int from, int to) {
+        int length = to - from;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + from, length, UTF_16LE);
+        }
+        if (scratch == null || scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(Math.max(length, 256));
+        }
+        if (view == null) {
+            view = buffer.duplicate();
+        }
+        // bulk copy is much faster than copying of single bytes from mapped buffer
+        view.limit(to);
+        view.position(from);
+        view.get(scratch.array(), 0, length);
+        return new String(scratch.array(), 0, length, UTF_16LE);
+    }
+
+    private static byte[] key(String key) {
+        return key.getBytes(UTF_16LE);
+    }
+
+    /**
+     * Mapped part of a file made by {@link #map(File)}
+     */
+    public static class Window {
+
+        private final ByteBuffer buffer;
+        private final long offset;
+
+        private Window(ByteBuffer buffer, long offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Returns offset in the file of the start of the window
+         * @return offset in bytes
+         */
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.karpukhin.smsviewer.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe parser and formatter of dates with the given pattern. Every thread gets
+ * its own compiled {@link SimpleDateFormat}, so instances can be shared between parser
+ * threads. Formatted strings are cached per minute in a small direct-mapped cache,
+ * which makes formatting of dates of one conversation almost free.
+ *
+ * @author Pavel Karpukhin
+ */
+public class DateCodec {
+
+    private static final ConcurrentMap<String, DateCodec> codecs = new ConcurrentHashMap<String, DateCodec>();
+
+    private static final int CACHE_SIZE = 1024;
+    private static final long MILLIS_IN_MINUTE = 60 * 1000L;
+
+    private final String pattern;
+    private final boolean cacheByMinute;
+    private final ThreadLocal<SimpleDateFormat> formats;
+    private final CachedString[] cache = new CachedString[CACHE_SIZE];
+
+    private DateCodec(final String pattern) {
+        this.pattern = pattern;
+        this.cacheByMinute = !pattern.contains("s") && !pattern.contains("S");
+        this.formats = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                return new SimpleDateFormat(pattern);
+            }
+        };
+    }
+
+    /**
+     * Returns codec for the given pattern. Codecs are created once per pattern
+     * @param pattern pattern in {@link SimpleDateFormat} syntax
+     * @return codec
+     */
+    public static DateCodec forPattern(String pattern) {
+        DateCodec codec = codecs.get(pattern);
+        if (codec == null) {
+            DateCodec created = new DateCodec(pattern);
+            codec = codecs.putIfAbsent(pattern, created);
+            if (codec == null) {
+                codec = created;
+            }
+        }
+        return codec;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Parses date
+     * @param str string to parse
+     * @return number of milliseconds since epoch
+     * @throws ParseException if string could not be parsed
+     */
+    public long parse(String str) throws ParseException {
+        return formats.get().parse(str).getTime();
+    }
+
+    /**
+     * Formats date. If pattern has no seconds the result is taken from per minute cache
+     * @param timestamp number of milliseconds since epoch
+     * @return formatted date
+     */
+    public String format(long timestamp) {
+        if (!cacheByMinute) {
+            return formats.get().format(new Date(timestamp));
+        }
+        long minute = floorDiv(timestamp, MILLIS_IN_MINUTE);
+        int slot = (int) (minute & (CACHE_SIZE - 1));
+        CachedString cached = cache[slot];
+        if (cached != null && cached.minute == minute) {
+            return cached.value;
+        }
+        String value = formats.get().format(new Date(timestamp));
+        cache[slot] = new CachedString(minute, value);
+        return value;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long result = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? result - 1 : result;
+    }
+
+    /**
+     * Immutable cache entry, so it can be safely published through plain array
+     */
+    private static class CachedString {
+
+        private final long minute;
+        private final String value;
+
+        private CachedString(long minute, String value) {
+            this.minute = minute;
+            this.value = value;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package org.karpukhin.smsviewer.utils;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 /**
@@ -11,9 +10,14 @@ public class DateUtils {
 
     public static final String DATE_FORMAT = "dd.MM.yyyy, HH:mm";
 
+    private static final long MILLIS_IN_DAY = 24 * 60 * 60 * 1000L;
+
     public static String formatDate(Date date) {
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        return sdf.format(date);
+        return formatDate(date.getTime());
+    }
+
+    public static String formatDate(long timestamp) {
+        return DateCodec.forPattern(DATE_FORMAT).format(timestamp);
     }
 
     public static Date parseDate(String str) throws ParseException {
@@ -21,7 +25,88 @@ public class DateUtils {
     }
 
     public static Date parseDate(String str, String format) throws ParseException {
-        SimpleDateFormat sdf = new SimpleDateFormat(format);
-        return sdf.parse(str);
+        return new Date(DateCodec.forPattern(format).parse(str));
+    }
+
+    /**
+     * Parses value of "X-NOK-DT" field, e.g. "20120301T101500Z". Values in UTC with
+     * the fixed width layout are parsed without {@link java.text.SimpleDateFormat},
+     * other values are parsed with {@link VmessageParser#DATE_FORMAT}
+     * @param str value to parse
+     * @return number of milliseconds since epoch
+     * @throws ParseException if value could not be parsed
+     */
+    public static long parseVmessageDate(String str) throws ParseException {
+        long timestamp = parseUtcFast(str);
+        if (timestamp != Long.MIN_VALUE) {
+            return timestamp;
+        }
+        return DateCodec.forPattern(VmessageParser.DATE_FORMAT).parse(str.replace("Z", "GMT+00:00"));
+    }
+
+    /**
+     * Parses "yyyyMMdd'T'HHmmss'Z'" value
+     * @return number of milliseconds since epoch or {@link Long#MIN_VALUE} if value has other layout
+     *         or its fields are out of range
+     */
+    static long parseUtcFast(String str) {
+        if (str.length() != 16 || str.charAt(8) != 'T' || str.charAt(15) != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(str, 0, 4);
+        int month = digits(str, 4, 2);
+        int day = digits(str, 6, 2);
+        int hour = digits(str, 9, 2);
+        int minute = digits(str, 11, 2);
+        int second = digits(str, 13, 2);
+        // dates before Gregorian calendar and out of range fields are left to SimpleDateFormat
+        if (year < 1600 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59 || hour < 0 || minute < 0 || second < 0) {
+            return Long.MIN_VALUE;
+        }
+        long days = daysFromCivil(year, month, day);
+        return days * MILLIS_IN_DAY + ((hour * 60L + minute) * 60L + second) * 1000L;
+    }
+
+    /**
+     * Returns non-negative number in the given part of string or -1 if there are not digits
+     */
+    private static int digits(String str, int offset, int length) {
+        int result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns number of days since 1970-01-01 in proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
     }
 }
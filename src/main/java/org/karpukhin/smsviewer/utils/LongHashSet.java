@@ -0,0 +1,151 @@
+package org.karpukhin.smsviewer.utils;
+
+/**
+ * Set of {@code long} values without boxing. Values are kept in an open-addressing table
+ * with linear probing, removed values are deleted by shifting the following slots back,
+ * so the table never contains tombstones. Instances are not thread safe
+ *
+ * @author Pavel Karpukhin
+ */
+public class LongHashSet {
+
+    private static final int MIN_CAPACITY = 8;
+
+    /** Marks free slots, presence of this value is kept separately */
+    private static final long FREE_KEY = 0;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasFreeKey;
+
+    /**
+     * Creates set
+     * @param expectedSize number of values which can be added without resizing
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Returns whether the set contains the value
+     * @param value value
+     * @return {@code true} if value is in the set
+     */
+    public boolean contains(long value) {
+        if (value == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int slot = slot(value);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the value
+     * @param value value
+     * @return {@code true} if the value was not in the set
+     */
+    public boolean add(long value) {
+        if (value == FREE_KEY) {
+            if (hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = true;
+            size++;
+            return true;
+        }
+        int slot = slot(value);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        if (++size > keys.length * 3 / 4) {
+            resize(keys.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the value
+     * @param value value
+     * @return {@code true} if the value was in the set
+     */
+    public boolean remove(long value) {
+        if (value == FREE_KEY) {
+            if (!hasFreeKey) {
+                return false;
+            }
+            hasFreeKey = false;
+            size--;
+            return true;
+        }
+        int slot = slot(value);
+        while (keys[slot] != value) {
+            if (keys[slot] == FREE_KEY) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // values of the same cluster which can not be found from their home slot any more are moved back
+        int free = slot;
+        int next = (slot + 1) & mask;
+        while (keys[next] != FREE_KEY) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[free] = FREE_KEY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns number of values
+     * @return size of set
+     */
+    public int size() {
+        return size;
+    }
+
+    private int slot(long value) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key != FREE_KEY) {
+                int slot = slot(key);
+                while (keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongHashSet[size=" + size + ", capacity=" + keys.length + "]";
+    }
+}
@@ -0,0 +1,185 @@
+package org.karpukhin.smsviewer.utils;
+
+import java.util.Arrays;
+
+/**
+ * Map from {@code long} keys to {@code int} values without boxing. Keys are kept in an
+ * open-addressing table with linear probing, so lookups touch one or two adjacent slots
+ * of two primitive arrays. Mappings can not be removed. Instances are not thread safe
+ *
+ * @author Pavel Karpukhin
+ */
+public class LongIntHashMap {
+
+    private static final int MIN_CAPACITY = 8;
+
+    /** Marks free slots, mapping of this key is kept separately */
+    private static final long FREE_KEY = 0;
+
+    private final int missingValue;
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    /**
+     * Creates map
+     * @param expectedSize number of mappings which can be put without resizing
+     * @param missingValue value returned for keys without mapping
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private LongIntHashMap(LongIntHashMap map) {
+        this.missingValue = map.missingValue;
+        this.keys = map.keys.clone();
+        this.values = map.values.clone();
+        this.mask = map.mask;
+        this.size = map.size;
+        this.hasFreeKey = map.hasFreeKey;
+        this.freeKeyValue = map.freeKeyValue;
+    }
+
+    /**
+     * Returns value mapped to the key
+     * @param key key
+     * @return value or missing value if there is no mapping for the key
+     */
+    public int get(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    /**
+     * Returns whether the key has mapping
+     * @param key key
+     * @return {@code true} if map contains the key
+     */
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Maps the key to the value
+     * @param key key
+     * @param value value
+     * @return previous value or missing value if there was no mapping for the key
+     */
+    public int put(long key, int value) {
+        if (key == FREE_KEY) {
+            int previous = hasFreeKey ? freeKeyValue : missingValue;
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return previous;
+        }
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * 3 / 4) {
+            resize(keys.length << 1);
+        }
+        return missingValue;
+    }
+
+    /**
+     * Returns number of mappings
+     * @return size of map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns independent copy of the map
+     * @return copy
+     */
+    public LongIntHashMap copy() {
+        return new LongIntHashMap(this);
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongIntHashMap[size=" + size + ", capacity=" + keys.length + "]";
+    }
+
+    /**
+     * Returns keys of all mappings in no particular order
+     * @return array of keys
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        if (hasFreeKey) {
+            result[count++] = FREE_KEY;
+        }
+        for (long key : keys) {
+            if (key != FREE_KEY) {
+                result[count++] = key;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+}
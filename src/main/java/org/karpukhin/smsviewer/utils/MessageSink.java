@@ -0,0 +1,32 @@
+package org.karpukhin.smsviewer.utils;
+
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+
+/**
+ * Receives messages of a file one by one as soon as every "BEGIN:VMSG ... END:VMSG" block
+ * is parsed, so files with many messages are parsed without holding them in the parser
+ *
+ * @author Pavel Karpukhin
+ */
+public interface MessageSink {
+
+    /**
+     * Called for every parsed message in order of blocks
+     * @param message message
+     */
+    void message(Message message);
+
+    /**
+     * Called for every block which does not contain complete message
+     * @param index index of the block in the parsed file or part of file
+     * @param reason description of the problem
+     */
+    void failed(int index, String reason);
+
+    /**
+     * Returns table in which phone numbers of parsed messages are interned
+     * @return contact table
+     */
+    ContactTable getContacts();
+}
@@ -0,0 +1,86 @@
+package org.karpukhin.smsviewer.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Available implementations of VMG parser. Engine used by default can be selected with
+ * "smsviewer.parser" system property, e.g. {@code -Dsmsviewer.parser=reader}
+ *
+ * @author Pavel Karpukhin
+ */
+public enum ParserEngine {
+
+    /**
+     * {@link VmessageParser} which decodes files line by line with {@link java.io.BufferedReader}
+     */
+    READER {
+        @Override
+        public int parse(File file, MessageSink sink) throws IOException {
+            return VmessageParser.parse(file, sink);
+        }
+
+        @Override
+        public int parse(InputStream stream, long size, MessageSink sink) throws IOException {
+            return VmessageParser.parse(stream, size, sink);
+        }
+    },
+
+    /**
+     * {@link ByteBufferVmessageParser} which works on bytes of pooled or memory-mapped buffer
+     */
+    BYTE_BUFFER {
+        @Override
+        public int parse(File file, MessageSink sink) throws IOException {
+            return ByteBufferVmessageParser.parse(file, sink);
+        }
+
+        @Override
+        public int parse(InputStream stream, long size, MessageSink sink) throws IOException {
+            return ByteBufferVmessageParser.parse(stream, size, sink);
+        }
+    };
+
+    public static final String PROPERTY = "smsviewer.parser";
+
+    private static final Logger logger = Logger.getLogger(ParserEngine.class.getName());
+
+    /**
+     * Parses every message of the given file
+     * @param file file to parse
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks in the file
+     * @throws IOException if file could not be read
+     */
+    public abstract int parse(File file, MessageSink sink) throws IOException;
+
+    /**
+     * Parses every message read from the stream, the stream is not closed
+     * @param stream stream
+     * @param size number of bytes in the stream or -1 if it is unknown
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks in the stream
+     * @throws IOException if stream could not be read
+     */
+    public abstract int parse(InputStream stream, long size, MessageSink sink) throws IOException;
+
+    /**
+     * Returns engine selected with system property or {@link #BYTE_BUFFER} if property is not set
+     * @return parser engine
+     */
+    public static ParserEngine getDefault() {
+        String name = System.getProperty(PROPERTY);
+        if (name != null) {
+            try {
+                return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                logger.log(Level.WARNING, "Unknown parser engine: {0}", name);
+            }
+        }
+        return BYTE_BUFFER;
+    }
+}
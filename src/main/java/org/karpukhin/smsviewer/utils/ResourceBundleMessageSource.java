@@ -8,12 +8,14 @@ import java.util.ResourceBundle;
  */
 public class ResourceBundleMessageSource implements MessageSource {
 
-    private ResourceBundle resourceBundle;
-    private ResourceBundle defaultResourceBundle;
+    private final String baseName;
+    private final ResourceBundle resourceBundle;
+    /** English bundle, loaded only when a key is missing in the bundle of the default locale */
+    private volatile ResourceBundle defaultResourceBundle;
 
     public ResourceBundleMessageSource(String baseName) {
+        this.baseName = baseName;
         resourceBundle = ResourceBundle.getBundle(baseName);
-        defaultResourceBundle = ResourceBundle.getBundle(baseName, Locale.ENGLISH);
     }
 
     @Override
@@ -21,9 +23,20 @@ public class ResourceBundleMessageSource implements MessageSource {
         if (resourceBundle.containsKey(key)) {
             return resourceBundle.getString(key);
         }
-        if (defaultResourceBundle.containsKey(key)) {
-            return defaultResourceBundle.getString(key);
+        ResourceBundle defaultBundle = getDefaultResourceBundle();
+        if (defaultBundle.containsKey(key)) {
+            return defaultBundle.getString(key);
         }
         return key;
     }
+
+    private ResourceBundle getDefaultResourceBundle() {
+        ResourceBundle bundle = defaultResourceBundle;
+        if (bundle == null) {
+            // bundles are cached by ResourceBundle, so concurrent loading returns the same instance
+            bundle = ResourceBundle.getBundle(baseName, Locale.ENGLISH);
+            defaultResourceBundle = bundle;
+        }
+        return bundle;
+    }
 }
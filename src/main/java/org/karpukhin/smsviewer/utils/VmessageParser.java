@@ -1,11 +1,12 @@
 package org.karpukhin.smsviewer.utils;
 
+import org.karpukhin.smsviewer.metrics.Metrics;
+import org.karpukhin.smsviewer.model.ContactTable;
 import org.karpukhin.smsviewer.model.Message;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,6 +20,13 @@ public class VmessageParser {
     public static final String DATE_FORMAT =  "yyyyMMdd'T'HHmmssz";
     public static final String DATE_FORMAT2 = "dd.MM.yyyy HH:mm:ss";
 
+    /**
+     * Parses the first message of the given file. Unlike the old single-message parser, which
+     * returned an empty message, {@code null} is returned for a file without complete message
+     * @param file path to the file
+     * @return parsed message or {@code null} if the file could not be read, has no "VMSG" block
+     * or phone number or date of its first message is missing, the error is logged
+     */
     public static Message parse(String file) {
         Message result = null;
         try {
@@ -35,6 +43,46 @@ public class VmessageParser {
         return result;
     }
 
+    /**
+     * Parses every message of the given file
+     * @param file file to parse
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks in the file
+     * @throws IOException if file could not be read
+     */
+    public static int parse(File file, MessageSink sink) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            return parse(stream, file.length(), sink);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Parses every message of the stream, e.g. entry of an archive. Stream is not closed
+     * @param stream UTF-16LE encoded messages
+     * @param size number of bytes in the stream or -1 if it is unknown
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks in the stream
+     * @throws IOException if stream could not be read
+     */
+    public static int parse(InputStream stream, long size, MessageSink sink) throws IOException {
+        long start = Metrics.start();
+        try {
+            return parse(new BufferedReader(new InputStreamReader(stream, Charset.forName("UTF-16LE"))), sink);
+        } finally {
+            Metrics.stop(Metrics.Phase.PARSE, start);
+            Metrics.add(Metrics.Counter.BYTES_READ, Math.max(size, 0));
+        }
+    }
+
+    /**
+     * Parses the first message of the UTF-16LE encoded stream and closes the stream
+     * @param stream stream
+     * @return parsed message or {@code null} if the stream could not be read, has no "VMSG" block
+     * or phone number or date of its first message is missing, the error is logged
+     */
     public static Message parse(InputStream stream) {
         BufferedReader reader = new BufferedReader(new InputStreamReader(stream, Charset.forName("UTF-16LE")));
         Message result = null;
@@ -42,6 +90,8 @@ public class VmessageParser {
             result = parse(reader);
         } catch (IOException e) {
             logger.log(Level.SEVERE, e.getMessage(), e);
+        } catch (IllegalStateException e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
         } finally {
             try {
                 reader.close();
@@ -52,31 +102,96 @@ public class VmessageParser {
         return result;
     }
 
+    /**
+     * Parses the first message of the reader, its number is interned in a table of its own
+     * @param reader reader
+     * @return parsed message
+     * @throws IOException if message could not be read
+     * @throws IllegalStateException if there is no message or its phone number or date is missing,
+     *                               an empty message is not returned any more
+     */
     public static Message parse(BufferedReader reader) throws IOException {
-        Message result = new Message();
         String line = reader.readLine();
         while (line != null) {
-            logger.log(Level.FINER, "**{}**", line);
-            if (line.startsWith("BEGIN:")) {
-                String type = line.substring("BEGIN:".length());
-                if ("VMSG".equals(type)) {
-                    parseVmsg(reader, result);
-                } else {
-                    logger.log(Level.FINE, "Unexpected: {}", type);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.log(Level.FINER, "**{0}**", line);
+            }
+            if (isVmsgStart(line)) {
+                Message.Builder result = new Message.Builder(new ContactTable());
+                parseVmsg(reader, result);
+                return result.build();
+            }
+            line = reader.readLine();
+        }
+        throw new IllegalStateException("No message");
+    }
+
+    /**
+     * Parses every message of the reader passing them to the sink one by one. Only one
+     * message is held at a time, so memory does not depend on number of messages
+     * @param reader reader
+     * @param sink receiver of messages
+     * @return number of "VMSG" blocks
+     * @throws IOException if messages could not be read
+     */
+    public static int parse(BufferedReader reader, MessageSink sink) throws IOException {
+        Metrics.Timer dates = new Metrics.Timer(Metrics.Phase.DATE);
+        try {
+            return parse(reader, sink, dates);
+        } finally {
+            dates.flush();
+        }
+    }
+
+    private static int parse(BufferedReader reader, MessageSink sink, Metrics.Timer dates) throws IOException {
+        int count = 0;
+        String line = reader.readLine();
+        while (line != null) {
+            if (logger.isLoggable(Level.FINER)) {
+                logger.log(Level.FINER, "**{0}**", line);
+            }
+            if (isVmsgStart(line)) {
+                Message.Builder builder = new Message.Builder(sink.getContacts());
+                parseVmsg(reader, builder, dates);
+                Message message = null;
+                try {
+                    message = builder.build();
+                } catch (IllegalStateException e) {
+                    sink.failed(count, e.getMessage());
+                }
+                if (message != null) {
+                    sink.message(message);
                 }
+                count++;
             } else {
-                logger.log(Level.FINE, "Unexpected: {}", line);
+                logger.log(Level.FINE, "Unexpected: {0}", line);
             }
             line = reader.readLine();
         }
-        return result;
+        return count;
+    }
+
+    private static boolean isVmsgStart(String line) {
+        return line.startsWith("BEGIN:") && "VMSG".equals(line.substring("BEGIN:".length()));
+    }
+
+    public static void parseVmsg(BufferedReader reader, Message.Builder message) throws IOException {
+        Metrics.Timer dates = new Metrics.Timer(Metrics.Phase.DATE);
+        try {
+            parseVmsg(reader, message, dates);
+        } finally {
+            dates.flush();
+        }
     }
 
-    public static void parseVmsg(BufferedReader reader, Message message) throws IOException {
+    private static void parseVmsg(BufferedReader reader, Message.Builder message, Metrics.Timer dates)
+            throws IOException {
         final String expected = "VMSG";
         String line = reader.readLine();
         while (line != null) {
-            logger.log(Level.FINER, "**{}**", line);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.log(Level.FINER, "**{0}**", line);
+            }
             if (line.startsWith("END:" + expected)) {
                 break;
             }
@@ -85,12 +200,14 @@ public class VmessageParser {
                 if ("VCARD".equals(type)) {
                     parseVcard(reader, message);
                 } else if ("VENV".equals(type)) {
-                    parseVenv(reader, message);
+                    parseVenv(reader, message, dates);
                 } else {
-                    logger.log(Level.FINE, "Unexpected: {}", type);
+                    logger.log(Level.FINE, "Unexpected: {0}", type);
                 }
             } else if (line.startsWith("VERSION:")) {
-                logger.log(Level.FINE, "Version: {}", line.substring("VERSION:".length()));
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Version: {0}", line.substring("VERSION:".length()));
+                }
             } else if (line.startsWith("X-MESSAGE-TYPE:")) {
                 String type = line.substring("X-MESSAGE-TYPE:".length());
                 if ("SUBMIT".equals(type)) {
@@ -99,107 +216,125 @@ public class VmessageParser {
                     message.setInbox(true);
                 }
             } else if (line.startsWith("X-NOK-DT:")) {
-                try {
-                    String tmp = line.substring("X-NOK-DT:".length()).replace("Z", "GMT+00:00");
-                    Date date = DateUtils.parseDate(tmp, DATE_FORMAT);
-                    if (message.getDate() == null) {
-                        message.setDate(date);
+                if (!message.hasDate()) {
+                    long start = Metrics.start();
+                    try {
+                        message.setTimestamp(DateUtils.parseVmessageDate(line.substring("X-NOK-DT:".length())));
+                    } catch (ParseException e) {
+                        logger.log(Level.SEVERE, e.getMessage(), e);
+                    } finally {
+                        dates.stop(start);
                     }
-                } catch (ParseException e) {
-                    logger.log(Level.SEVERE, e.getMessage(), e);
                 }
             } else {
-                logger.log(Level.FINE, "Unexpected: {}", line);
+                logger.log(Level.FINE, "Unexpected: {0}", line);
             }
             line = reader.readLine();
         }
     }
 
-    public static void parseVcard(BufferedReader reader, Message message) throws IOException {
+    public static void parseVcard(BufferedReader reader, Message.Builder message) throws IOException {
         final String expected = "VCARD";
         String line = reader.readLine();
         while (line != null) {
-            logger.log(Level.FINER, "**{}**", line);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.log(Level.FINER, "**{0}**", line);
+            }
             if (line.startsWith("END:" + expected)) {
                 break;
             }
             if (line.startsWith("TEL:")) {
                 message.setNumber(line.substring("TEL:".length()));
             } else if (line.startsWith("VERSION:")) {
-                logger.log(Level.FINE, "Version: {}", line.substring("VERSION:".length()));
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Version: {0}", line.substring("VERSION:".length()));
+                }
             } else {
-                logger.log(Level.FINE, "Unexpected: {}", line);
+                logger.log(Level.FINE, "Unexpected: {0}", line);
             }
             line = reader.readLine();
         }
     }
 
-    public static void parseVenv(BufferedReader reader, Message message) throws IOException {
+    public static void parseVenv(BufferedReader reader, Message.Builder message) throws IOException {
+        Metrics.Timer dates = new Metrics.Timer(Metrics.Phase.DATE);
+        try {
+            parseVenv(reader, message, dates);
+        } finally {
+            dates.flush();
+        }
+    }
+
+    private static void parseVenv(BufferedReader reader, Message.Builder message, Metrics.Timer dates)
+            throws IOException {
         final String expected = "VENV";
         String line = reader.readLine();
         while (line != null) {
-            logger.log(Level.FINER, "**{}**", line);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.log(Level.FINER, "**{0}**", line);
+            }
             if (line.startsWith("END:" + expected)) {
                 break;
             }
             if (line.startsWith("BEGIN:")) {
                 String type = line.substring("BEGIN:".length());
                 if ("VBODY".equals(type)) {
-                    parseVbody(reader, message);
+                    parseVbody(reader, message, dates);
                 } else if ("VCARD".equals(type)) {
                     parseVcard(reader, message);
                 } else if ("VENV".equals(type)) {
-                    parseVenv(reader, message);
+                    parseVenv(reader, message, dates);
                 } else {
-                    logger.log(Level.FINE, "Unexpected: {}", type);
+                    logger.log(Level.FINE, "Unexpected: {0}", type);
                 }
             } else if (line.startsWith("TEL:")) {
                 message.setNumber(line.substring("TEL:".length()));
             } else if (line.startsWith("VERSION:")) {
-                logger.log(Level.FINE, "Version: {}", line.substring("VERSION:".length()));
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Version: {0}", line.substring("VERSION:".length()));
+                }
             } else {
-                logger.log(Level.FINE, "Unexpected: {}", line);
+                logger.log(Level.FINE, "Unexpected: {0}", line);
             }
             line = reader.readLine();
         }
     }
 
-    public static void parseVbody(BufferedReader reader, Message message) throws IOException {
+    public static void parseVbody(BufferedReader reader, Message.Builder message) throws IOException {
+        Metrics.Timer dates = new Metrics.Timer(Metrics.Phase.DATE);
+        try {
+            parseVbody(reader, message, dates);
+        } finally {
+            dates.flush();
+        }
+    }
+
+    private static void parseVbody(BufferedReader reader, Message.Builder message, Metrics.Timer dates)
+            throws IOException {
         final String expected = "VBODY";
         String line = reader.readLine();
         while (line != null) {
-            logger.log(Level.FINER, "**{}**", line);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.log(Level.FINER, "**{0}**", line);
+            }
             if (line.startsWith("END:" + expected)) {
                 break;
             }
             if (line.startsWith("Date:")) {
-                try {
-                    Date date = DateUtils.parseDate(line.substring("Date:".length()), DATE_FORMAT2);
-                    if (message.getDate() == null) {
-                        message.setDate(date);
+                if (!message.hasDate()) {
+                    long start = Metrics.start();
+                    try {
+                        message.setTimestamp(DateCodec.forPattern(DATE_FORMAT2).parse(line.substring("Date:".length())));
+                    } catch (ParseException e) {
+                        logger.log(Level.SEVERE, e.getMessage(), e);
+                    } finally {
+                        dates.stop(start);
                     }
-                } catch (ParseException e) {
-                    logger.log(Level.SEVERE, e.getMessage(), e);
                 }
             } else {
-                if (message.getText() != null) {
-                    message.setText(message.getText() + line);
-                } else {
-                    message.setText(line);
-                }
+                message.appendText(line);
             }
             line = reader.readLine();
         }
     }
-
-    public static interface LineParser {
-        boolean parse(BufferedReader reader, Message message);
-    }
-
-    public static class VbodyParser implements LineParser {
-        @Override
-        public boolean parse(BufferedReader reader, Message message) {
-            return false;
-        }
-    }
 }
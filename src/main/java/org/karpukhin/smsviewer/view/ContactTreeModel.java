@@ -0,0 +1,553 @@
+package org.karpukhin.smsviewer.view;
+
+import org.karpukhin.smsviewer.index.ConversationIndex;
+import org.karpukhin.smsviewer.model.Contact;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.DateCodec;
+import org.karpukhin.smsviewer.utils.MessageSource;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tree of contacts backed by {@link ConversationIndex}. Node of a contact is created when the tree
+ * asks for it and is kept in an array parallel to numbers of the index, it shows number of messages
+ * and date of the last one. Optionally messages of a contact are grouped by year and month. Nodes
+ * of years and months are created only when their parent is expanded, their ranges of messages
+ * are found by binary search in conversation ordered by date.
+ * <p>
+ * When index is replaced only inserted, removed and changed nodes are reported to listeners,
+ * so the tree keeps expanded and selected nodes.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ContactTreeModel implements TreeModel {
+
+    private static final String LAST_DATE_FORMAT = "dd.MM.yyyy";
+    private static final String YEAR_FORMAT = "yyyy";
+    private static final String MONTH_FORMAT = "MM.yyyy";
+
+    private final EventListenerList listeners = new EventListenerList();
+    private final String root;
+    private final String contactFormat;
+    private final String dateFormat;
+    private ConversationIndex index = ConversationIndex.empty();
+    /** Nodes of contacts in order of numbers of the index, {@code null} if node is not created yet */
+    private ContactNode[] contacts = new ContactNode[0];
+    private boolean groupedByDate;
+
+    public ContactTreeModel(MessageSource messageSource) {
+        this.root = messageSource.getMessage("label.phones");
+        this.contactFormat = messageSource.getMessage("label.contact.node");
+        this.dateFormat = messageSource.getMessage("label.date.node");
+    }
+
+    public ConversationIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Replaces index. Contacts which are not in the tree yet are inserted, contacts which are
+     * not in the index any more are removed and contacts with changed conversations are updated
+     * together with their years and months
+     * @param updated new index
+     */
+    public void setIndex(ConversationIndex updated) {
+        List<String> oldNumbers = index.getNumbers();
+        List<String> newNumbers = updated.getNumbers();
+        ContactNode[] old = contacts;
+        index = updated;
+        contacts = new ContactNode[newNumbers.size()];
+        if (oldNumbers.isEmpty() || newNumbers.isEmpty()) {
+            if (!oldNumbers.isEmpty() || !newNumbers.isEmpty()) {
+                fireTreeStructureChanged(new TreePath(root));
+            }
+            return;
+        }
+
+        int[] removed = new int[oldNumbers.size()];
+        Object[] removedNodes = new Object[oldNumbers.size()];
+        int removedCount = 0;
+        int[] inserted = new int[newNumbers.size()];
+        int insertedCount = 0;
+        int[] changed = new int[newNumbers.size()];
+        int changedCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oldNumbers.size() || j < newNumbers.size()) {
+            int result = i >= oldNumbers.size() ? 1
+                    : j >= newNumbers.size() ? -1 : oldNumbers.get(i).compareTo(newNumbers.get(j));
+            if (result < 0) {
+                removed[removedCount] = i;
+                removedNodes[removedCount++] = old[i] != null ? old[i]
+                        : new ContactNode(oldNumbers.get(i), Collections.<Message>emptyList());
+                i++;
+            } else if (result > 0) {
+                inserted[insertedCount++] = j++;
+            } else {
+                // node which has not been created yet has never been shown, so it is not reported
+                ContactNode node = old[i++];
+                if (node != null) {
+                    contacts[j] = node;
+                    List<Message> messages = updated.getMessages(node.number);
+                    if (messages != node.messages) {
+                        node.setMessages(messages);
+                        changed[changedCount++] = j;
+                    }
+                }
+                j++;
+            }
+        }
+
+        TreePath rootPath = new TreePath(root);
+        if (removedCount > 0) {
+            fireTreeNodesRemoved(rootPath, Arrays.copyOf(removed, removedCount), Arrays.copyOf(removedNodes, removedCount));
+        }
+        if (insertedCount > 0) {
+            fireTreeNodesInserted(rootPath, Arrays.copyOf(inserted, insertedCount), contacts(inserted, insertedCount));
+        }
+        if (changedCount > 0) {
+            fireTreeNodesChanged(rootPath, Arrays.copyOf(changed, changedCount), contacts(changed, changedCount));
+            for (int k = 0; k < changedCount; k++) {
+                ContactNode node = contacts[changed[k]];
+                if (node.years != null) {
+                    node.years = updateBuckets(rootPath.pathByAddingChild(node), node.years,
+                            buckets(node, null, 0, node.messages.size()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether messages of contacts are grouped by year and month
+     * @return {@code true} if messages are grouped
+     */
+    public boolean isGroupedByDate() {
+        return groupedByDate;
+    }
+
+    /**
+     * Shows or hides years and months of contacts
+     * @param groupedByDate whether messages are grouped by year and month
+     */
+    public void setGroupedByDate(boolean groupedByDate) {
+        if (this.groupedByDate == groupedByDate) {
+            return;
+        }
+        this.groupedByDate = groupedByDate;
+        for (ContactNode node : contacts) {
+            if (node != null) {
+                node.years = null;
+            }
+        }
+        fireTreeStructureChanged(new TreePath(root));
+    }
+
+    /**
+     * Returns messages of the given node
+     * @param node node of contact, year or month
+     * @return messages ordered by date, empty list for the root or {@code null}
+     */
+    public List<Message> getMessages(Object node) {
+        if (node instanceof ContactNode) {
+            return ((ContactNode) node).messages;
+        }
+        if (node instanceof DateNode) {
+            return ((DateNode) node).getMessages();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns path of the node of the given contact
+     * @param contact contact
+     * @return path or {@code null} if there are no messages of the contact
+     */
+    public TreePath getPath(Contact contact) {
+        int position = index.indexOf(contact);
+        if (position < 0) {
+            return null;
+        }
+        return new TreePath(new Object[] {root, contact(position)});
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        if (parent == root) {
+            return contact(index);
+        }
+        if (parent instanceof ContactNode) {
+            return years((ContactNode) parent)[index];
+        }
+        return months((DateNode) parent)[index];
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        if (parent == root) {
+            return contacts.length;
+        }
+        if (parent instanceof ContactNode) {
+            return groupedByDate ? years((ContactNode) parent).length : 0;
+        }
+        DateNode node = (DateNode) parent;
+        return node.isYear() ? months(node).length : 0;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        if (node == root) {
+            return false;
+        }
+        if (node instanceof ContactNode) {
+            return !groupedByDate;
+        }
+        return !((DateNode) node).isYear();
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (parent == null || child == null) {
+            return -1;
+        }
+        if (parent == root) {
+            if (!(child instanceof ContactNode)) {
+                return -1;
+            }
+            String number = ((ContactNode) child).number;
+            List<String> numbers = index.getNumbers();
+            int position = index.indexOf(number);
+            if (position < 0) {
+                return -1;
+            }
+            // different contacts may be shown with the same number
+            while (position > 0 && numbers.get(position - 1).equals(number)) {
+                position--;
+            }
+            for (; position < numbers.size() && numbers.get(position).equals(number); position++) {
+                if (contacts[position] == child) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+        DateNode[] children = parent instanceof ContactNode ? ((ContactNode) parent).years : ((DateNode) parent).months;
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // nodes are not editable
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        listeners.add(TreeModelListener.class, l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        listeners.remove(TreeModelListener.class, l);
+    }
+
+    private ContactNode contact(int position) {
+        ContactNode node = contacts[position];
+        if (node == null) {
+            String number = index.getNumbers().get(position);
+            node = new ContactNode(number, index.getMessages(number));
+            contacts[position] = node;
+        }
+        return node;
+    }
+
+    private Object[] contacts(int[] positions, int count) {
+        Object[] nodes = new Object[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = contact(positions[i]);
+        }
+        return nodes;
+    }
+
+    private DateNode[] years(ContactNode node) {
+        if (node.years == null) {
+            node.years = buckets(node, null, 0, node.messages.size());
+        }
+        return node.years;
+    }
+
+    private DateNode[] months(DateNode year) {
+        if (year.months == null) {
+            year.months = buckets(year.contact, year, year.from, year.to);
+        }
+        return year.months;
+    }
+
+    /**
+     * Splits range of messages of the contact into years, or into months if year is given
+     */
+    private DateNode[] buckets(ContactNode contact, DateNode year, int from, int to) {
+        List<Message> messages = contact.messages;
+        Calendar calendar = Calendar.getInstance();
+        List<DateNode> nodes = new ArrayList<DateNode>();
+        int start = from;
+        while (start < to) {
+            long timestamp = messages.get(start).getTimestamp();
+            calendar.setTimeInMillis(timestamp);
+            if (year == null) {
+                calendar.set(Calendar.MONTH, Calendar.JANUARY);
+            }
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            long bucket = calendar.getTimeInMillis();
+            calendar.add(year == null ? Calendar.YEAR : Calendar.MONTH, 1);
+            int end = lowerBound(messages, start + 1, to, calendar.getTimeInMillis());
+            nodes.add(new DateNode(contact, year == null, bucket, start, end));
+            start = end;
+        }
+        return nodes.toArray(new DateNode[nodes.size()]);
+    }
+
+    /**
+     * Returns position of the first message in the range which is not earlier than the given time
+     */
+    private static int lowerBound(List<Message> messages, int from, int to, long timestamp) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (messages.get(middle).getTimestamp() < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Replaces shown years or months with the new ones keeping nodes of the same periods
+     * and reports the difference to listeners
+     * @param path path of the parent
+     * @param old shown nodes
+     * @param created nodes built from the changed messages
+     * @return nodes to show
+     */
+    private DateNode[] updateBuckets(TreePath path, DateNode[] old, DateNode[] created) {
+        DateNode[] result = new DateNode[created.length];
+        int[] removed = new int[old.length];
+        Object[] removedNodes = new Object[old.length];
+        int removedCount = 0;
+        int[] inserted = new int[created.length];
+        int insertedCount = 0;
+        int[] changed = new int[created.length];
+        int changedCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < old.length || j < created.length) {
+            int compared = i >= old.length ? 1
+                    : j >= created.length ? -1 : Long.compare(old[i].start, created[j].start);
+            if (compared < 0) {
+                removed[removedCount] = i;
+                removedNodes[removedCount++] = old[i++];
+            } else if (compared > 0) {
+                result[j] = created[j];
+                inserted[insertedCount++] = j++;
+            } else {
+                DateNode node = old[i++];
+                if (node.setRange(created[j].from, created[j].to)) {
+                    changed[changedCount++] = j;
+                }
+                result[j++] = node;
+            }
+        }
+        if (path.getLastPathComponent() instanceof ContactNode) {
+            ((ContactNode) path.getLastPathComponent()).years = result;
+        } else {
+            ((DateNode) path.getLastPathComponent()).months = result;
+        }
+        if (removedCount > 0) {
+            fireTreeNodesRemoved(path, Arrays.copyOf(removed, removedCount), Arrays.copyOf(removedNodes, removedCount));
+        }
+        if (insertedCount > 0) {
+            Object[] nodes = new Object[insertedCount];
+            for (int k = 0; k < insertedCount; k++) {
+                nodes[k] = result[inserted[k]];
+            }
+            fireTreeNodesInserted(path, Arrays.copyOf(inserted, insertedCount), nodes);
+        }
+        if (changedCount > 0) {
+            Object[] nodes = new Object[changedCount];
+            for (int k = 0; k < changedCount; k++) {
+                nodes[k] = result[changed[k]];
+            }
+            fireTreeNodesChanged(path, Arrays.copyOf(changed, changedCount), nodes);
+            for (int k = 0; k < changedCount; k++) {
+                DateNode node = result[changed[k]];
+                if (node.months != null) {
+                    node.months = updateBuckets(path.pathByAddingChild(node), node.months,
+                            buckets(node.contact, node, node.from, node.to));
+                }
+            }
+        }
+        return result;
+    }
+
+    private void fireTreeNodesInserted(TreePath path, int[] indices, Object[] children) {
+        TreeModelEvent event = new TreeModelEvent(this, path, indices, children);
+        Object[] list = listeners.getListenerList();
+        for (int i = list.length - 2; i >= 0; i -= 2) {
+            if (list[i] == TreeModelListener.class) {
+                ((TreeModelListener) list[i + 1]).treeNodesInserted(event);
+            }
+        }
+    }
+
+    private void fireTreeNodesRemoved(TreePath path, int[] indices, Object[] children) {
+        TreeModelEvent event = new TreeModelEvent(this, path, indices, children);
+        Object[] list = listeners.getListenerList();
+        for (int i = list.length - 2; i >= 0; i -= 2) {
+            if (list[i] == TreeModelListener.class) {
+                ((TreeModelListener) list[i + 1]).treeNodesRemoved(event);
+            }
+        }
+    }
+
+    private void fireTreeNodesChanged(TreePath path, int[] indices, Object[] children) {
+        TreeModelEvent event = new TreeModelEvent(this, path, indices, children);
+        Object[] list = listeners.getListenerList();
+        for (int i = list.length - 2; i >= 0; i -= 2) {
+            if (list[i] == TreeModelListener.class) {
+                ((TreeModelListener) list[i + 1]).treeNodesChanged(event);
+            }
+        }
+    }
+
+    private void fireTreeStructureChanged(TreePath path) {
+        TreeModelEvent event = new TreeModelEvent(this, path);
+        Object[] list = listeners.getListenerList();
+        for (int i = list.length - 2; i >= 0; i -= 2) {
+            if (list[i] == TreeModelListener.class) {
+                ((TreeModelListener) list[i + 1]).treeStructureChanged(event);
+            }
+        }
+    }
+
+    /**
+     * Contact with its conversation, shown as number, number of messages and date of the last one
+     */
+    private class ContactNode {
+
+        private final String number;
+        private List<Message> messages;
+        /** Years of messages or {@code null} if they have not been requested yet */
+        private DateNode[] years;
+        private String label;
+
+        private ContactNode(String number, List<Message> messages) {
+            this.number = number;
+            this.messages = messages;
+        }
+
+        private void setMessages(List<Message> messages) {
+            this.messages = messages;
+            this.label = null;
+        }
+
+        @Override
+        public String toString() {
+            if (label == null) {
+                String lastDate = messages.isEmpty() ? ""
+                        : DateCodec.forPattern(LAST_DATE_FORMAT).format(messages.get(messages.size() - 1).getTimestamp());
+                label = String.format(contactFormat, number, messages.size(), lastDate);
+            }
+            return label;
+        }
+    }
+
+    /**
+     * Year or month with range of messages of the contact
+     */
+    private class DateNode {
+
+        private final ContactNode contact;
+        private final boolean year;
+        /** Beginning of the period */
+        private final long start;
+        private int from;
+        private int to;
+        /** Months of the year or {@code null} if they have not been requested yet */
+        private DateNode[] months;
+        /** Messages of the period in the current conversation of the contact */
+        private List<Message> messages;
+        private String label;
+
+        private DateNode(ContactNode contact, boolean year, long start, int from, int to) {
+            this.contact = contact;
+            this.year = year;
+            this.start = start;
+            this.from = from;
+            this.to = to;
+            this.messages = contact.messages.subList(from, to);
+        }
+
+        private boolean isYear() {
+            return year;
+        }
+
+        /**
+         * Moves the node to the range of the changed conversation
+         * @return {@code true} if messages of the period have changed
+         */
+        private boolean setRange(int from, int to) {
+            List<Message> range = contact.messages.subList(from, to);
+            // messages are compared by identity, so only changed period is compared slowly
+            boolean changed = this.to - this.from != to - from || !range.equals(messages);
+            this.from = from;
+            this.to = to;
+            this.messages = range;
+            if (changed) {
+                label = null;
+            }
+            return changed;
+        }
+
+        /**
+         * Returns messages of the period, the same list is returned until the conversation changes
+         */
+        private List<Message> getMessages() {
+            return messages;
+        }
+
+        @Override
+        public String toString() {
+            if (label == null) {
+                String period = DateCodec.forPattern(year ? YEAR_FORMAT : MONTH_FORMAT).format(start);
+                label = String.format(dateFormat, period, to - from);
+            }
+            return label;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.karpukhin.smsviewer.view;
+
+import org.karpukhin.smsviewer.model.BodySource;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.DateUtils;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableCellRenderer;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows messages of one conversation as a single column table. Only visible rows are rendered,
+ * so showing a conversation does not depend on its size. Every row starts with the height of one
+ * line of text and gets the height of its wrapped text when it becomes visible. Heights are cached
+ * until the width of the table changes.
+ * <p>
+ * Received messages are shown on the left on green background, sent messages are shown on the right.
+ *
+ * @author Pavel Karpukhin
+ */
+public class ConversationTable extends JTable {
+
+    private static final int GAP = 50;
+    private static final int ROW_MARGIN = 5;
+    private static final EmptyBorder INBOX_BORDER = new EmptyBorder(0, 0, 0, GAP);
+    private static final EmptyBorder OUTBOX_BORDER = new EmptyBorder(0, GAP, 0, 0);
+
+    private final BubbleRenderer renderer = new BubbleRenderer();
+    private final int estimatedRowHeight;
+    private boolean[] measured = new boolean[0];
+    private int measuredWidth = -1;
+    private boolean measureScheduled;
+
+    public ConversationTable() {
+        this(null);
+    }
+
+    /**
+     * @param bodies reader of texts of messages loaded without body or {@code null}
+     */
+    public ConversationTable(BodySource bodies) {
+        super(new ConversationTableModel(bodies));
+        renderer.textArea.setText(" ");
+        estimatedRowHeight = renderer.textArea.getPreferredSize().height + ROW_MARGIN;
+
+        setTableHeader(null);
+        setShowGrid(false);
+        setIntercellSpacing(new Dimension(0, ROW_MARGIN));
+        setRowHeight(estimatedRowHeight);
+        setFillsViewportHeight(true);
+        setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        setDefaultRenderer(Object.class, renderer);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                scheduleMeasure();
+            }
+        });
+    }
+
+    /**
+     * Shows the given messages. The list is not copied, so it must not be changed while it is shown
+     * @param messages messages ordered by date
+     */
+    public void setMessages(List<Message> messages) {
+        measured = new boolean[messages.size()];
+        getConversationModel().setMessages(messages);
+        // new model of rows with equal heights, it does not depend on number of rows
+        setRowHeight(estimatedRowHeight);
+        scrollRectToVisible(new Rectangle(0, 0, 1, 1));
+        scheduleMeasure();
+    }
+
+    /**
+     * Shows a new version of the shown conversation, for example with messages loaded from
+     * other files. Unlike {@link #setMessages(List)} the table is not scrolled to the top:
+     * the first visible message stays in its place, selected messages stay selected and
+     * rows of messages which are still shown keep their measured heights
+     * @param messages messages ordered by date, the list must not be changed while it is shown
+     */
+    public void updateMessages(List<Message> messages) {
+        List<Message> shown = getMessages();
+        if (messages == shown) {
+            return;
+        }
+        Map<Message, Integer> oldRows = new IdentityHashMap<Message, Integer>(shown.size() * 2);
+        for (int row = 0; row < shown.size(); row++) {
+            oldRows.put(shown.get(row), row);
+        }
+        int[] heights = new int[shown.size()];
+        for (int row = 0; row < shown.size(); row++) {
+            heights[row] = row < measured.length && measured[row] ? getRowHeight(row) : -1;
+        }
+        List<Message> selected = new ArrayList<Message>();
+        for (int row : getSelectedRows()) {
+            selected.add(shown.get(row));
+        }
+        Rectangle visible = getVisibleRect();
+        int topRow = rowAtPoint(new Point(0, visible.y));
+        Message top = topRow >= 0 ? shown.get(topRow) : null;
+        int topOffset = topRow >= 0 ? visible.y - getCellRect(topRow, 0, true).y : 0;
+
+        boolean[] newMeasured = new boolean[messages.size()];
+        getConversationModel().setMessages(messages);
+        setRowHeight(estimatedRowHeight);
+        Map<Message, Integer> newRows = new IdentityHashMap<Message, Integer>(messages.size() * 2);
+        for (int row = 0; row < messages.size(); row++) {
+            Message message = messages.get(row);
+            newRows.put(message, row);
+            Integer old = oldRows.get(message);
+            if (old != null && heights[old] >= 0) {
+                newMeasured[row] = true;
+                setRowHeight(row, heights[old]);
+            }
+        }
+        measured = newMeasured;
+        for (Message message : selected) {
+            Integer row = newRows.get(message);
+            if (row != null) {
+                addRowSelectionInterval(row, row);
+            }
+        }
+        Integer newTopRow = top != null ? newRows.get(top) : null;
+        Container parent = getParent();
+        if (newTopRow != null && parent instanceof JViewport) {
+            JViewport viewport = (JViewport) parent;
+            viewport.setViewPosition(new Point(viewport.getViewPosition().x,
+                    getCellRect(newTopRow, 0, true).y + topOffset));
+        }
+        scheduleMeasure();
+    }
+
+    /**
+     * Returns shown messages
+     * @return list of messages
+     */
+    public List<Message> getMessages() {
+        return getConversationModel().messages;
+    }
+
+    /**
+     * Selects the message and scrolls the table to it
+     * @param message shown message
+     * @return {@code false} if the message is not shown
+     */
+    public boolean showMessage(Message message) {
+        int row = getMessages().indexOf(message);
+        if (row < 0) {
+            return false;
+        }
+        setRowSelectionInterval(row, row);
+        scrollRectToVisible(getCellRect(row, 0, true));
+        // rows around the message get their real height, so it is scrolled once again
+        measureVisibleRows();
+        scrollRectToVisible(getCellRect(row, 0, true));
+        return true;
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        Container parent = getParent();
+        if (parent instanceof JViewport) {
+            ((JViewport) parent).addChangeListener(new ChangeListener() {
+                @Override
+                public void stateChanged(ChangeEvent e) {
+                    scheduleMeasure();
+                }
+            });
+        }
+    }
+
+    private ConversationTableModel getConversationModel() {
+        return (ConversationTableModel) getModel();
+    }
+
+    /**
+     * Measures visible rows after current event is processed, so changes of row heights
+     * made by measuring do not interfere with layout and painting
+     */
+    private void scheduleMeasure() {
+        if (!measureScheduled) {
+            measureScheduled = true;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    measureScheduled = false;
+                    measureVisibleRows();
+                }
+            });
+        }
+    }
+
+    /**
+     * Sets height of visible rows which have not been measured for current width yet. Rows which
+     * become visible because measured rows are lower than estimated are measured too
+     */
+    private void measureVisibleRows() {
+        int width = getWidth();
+        int rowCount = getRowCount();
+        if (width <= 0 || rowCount == 0) {
+            return;
+        }
+        if (width != measuredWidth) {
+            measuredWidth = width;
+            measured = new boolean[rowCount];
+        }
+        Rectangle visible = getVisibleRect();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int first = rowAtPoint(new Point(0, visible.y));
+            int last = rowAtPoint(new Point(0, visible.y + visible.height - 1));
+            if (first < 0) {
+                return;
+            }
+            if (last < 0) {
+                last = rowCount - 1;
+            }
+            for (int row = first; row <= last; row++) {
+                if (!measured[row]) {
+                    measured[row] = true;
+                    int height = renderer.measure(getConversationModel().getMessage(row),
+                            (String) getConversationModel().getValueAt(row, 0), width) + ROW_MARGIN;
+                    if (height != getRowHeight(row)) {
+                        setRowHeight(row, height);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Model with one column where value of every row is the text shown for the message,
+     * so selected rows are copied as shown
+     */
+    private static class ConversationTableModel extends AbstractTableModel {
+
+        private final BodySource bodies;
+        private List<Message> messages = Collections.emptyList();
+
+        private ConversationTableModel(BodySource bodies) {
+            this.bodies = bodies;
+        }
+
+        private void setMessages(List<Message> messages) {
+            this.messages = messages;
+            fireTableDataChanged();
+        }
+
+        private Message getMessage(int row) {
+            return messages.get(row);
+        }
+
+        @Override
+        public int getRowCount() {
+            return messages.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 1;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            Message message = messages.get(rowIndex);
+            return DateUtils.formatDate(message.getTimestamp()) + ": " + message.getText(bodies);
+        }
+    }
+
+    /**
+     * Renders message as wrapped text aligned to the left for received messages and to the right
+     * for sent ones
+     */
+    private static class BubbleRenderer extends JPanel implements TableCellRenderer {
+
+        private final JTextArea textArea = new JTextArea();
+        private final Color defaultBackground;
+
+        private BubbleRenderer() {
+            super(new BorderLayout());
+            setOpaque(false);
+            textArea.setLineWrap(true);
+            textArea.setWrapStyleWord(true);
+            defaultBackground = textArea.getBackground();
+            add(textArea, BorderLayout.CENTER);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            Message message = ((ConversationTableModel) table.getModel()).getMessage(row);
+            prepare(message, (String) value);
+            if (isSelected) {
+                textArea.setBackground(table.getSelectionBackground());
+                textArea.setForeground(table.getSelectionForeground());
+            } else {
+                textArea.setForeground(table.getForeground());
+            }
+            return this;
+        }
+
+        /**
+         * Returns height of the message wrapped to the given width
+         */
+        private int measure(Message message, String text, int width) {
+            prepare(message, text);
+            textArea.setSize(Math.max(width - GAP, 1), Short.MAX_VALUE);
+            return textArea.getPreferredSize().height;
+        }
+
+        private void prepare(Message message, String text) {
+            textArea.setText(text);
+            if (message.getInbox()) {
+                textArea.setBackground(Color.green);
+                setBorder(INBOX_BORDER);
+            } else {
+                textArea.setBackground(defaultBackground);
+                setBorder(OUTBOX_BORDER);
+            }
+        }
+    }
+}
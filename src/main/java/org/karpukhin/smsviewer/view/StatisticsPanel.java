@@ -0,0 +1,257 @@
+package org.karpukhin.smsviewer.view;
+
+import org.karpukhin.smsviewer.stats.ContactStatistics;
+import org.karpukhin.smsviewer.stats.MessageStatistics;
+import org.karpukhin.smsviewer.utils.DateCodec;
+import org.karpukhin.smsviewer.utils.MessageSource;
+
+import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dashboard with statistics of loaded messages: totals, sortable table of contacts and chart of
+ * received and sent messages by day for all contacts or for the selected one
+ *
+ * @author Pavel Karpukhin
+ */
+public class StatisticsPanel extends JPanel {
+
+    private static final String DATE_FORMAT = "dd.MM.yyyy";
+
+    private final MessageSource messageSource;
+    private final JLabel summaryLabel = new JLabel(" ");
+    private final ContactTableModel tableModel;
+    private final JTable table;
+    private final ActivityChart chart = new ActivityChart();
+    private MessageStatistics statistics = MessageStatistics.empty();
+
+    public StatisticsPanel(MessageSource messageSource) {
+        this.messageSource = messageSource;
+        this.tableModel = new ContactTableModel(new String[] {
+                messageSource.getMessage("label.statistics.number"),
+                messageSource.getMessage("label.statistics.messages"),
+                messageSource.getMessage("label.statistics.inbound"),
+                messageSource.getMessage("label.statistics.outbound"),
+                messageSource.getMessage("label.statistics.inbound.ratio"),
+                messageSource.getMessage("label.statistics.last"),
+                messageSource.getMessage("label.statistics.days")
+        });
+        this.table = new JTable(tableModel);
+        table.setAutoCreateRowSorter(true);
+        table.setDefaultRenderer(Long.class, new DefaultTableCellRenderer() {
+            @Override
+            protected void setValue(Object value) {
+                setText(value != null ? formatDate((Long) value) : "");
+            }
+        });
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if (!e.getValueIsAdjusting()) {
+                    showChart();
+                }
+            }
+        });
+
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(table), chart);
+        splitPane.setResizeWeight(0.7);
+        setLayout(new BorderLayout(0, 5));
+        add(summaryLabel, BorderLayout.NORTH);
+        add(splitPane, BorderLayout.CENTER);
+    }
+
+    /**
+     * Shows new statistics keeping selected contact
+     * @param statistics statistics
+     */
+    public void setStatistics(MessageStatistics statistics) {
+        String selected = getSelectedNumber();
+        this.statistics = statistics;
+        summaryLabel.setText(String.format(messageSource.getMessage("label.statistics.summary"),
+                statistics.getContacts().size(), statistics.getMessages(), statistics.getInbound(), statistics.getOutbound()));
+        tableModel.setContacts(statistics.getContacts());
+        if (selected != null) {
+            for (int i = 0; i < statistics.getContacts().size(); i++) {
+                if (selected.equals(statistics.getContacts().get(i).getNumber())) {
+                    int row = table.convertRowIndexToView(i);
+                    table.getSelectionModel().setSelectionInterval(row, row);
+                    break;
+                }
+            }
+        }
+        showChart();
+    }
+
+    private String getSelectedNumber() {
+        int row = table.getSelectedRow();
+        return row >= 0 ? tableModel.contacts.get(table.convertRowIndexToModel(row)).getNumber() : null;
+    }
+
+    private void showChart() {
+        int days = statistics.getDays();
+        int row = table.getSelectedRow();
+        if (row < 0) {
+            int[] inbound = new int[days];
+            int[] outbound = new int[days];
+            for (int i = 0; i < days; i++) {
+                inbound[i] = statistics.getInbound(i);
+                outbound[i] = statistics.getOutbound(i);
+            }
+            chart.setData(inbound, outbound);
+        } else {
+            ContactStatistics contact = tableModel.contacts.get(table.convertRowIndexToModel(row));
+            chart.setData(contact.getInboundHistogram(statistics.getFirstDay(), days),
+                    contact.getOutboundHistogram(statistics.getFirstDay(), days));
+        }
+    }
+
+    private static String formatDate(long timestamp) {
+        return DateCodec.forPattern(DATE_FORMAT).format(timestamp);
+    }
+
+    /**
+     * Contacts of the statistics, one row per contact
+     */
+    private static class ContactTableModel extends AbstractTableModel {
+
+        private final String[] columns;
+        private List<ContactStatistics> contacts = Collections.emptyList();
+
+        private ContactTableModel(String[] columns) {
+            this.columns = columns;
+        }
+
+        private void setContacts(List<ContactStatistics> contacts) {
+            this.contacts = contacts;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return contacts.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 0:
+                    return String.class;
+                case 4:
+                    return Double.class;
+                case 5:
+                    return Long.class;
+                default:
+                    return Integer.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            ContactStatistics contact = contacts.get(row);
+            switch (column) {
+                case 0:
+                    return contact.getNumber();
+                case 1:
+                    return contact.getMessages();
+                case 2:
+                    return contact.getInbound();
+                case 3:
+                    return contact.getOutbound();
+                case 4:
+                    return Math.round(contact.getInboundRatio() * 1000) / 10.0;
+                case 5:
+                    return contact.getLast();
+                default:
+                    return contact.getActiveDays();
+            }
+        }
+    }
+
+    /**
+     * Bars of received messages above the axis and sent messages below it. Days which do not fit
+     * into the width are summed into one bar
+     */
+    private class ActivityChart extends JComponent {
+
+        private static final int MARGIN = 5;
+        private final Color inboundColor = new Color(0x4C, 0xAF, 0x50);
+        private final Color outboundColor = new Color(0x21, 0x96, 0xF3);
+        private int[] inbound = new int[0];
+        private int[] outbound = new int[0];
+
+        private ActivityChart() {
+            setPreferredSize(new Dimension(300, 120));
+            setMinimumSize(new Dimension(100, 60));
+        }
+
+        private void setData(int[] inbound, int[] outbound) {
+            this.inbound = inbound;
+            this.outbound = outbound;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.setColor(getBackground() != null ? getBackground() : Color.WHITE);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            int days = inbound.length;
+            if (days == 0) {
+                return;
+            }
+            FontMetrics metrics = g.getFontMetrics();
+            int width = getWidth() - 2 * MARGIN;
+            int height = getHeight() - 2 * MARGIN - metrics.getHeight();
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            int daysPerBar = (days + width - 1) / width;
+            int bars = (days + daysPerBar - 1) / daysPerBar;
+            int[] inboundBars = new int[bars];
+            int[] outboundBars = new int[bars];
+            int max = 1;
+            for (int i = 0; i < days; i++) {
+                inboundBars[i / daysPerBar] += inbound[i];
+                outboundBars[i / daysPerBar] += outbound[i];
+            }
+            for (int i = 0; i < bars; i++) {
+                max = Math.max(max, Math.max(inboundBars[i], outboundBars[i]));
+            }
+            int axis = MARGIN + height / 2;
+            double barWidth = (double) width / bars;
+            for (int i = 0; i < bars; i++) {
+                int x = MARGIN + (int) (i * barWidth);
+                int w = Math.max(1, (int) ((i + 1) * barWidth) - (int) (i * barWidth));
+                int up = (int) Math.round((double) inboundBars[i] * (height / 2) / max);
+                int down = (int) Math.round((double) outboundBars[i] * (height / 2) / max);
+                g.setColor(inboundColor);
+                g.fillRect(x, axis - up, w, up);
+                g.setColor(outboundColor);
+                g.fillRect(x, axis, w, down);
+            }
+            g.setColor(getForeground());
+            g.drawLine(MARGIN, axis, MARGIN + width, axis);
+            int baseline = getHeight() - MARGIN - metrics.getDescent();
+            String first = formatDate(statistics.startOf(statistics.getFirstDay()));
+            String last = formatDate(statistics.startOf(statistics.getFirstDay() + days - 1));
+            g.drawString(first, MARGIN, baseline);
+            g.drawString(last, getWidth() - MARGIN - metrics.stringWidth(last), baseline);
+        }
+    }
+}
@@ -1 +1,6 @@
-start javaw -jar sms-viewer.jar
+@echo off
+if "%~1"=="" (
+    start javaw -jar sms-viewer.jar
+) else (
+    java -jar sms-viewer.jar %*
+)
@@ -1,3 +1,3 @@
 #!/bin/sh
 
-java -jar sms-viewer.jar
+java -jar sms-viewer.jar "$@"
@@ -0,0 +1,111 @@
+package org.karpukhin.smsviewer.index;
+
+import org.junit.Test;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Changes {@link ConversationIndex} with {@link ConversationIndex#withChanges}
+ *
+ * @author Pavel Karpukhin
+ */
+public class ConversationIndexTest {
+
+    private static final String ANNA = "+79161234567";
+    private static final String BORIS = "+79031234567";
+
+    private final ContactTable contacts = new ContactTable();
+
+    @Test
+    public void testAddedMessagesAreMergedByDate() {
+        Message first = message(ANNA, 10, "first");
+        Message third = message(ANNA, 30, "third");
+        ConversationIndex index = ConversationIndex.build(Arrays.asList(third, first));
+        assertEquals(Collections.singletonList(ANNA), index.getNumbers());
+
+        // the other form of the number belongs to the same conversation
+        Message second = message("89161234567", 20, "second");
+        Message sameDate = message(ANNA, 30, "same date");
+        ConversationIndex updated = index.withMessages(Arrays.asList(sameDate, second));
+        assertEquals(Arrays.asList(first, second, third, sameDate), updated.getMessages(ANNA));
+        assertEquals(4, updated.size());
+        // the old index is not changed
+        assertEquals(Arrays.asList(first, third), index.getMessages(ANNA));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testNewContactIsInsertedInOrderOfNumbers() {
+        Message anna = message(ANNA, 10, "anna");
+        ConversationIndex index = ConversationIndex.build(Collections.singletonList(anna));
+        Message boris = message(BORIS, 20, "boris");
+        ConversationIndex updated = index.withMessages(Collections.singletonList(boris));
+        assertEquals(Arrays.asList(BORIS, ANNA), updated.getNumbers());
+        assertEquals(0, updated.indexOf(boris.getContact()));
+        assertEquals(1, updated.indexOf(anna.getContact()));
+        assertEquals(Collections.singletonList(anna), updated.getMessages(anna.getContact()));
+    }
+
+    @Test
+    public void testRemovedMessagesAreComparedByIdentity() {
+        Message kept = message(ANNA, 10, "hi");
+        Message removed = message(ANNA, 10, "hi");
+        Message other = message(ANNA, 20, "ok");
+        ConversationIndex index = ConversationIndex.build(Arrays.asList(kept, removed, other));
+        ConversationIndex updated = index.withChanges(Collections.<Message>emptyList(), Collections.singletonList(removed));
+        List<Message> messages = updated.getMessages(ANNA);
+        assertEquals(2, messages.size());
+        assertSame(kept, messages.get(0));
+        assertSame(other, messages.get(1));
+        assertEquals(2, updated.size());
+    }
+
+    @Test
+    public void testContactWithoutMessagesDisappears() {
+        Message anna = message(ANNA, 10, "anna");
+        Message boris = message(BORIS, 20, "boris");
+        ConversationIndex index = ConversationIndex.build(Arrays.asList(anna, boris));
+        ConversationIndex updated = index.withChanges(Collections.<Message>emptyList(), Collections.singletonList(boris));
+        assertEquals(Collections.singletonList(ANNA), updated.getNumbers());
+        assertEquals(-1, updated.indexOf(boris.getContact()));
+        assertTrue(updated.getMessages(BORIS).isEmpty());
+        assertEquals(0, updated.indexOf(anna.getContact()));
+        assertEquals(1, updated.size());
+        assertEquals(2, index.getNumbers().size());
+    }
+
+    @Test
+    public void testContactReplacedInOneChange() {
+        Message old = message(ANNA, 10, "old");
+        Message changed = message(ANNA, 10, "changed");
+        ConversationIndex index = ConversationIndex.build(Collections.singletonList(old));
+        ConversationIndex updated = index.withChanges(Collections.singletonList(changed), Collections.singletonList(old));
+        assertEquals(Collections.singletonList(ANNA), updated.getNumbers());
+        assertEquals(Collections.singletonList(changed), updated.getMessages(ANNA));
+        assertEquals(1, updated.size());
+    }
+
+    @Test
+    public void testEmptyChangeKeepsIndex() {
+        ConversationIndex index = ConversationIndex.build(Collections.singletonList(message(ANNA, 10, "anna")));
+        assertSame(index, index.withChanges(Collections.<Message>emptyList(), Collections.<Message>emptyList()));
+        // messages which are not in the index are ignored
+        ConversationIndex updated = index.withChanges(Collections.<Message>emptyList(),
+                Collections.singletonList(message(BORIS, 10, "boris")));
+        assertEquals(index.getNumbers(), updated.getNumbers());
+        assertEquals(1, updated.size());
+    }
+
+    private Message message(String number, long timestamp, String text) {
+        return new Message.Builder(contacts).setNumber(number).setTimestamp(timestamp).setText(text)
+                .setInbox(true).build();
+    }
+}
@@ -0,0 +1,161 @@
+package org.karpukhin.smsviewer.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sorts messages in memory and through runs merged in several passes, messages with equal
+ * dates have to keep the order they were added in
+ *
+ * @author Pavel Karpukhin
+ */
+public class ExternalSorterTest {
+
+    private static final String[] NUMBERS = {"+79160000001", "89160000001", "+79160000002", "Beeline", "0611"};
+    private static final int FILES = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ContactTable contacts = new ContactTable();
+
+    @Test
+    public void testSortInMemory() throws IOException {
+        File runs = folder.newFolder("runs");
+        ExternalSorter sorter = new ExternalSorter(runs);
+        List<List<Message>> files = generate(new Random(1));
+        add(sorter, files);
+        assertEquals(0, sorter.getRuns());
+        check(sorter, files);
+        assertEquals(0, runs.list().length);
+    }
+
+    @Test
+    public void testSortByRunsIsStable() throws IOException {
+        File runs = folder.newFolder("runs");
+        // every file is written as a run of its own, so runs are merged in more than one pass
+        ExternalSorter sorter = new ExternalSorter(runs, 1);
+        List<List<Message>> files = generate(new Random(2));
+        add(sorter, files);
+        assertTrue(sorter.getRuns() > ExternalSorter.MAX_MERGE_WAYS);
+        check(sorter, files);
+        assertEquals(0, runs.list().length);
+    }
+
+    @Test
+    public void testSortedRunsAreMergedAlike() throws IOException {
+        List<List<Message>> files = generate(new Random(3));
+        ExternalSorter memory = new ExternalSorter(folder.newFolder("memory"));
+        ExternalSorter merged = new ExternalSorter(folder.newFolder("merged"), 4096);
+        add(memory, files);
+        add(merged, files);
+        assertTrue(merged.getRuns() > 1);
+
+        MessageFile first = memory.finish(folder.newFile("memory.msg"));
+        MessageFile second = merged.finish(folder.newFile("merged.msg"));
+        try {
+            assertEquals(first.getNumbers(), second.getNumbers());
+            for (String number : first.getNumbers()) {
+                assertEquals(texts(first.getMessages(number)), texts(second.getMessages(number)));
+            }
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    /**
+     * Returns files of one to three messages with a few distinct dates, so many messages
+     * of a contact have equal dates
+     */
+    private List<List<Message>> generate(Random random) {
+        List<List<Message>> files = new ArrayList<List<Message>>(FILES);
+        for (int i = 0; i < FILES; i++) {
+            List<Message> messages = new ArrayList<Message>();
+            for (int j = random.nextInt(3); j >= 0; j--) {
+                messages.add(new Message.Builder(contacts)
+                        .setNumber(NUMBERS[random.nextInt(NUMBERS.length)])
+                        .setTimestamp(1000L * random.nextInt(10))
+                        .setText("file " + i + " message " + j)
+                        .setInbox(random.nextBoolean())
+                        .build());
+            }
+            files.add(messages);
+        }
+        return files;
+    }
+
+    private static void add(ExternalSorter sorter, List<List<Message>> files) {
+        for (int i = 0; i < files.size(); i++) {
+            sorter.fileLoaded("/files/" + i + ".vmg", 0, files.get(i));
+        }
+    }
+
+    /**
+     * Compares conversations of the sorted file with stable sort of added messages
+     */
+    private void check(ExternalSorter sorter, List<List<Message>> files) throws IOException {
+        Map<String, List<Message>> expected = new LinkedHashMap<String, List<Message>>();
+        long count = 0;
+        for (List<Message> messages : files) {
+            for (Message message : messages) {
+                String label = message.getContact().getLabel();
+                if (!expected.containsKey(label)) {
+                    expected.put(label, new ArrayList<Message>());
+                }
+                expected.get(label).add(message);
+                count++;
+            }
+        }
+        assertEquals(count, sorter.getMessages());
+
+        MessageFile file = sorter.finish(folder.newFile("sorted.msg"));
+        try {
+            assertEquals(count, file.size());
+            List<String> labels = new ArrayList<String>(expected.keySet());
+            Collections.sort(labels);
+            assertEquals(labels, file.getNumbers());
+            for (Map.Entry<String, List<Message>> entry : expected.entrySet()) {
+                List<Message> messages = entry.getValue();
+                Collections.sort(messages, new Comparator<Message>() {
+                    @Override
+                    public int compare(Message m1, Message m2) {
+                        return Long.compare(m1.getTimestamp(), m2.getTimestamp());
+                    }
+                });
+                MessageFile.StoredConversation conversation = file.getMessages(entry.getKey());
+                assertEquals(entry.getKey(), texts(messages), texts(conversation));
+                assertEquals(texts(conversation), texts(file.getMessages(messages.get(0).getContact())));
+                String text = conversation.get(0).getText();
+                assertEquals("/files/" + text.substring("file ".length(), text.indexOf(' ', "file ".length())) + ".vmg",
+                        conversation.getPath(0));
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        List<String> result = new ArrayList<String>(messages.size());
+        for (Message message : messages) {
+            result.add(message.getTimestamp() + " " + message.getInbox() + " " + message.getText());
+        }
+        return result;
+    }
+}
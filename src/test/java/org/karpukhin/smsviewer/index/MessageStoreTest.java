@@ -0,0 +1,124 @@
+package org.karpukhin.smsviewer.index;
+
+import org.junit.Test;
+import org.karpukhin.smsviewer.loader.LoadedFile;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Applies files to {@link MessageStore} and checks published snapshots
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageStoreTest {
+
+    private final ContactTable contacts = new ContactTable();
+
+    @Test
+    public void testSnapshotIsNotChangedByLaterFiles() {
+        MessageStore store = new MessageStore();
+        long epoch = store.getSnapshot().getEpoch();
+        store.append(file("/a.vmg", "+79161234567", 1), epoch);
+        MessageStore.Snapshot first = store.flush();
+        assertEquals(1, first.getFileCount());
+        assertEquals(1, first.getIndex().size());
+
+        store.append(file("/b.vmg", "+79161234567", 2), epoch);
+        MessageStore.Snapshot second = store.flush();
+        assertTrue(second.getVersion() > first.getVersion());
+        assertEquals(epoch, second.getEpoch());
+        assertEquals(2, second.getIndex().size());
+        assertEquals(Arrays.asList("/a.vmg", "/b.vmg"), second.getPaths());
+        // readers of the first snapshot still see one file
+        assertEquals(1, first.getFileCount());
+        assertEquals(1, first.getIndex().size());
+        assertSame(second, store.getSnapshot());
+    }
+
+    @Test
+    public void testFilesOfClearedStoreAreDropped() {
+        MessageStore store = new MessageStore();
+        long epoch = store.getSnapshot().getEpoch();
+        store.append(file("/a.vmg", "+79161234567", 1), epoch);
+        store.flush();
+
+        store.clear();
+        MessageStore.Snapshot cleared = store.getSnapshot();
+        assertEquals(epoch + 1, cleared.getEpoch());
+        assertEquals(0, cleared.getIndex().size());
+
+        // file loaded for the old epoch
+        store.append(file("/b.vmg", "+79161234567", 2), epoch);
+        assertEquals(0, store.flush().getFileCount());
+        store.append(file("/c.vmg", "+79161234567", 3), cleared.getEpoch());
+        assertEquals(Collections.singletonList("/c.vmg"), store.flush().getPaths());
+    }
+
+    @Test
+    public void testFlushIfDueWaitsForInterval() {
+        MessageStore store = new MessageStore();
+        long epoch = store.getSnapshot().getEpoch();
+        // nothing has been applied yet, so the first file is shown at once
+        store.append(file("/a.vmg", "+79161234567", 1), epoch);
+        assertEquals(1, store.flushIfDue().getFileCount());
+
+        long start = System.nanoTime();
+        store.append(file("/b.vmg", "+79161234567", 2), epoch);
+        int count = store.flushIfDue().getFileCount();
+        if (System.nanoTime() - start < MessageStore.FLUSH_INTERVAL_MILLIS * 1000000L) {
+            assertEquals(1, count);
+        }
+        assertEquals(2, store.flush().getFileCount());
+    }
+
+    @Test
+    public void testFlushIfDueAppliesFullBatch() {
+        MessageStore store = new MessageStore();
+        long epoch = store.getSnapshot().getEpoch();
+        store.append(file("/a.vmg", "+79161234567", 1), epoch);
+        store.flush();
+        for (int i = 0; i < MessageStore.FLUSH_BATCH_SIZE; i++) {
+            store.append(file("/f" + i + ".vmg", "+7916123" + (4000 + i), i), epoch);
+        }
+        MessageStore.Snapshot snapshot = store.flushIfDue();
+        assertEquals(MessageStore.FLUSH_BATCH_SIZE + 1, snapshot.getFileCount());
+        assertEquals(MessageStore.FLUSH_BATCH_SIZE + 1, snapshot.getIndex().getNumbers().size());
+    }
+
+    @Test
+    public void testReplaceDropsQueuedFiles() {
+        MessageStore store = new MessageStore();
+        long epoch = store.getSnapshot().getEpoch();
+        LoadedFile a = file("/a.vmg", "+79161234567", 1);
+        store.append(a, epoch);
+        store.append(file("/b.vmg", "+79161234567", 2), epoch);
+        store.replace(Collections.singletonList(a));
+        assertEquals(Collections.singletonList("/a.vmg"), store.getSnapshot().getPaths());
+        assertEquals(1, store.flush().getFileCount());
+    }
+
+    @Test
+    public void testUpdateReplacesAndRemovesFiles() {
+        MessageStore store = new MessageStore();
+        store.replace(Arrays.asList(file("/a.vmg", "+79161234567", 1), file("/b.vmg", "+79031234567", 2)));
+        ConversationIndex index = store.update(Collections.singletonList(file("/a.vmg", "+79161234567", 3)),
+                Collections.singletonList("/b.vmg"));
+        assertEquals(Collections.singletonList("/a.vmg"), store.getSnapshot().getPaths());
+        assertEquals(1, index.size());
+        assertEquals(3, index.getMessages(index.getNumbers().get(0)).get(0).getTimestamp());
+    }
+
+    private LoadedFile file(String path, String number, long timestamp) {
+        List<Message> messages = Collections.singletonList(new Message.Builder(contacts)
+                .setNumber(number).setTimestamp(timestamp).setText(path).setInbox(true).build());
+        return new LoadedFile(path, messages);
+    }
+}
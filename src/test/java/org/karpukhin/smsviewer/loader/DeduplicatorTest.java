@@ -0,0 +1,167 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.ParserEngine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drops copies of messages with {@link Deduplicator} directly and while loading
+ *
+ * @author Pavel Karpukhin
+ */
+public class DeduplicatorTest {
+
+    private static final int FILES = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ContactTable contacts = new ContactTable();
+
+    @Test
+    public void testFilterDropsCopiesOfOtherFiles() {
+        Deduplicator deduplicator = new Deduplicator();
+        List<Message> first = Arrays.asList(message("+79161234567", 1, "hi"), message("+79161234567", 2, "ok"));
+        // the same message written with another form of the number
+        List<Message> second = Arrays.asList(message("89161234567", 1, "hi"), message("+79161234567", 3, "ok"));
+        assertSame(first, deduplicator.filter(first));
+        List<Message> filtered = deduplicator.filter(second);
+        assertEquals(1, filtered.size());
+        assertSame(second.get(1), filtered.get(0));
+        assertEquals(1, deduplicator.getDuplicates());
+    }
+
+    @Test
+    public void testEqualMessagesOfOneFileAreKept() {
+        Deduplicator deduplicator = new Deduplicator();
+        List<Message> messages = Arrays.asList(message("+79161234567", 1, "hi"), message("+79161234567", 1, "hi"));
+        assertSame(messages, deduplicator.filter(messages));
+        assertEquals(0, deduplicator.getDuplicates());
+    }
+
+    @Test
+    public void testRemovedFileLosesDroppedCopies() {
+        Deduplicator deduplicator = new Deduplicator();
+        List<Message> first = Arrays.asList(message("+79161234567", 1, "hi"));
+        List<Message> second = Arrays.asList(message("+79161234567", 1, "hi"));
+        List<Message> unique = Arrays.asList(message("+79161234567", 2, "ok"));
+        deduplicator.filter(first);
+        deduplicator.filter(second);
+        deduplicator.filter(unique);
+
+        deduplicator.remove(unique);
+        assertFalse(deduplicator.hasLostMessages());
+        deduplicator.remove(first);
+        assertTrue(deduplicator.hasLostMessages());
+        // the copy is kept when the other file is loaded again
+        assertSame(second, deduplicator.filter(second));
+        assertFalse(deduplicator.hasLostMessages());
+    }
+
+    @Test
+    public void testEmptyBodyHasTextHash() {
+        Message nullText = message("+79161234567", 1, null);
+        Message emptyText = message("+79161234567", 1, "");
+        assertEquals(Deduplicator.fingerprint(nullText), Deduplicator.fingerprint(emptyText));
+        assertFalse(Deduplicator.fingerprint(emptyText) == Deduplicator.fingerprint(message("+79161234567", 1, " ")));
+    }
+
+    @Test
+    public void testFirstFileInWalkOrderKeepsMessage() throws Exception {
+        File directory = folder.newFolder("backups");
+        for (int i = 0; i < FILES; i++) {
+            // later files are smaller, so they are often parsed first
+            StringBuilder content = new StringBuilder(block("+79161234567", "shared"));
+            for (int j = 0; j < (FILES - i) * 50; j++) {
+                content.append(block("+7903" + String.format("%07d", i * 10000 + j), "own " + j));
+            }
+            write(new File(directory, String.format("backup-%02d.vmg", i)), content.toString());
+        }
+        for (int run = 0; run < 3; run++) {
+            LoadResult result = new MessageLoader(4, ParserEngine.BYTE_BUFFER, false, false, true).load(directory);
+            assertEquals(FILES - 1, result.getDuplicates());
+            for (LoadedFile file : result.getFiles()) {
+                boolean shared = file.getMessages().get(0).getText().equals("shared");
+                assertEquals(file.getPath(), file.getPath().endsWith("backup-00.vmg"), shared);
+            }
+        }
+    }
+
+    @Test
+    public void testLazyAndEagerMessagesHaveSameFingerprints() throws Exception {
+        File directory = folder.newFolder("texts");
+        write(new File(directory, "texts.vmg"), block("+79161234567", "plain")
+                + block("+79161234567", "")
+                + block("+79161234567", "\uFEFFstray mark")
+                + block("+79161234567", "smile \uD83D\uDE00")
+                + block("+79161234567", "broken \uD800 pair")
+                + block("+79161234567", "lone \uDC00")
+                + block("+79161234567", "high at end \uD800"));
+        List<Message> eager = new MessageLoader(1, ParserEngine.BYTE_BUFFER, false, false).load(directory).getMessages();
+        List<Message> lazy = new MessageLoader(1, ParserEngine.BYTE_BUFFER, false, true).load(directory).getMessages();
+        List<Message> reader = new MessageLoader(1, ParserEngine.READER, false, false).load(directory).getMessages();
+        assertEquals(7, eager.size());
+        assertEquals(7, lazy.size());
+        assertEquals(7, reader.size());
+        for (int i = 0; i < eager.size(); i++) {
+            assertTrue(eager.get(i).hasText());
+            assertFalse(lazy.get(i).hasText());
+            assertNotNull(lazy.get(i).getSource());
+            assertEquals("message " + i, Deduplicator.fingerprint(eager.get(i)), Deduplicator.fingerprint(lazy.get(i)));
+            assertEquals("message " + i, Deduplicator.fingerprint(eager.get(i)), Deduplicator.fingerprint(reader.get(i)));
+        }
+    }
+
+    private Message message(String number, long timestamp, String text) {
+        return new Message.Builder(contacts).setNumber(number).setTimestamp(timestamp).setText(text)
+                .setInbox(true).build();
+    }
+
+    private static String block(String number, String text) {
+        return "BEGIN:VMSG\r\n"
+                + "X-IRMC-BOX:INBOX\r\n"
+                + "X-NOK-DT:20100115T101530Z\r\n"
+                + "BEGIN:VCARD\r\n"
+                + "TEL:" + number + "\r\n"
+                + "END:VCARD\r\n"
+                + "BEGIN:VENV\r\n"
+                + "BEGIN:VBODY\r\n"
+                + (text.isEmpty() ? "" : text + "\r\n")
+                + "END:VBODY\r\n"
+                + "END:VENV\r\n"
+                + "END:VMSG\r\n";
+    }
+
+    /**
+     * Writes UTF-16LE code units as they are, so unpaired surrogates get into the file
+     */
+    private static void write(File file, String content) throws IOException {
+        byte[] bytes = new byte[content.length() * 2];
+        for (int i = 0; i < content.length(); i++) {
+            bytes[2 * i] = (byte) content.charAt(i);
+            bytes[2 * i + 1] = (byte) (content.charAt(i) >> 8);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
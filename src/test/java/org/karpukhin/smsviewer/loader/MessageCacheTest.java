@@ -0,0 +1,138 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Puts messages into {@link MessageCache}, saves it and reads them from the next generation
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageCacheTest {
+
+    private static final String PATH = "/backup/messages.vmg";
+    private static final long SIZE = 1024;
+    private static final long MODIFIED = 1263550530000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String previousDirectory;
+    private File cacheDirectory;
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        previousDirectory = System.getProperty(MessageCache.DIRECTORY_PROPERTY);
+        cacheDirectory = folder.newFolder("cache");
+        directory = folder.newFolder("messages");
+        System.setProperty(MessageCache.DIRECTORY_PROPERTY, cacheDirectory.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() {
+        if (previousDirectory == null) {
+            System.clearProperty(MessageCache.DIRECTORY_PROPERTY);
+        } else {
+            System.setProperty(MessageCache.DIRECTORY_PROPERTY, previousDirectory);
+        }
+    }
+
+    @Test
+    public void testHitRequiresSameSizeAndModificationTime() throws IOException {
+        MessageCache cache = MessageCache.open(directory);
+        assertNull(cache.get(PATH, SIZE, MODIFIED));
+        cache.put(PATH, SIZE, MODIFIED, messages(new ContactTable()));
+        cache.save();
+
+        MessageCache reopened = MessageCache.open(directory);
+        assertNull(reopened.get(PATH, SIZE + 1, MODIFIED));
+        assertNull(reopened.get(PATH, SIZE, MODIFIED + 1));
+        assertNull(reopened.get("/backup/other.vmg", SIZE, MODIFIED));
+        List<Message> cached = reopened.get(PATH, SIZE, MODIFIED);
+        assertNotNull(cached);
+        assertEquals(texts(messages(new ContactTable())), texts(cached));
+        assertEquals("+79161234567", cached.get(0).getNumber());
+        assertEquals(MODIFIED, cached.get(1).getTimestamp());
+        assertEquals(1, reopened.getHits());
+        assertEquals(3, reopened.getMisses());
+    }
+
+    @Test
+    public void testSaveWritesNextGenerationOfRequestedFiles() throws IOException {
+        MessageCache cache = MessageCache.open(directory);
+        cache.put(PATH, SIZE, MODIFIED, messages(new ContactTable()));
+        cache.put("/backup/deleted.vmg", SIZE, MODIFIED, messages(new ContactTable()));
+        cache.save();
+        File first = MessageCache.getCacheFile(directory);
+        assertTrue(first.isFile());
+
+        // only requested files are kept by the next generation
+        MessageCache second = MessageCache.open(directory);
+        assertNotNull(second.get(PATH, SIZE, MODIFIED));
+        second.save();
+        File next = MessageCache.getCacheFile(directory);
+        assertFalse(first.equals(next));
+        assertTrue(next.isFile());
+
+        MessageCache third = MessageCache.open(directory);
+        assertNotNull(third.get(PATH, SIZE, MODIFIED));
+        assertNull(third.get("/backup/deleted.vmg", SIZE, MODIFIED));
+        // records put while loading are not left behind in the cache directory
+        for (String name : cacheDirectory.list()) {
+            assertTrue(name, name.endsWith(".cache"));
+        }
+    }
+
+    @Test
+    public void testDiscardDropsPutRecords() throws IOException {
+        MessageCache cache = MessageCache.open(directory);
+        cache.put(PATH, SIZE, MODIFIED, messages(new ContactTable()));
+        cache.discard();
+        assertEquals(0, cacheDirectory.list().length);
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        MessageCache cache = MessageCache.open(directory);
+        cache.put(PATH, SIZE, MODIFIED, messages(new ContactTable()));
+        cache.save();
+        assertNotNull(MessageCache.open(directory).get(PATH, SIZE, MODIFIED));
+
+        assertTrue(MessageCache.invalidate(directory));
+        assertNull(MessageCache.open(directory).get(PATH, SIZE, MODIFIED));
+    }
+
+    private static List<Message> messages(ContactTable contacts) {
+        return Arrays.asList(
+                new Message.Builder(contacts).setNumber("+79161234567").setTimestamp(MODIFIED - 1000)
+                        .setText("hello").setInbox(true).build(),
+                new Message.Builder(contacts).setNumber("89161234567").setTimestamp(MODIFIED)
+                        .setText("").setInbox(false).build());
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        List<String> texts = new ArrayList<String>();
+        for (Message message : messages) {
+            texts.add(message.getTimestamp() + " " + message.getInbox() + " " + message.getText());
+        }
+        return texts;
+    }
+}
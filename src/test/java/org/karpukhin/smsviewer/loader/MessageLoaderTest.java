@@ -0,0 +1,179 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.utils.ParserEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Loads directories with files which are parsed completely, partly and not at all
+ *
+ * @author Pavel Karpukhin
+ */
+public class MessageLoaderTest {
+
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private static final String VALID = "BEGIN:VMSG\r\n"
+            + "X-IRMC-BOX:INBOX\r\n"
+            + "X-NOK-DT:20100115T101530Z\r\n"
+            + "BEGIN:VCARD\r\n"
+            + "TEL:+79161234567\r\n"
+            + "END:VCARD\r\n"
+            + "BEGIN:VENV\r\n"
+            + "BEGIN:VBODY\r\n"
+            + "hello\r\n"
+            + "END:VBODY\r\n"
+            + "END:VENV\r\n"
+            + "END:VMSG\r\n";
+
+    private static final String NO_NUMBER = "BEGIN:VMSG\r\n"
+            + "X-NOK-DT:20100117T080000Z\r\n"
+            + "BEGIN:VENV\r\n"
+            + "BEGIN:VBODY\r\n"
+            + "lost\r\n"
+            + "END:VBODY\r\n"
+            + "END:VENV\r\n"
+            + "END:VMSG\r\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPartlyParsedFileIsCountedOnce() throws Exception {
+        for (ParserEngine engine : ParserEngine.values()) {
+            File directory = folder.newFolder(engine.name());
+            write(new File(directory, "valid.vmg"), VALID);
+            write(new File(directory, "partial.vmg"), VALID + NO_NUMBER);
+            write(new File(directory, "broken.vmg"), NO_NUMBER);
+
+            Progress progress = new Progress();
+            LoadResult result = new MessageLoader(2, engine, false).load(directory, progress);
+
+            assertEquals(engine.name(), 3, progress.getFilesFound());
+            assertEquals(engine.name(), progress.getFilesFound(), progress.getFilesProcessed());
+            assertEquals(engine.name(), 2, progress.getMessages());
+            // only the file without any message is reported as failed
+            assertEquals(engine.name(), 1, progress.getFailures());
+            assertEquals(engine.name(), 2, result.getMessages().size());
+            // the result still tells which blocks were skipped
+            assertEquals(engine.name(), 2, result.getFailures().size());
+            assertEquals(engine.name(), new File(directory, "broken.vmg").getAbsolutePath(),
+                    result.getFailures().get(0).getPath());
+            assertEquals(engine.name(), new File(directory, "partial.vmg").getAbsolutePath(),
+                    result.getFailures().get(1).getPath());
+        }
+    }
+
+    @Test
+    public void testLargeTarEntryIsParsedFromTemporaryFile() throws Exception {
+        StringBuilder large = new StringBuilder();
+        // larger than entries which are read into memory
+        while (large.length() * 2 <= 5 * 1024 * 1024) {
+            large.append(VALID);
+        }
+        int count = large.length() / VALID.length();
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        tarEntry(archive, "backup/large.vmg", large.toString().getBytes(UTF_16LE));
+        tarEntry(archive, "backup/small.vmg", VALID.getBytes(UTF_16LE));
+        archive.write(new byte[1024]);
+        File tar = folder.newFile("backup.tar");
+        OutputStream out = new FileOutputStream(tar);
+        try {
+            archive.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        int tempFiles = countTempFiles();
+        for (ParserEngine engine : ParserEngine.values()) {
+            LoadResult result = new MessageLoader(2, engine, false).load(tar);
+            assertEquals(engine.name(), 0, result.getFailures().size());
+            assertEquals(engine.name(), 2, result.getFiles().size());
+            assertEquals(engine.name(), tar.getAbsolutePath() + MessageLoader.ARCHIVE_SEPARATOR + "backup/large.vmg",
+                    result.getFiles().get(0).getPath());
+            assertEquals(engine.name(), count, result.getFiles().get(0).getMessages().size());
+            assertEquals(engine.name(), "hello", result.getFiles().get(0).getMessages().get(count - 1).getText());
+            assertEquals(engine.name(), count + 1, result.getMessages().size());
+        }
+        assertEquals(tempFiles, countTempFiles());
+    }
+
+    private static int countTempFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("smsviewer-") && name.endsWith(MessageLoader.EXTENSION);
+            }
+        });
+        return names != null ? names.length : 0;
+    }
+
+    /**
+     * Writes ustar header and padded data of a regular file
+     */
+    private static void tarEntry(ByteArrayOutputStream archive, String name, byte[] data) throws IOException {
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 124, String.format("%011o", data.length));
+        put(header, 136, String.format("%011o", 1300000000L));
+        header[156] = '0';
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        put(header, 148, "        ");
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xFF;
+        }
+        put(header, 148, String.format("%06o", sum));
+        header[154] = 0;
+        archive.write(header);
+        archive.write(data);
+        archive.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static void put(byte[] block, int offset, String value) {
+        byte[] bytes = value.getBytes(Charset.forName("US-ASCII"));
+        System.arraycopy(bytes, 0, block, offset, bytes.length);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(UTF_16LE));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class Progress extends LoadProgress implements LoadListener {
+
+        @Override
+        public void fileFound(String path, long size) {
+            fileFound();
+        }
+
+        @Override
+        public void fileLoaded(String path, long size, List<Message> messages) {
+            fileLoaded(size, messages.size());
+        }
+
+        @Override
+        public void fileFailed(LoadFailure failure) {
+            fileFailed();
+        }
+    }
+}
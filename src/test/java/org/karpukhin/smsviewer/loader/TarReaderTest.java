@@ -0,0 +1,220 @@
+package org.karpukhin.smsviewer.loader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads archives written block by block as GNU tar and pax writers do
+ *
+ * @author Pavel Karpukhin
+ */
+public class TarReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BLOCK_SIZE = 512;
+
+    private static final String LONG_NAME = repeat('a', 120) + "/" + repeat('b', 120) + "/message.vmg";
+
+    private final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+    @Test
+    public void testUstarNames() throws IOException {
+        entry("short.vmg", '0', "one");
+        header("name.vmg", 3, '0', "backup/phone", 1300000000L);
+        data("two");
+        entry("./dot.vmg", '\0', "three");
+
+        TarReader reader = finish();
+        assertEntry(reader, "short.vmg", "one");
+        TarReader.Entry entry = reader.next();
+        assertEquals("backup/phone/name.vmg", entry.getName());
+        assertEquals(1300000000000L, entry.getLastModified());
+        assertEquals("two", new String(reader.readEntry(), UTF_8));
+        assertEntry(reader, "dot.vmg", "three");
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testGnuLongName() throws IOException {
+        entry("././@LongLink", 'L', LONG_NAME + "\0");
+        entry(LONG_NAME.substring(0, 100), '0', "long");
+        entry("after.vmg", '0', "short");
+
+        TarReader reader = finish();
+        assertEntry(reader, LONG_NAME, "long");
+        // long name applies only to the entry which follows it
+        assertEntry(reader, "after.vmg", "short");
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testPaxPath() throws IOException {
+        entry("PaxHeaders/message.vmg", 'x', record("mtime", "1300000000.5") + record("path", LONG_NAME)
+                + record("comment", "written by test"));
+        entry("message.vmg", '0', "pax");
+        entry("PaxHeaders/other.vmg", 'x', record("mtime", "1300000000"));
+        entry("other.vmg", '0', "no path");
+
+        TarReader reader = finish();
+        assertEntry(reader, LONG_NAME, "pax");
+        assertEntry(reader, "other.vmg", "no path");
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testOtherEntriesAndUnreadContentAreSkipped() throws IOException {
+        entry("directory/", '5', "");
+        entry("link.vmg", '2', "");
+        entry("skipped.vmg", '0', repeat('x', 1000));
+        entry("read.vmg", '0', "read");
+
+        TarReader reader = finish();
+        assertEquals("skipped.vmg", reader.next().getName());
+        assertEntry(reader, "read.vmg", "read");
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testLargeExtendedHeaderIsRejected() throws IOException {
+        header("././@LongLink", TarReader.MAX_HEADER_DATA_SIZE + 1L, 'L', null, 0);
+        data("a");
+        try {
+            finish().next();
+            fail("Header of " + (TarReader.MAX_HEADER_DATA_SIZE + 1) + " bytes is read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("too large"));
+        }
+    }
+
+    @Test
+    public void testCorruptedHeaderIsRejected() throws IOException {
+        entry("message.vmg", '0', "text");
+        byte[] bytes = archive.toByteArray();
+        bytes[0] = 'M';
+        try {
+            new TarReader(new ByteArrayInputStream(bytes)).next();
+            fail("Header with wrong checksum is read");
+        } catch (IOException e) {
+            assertEquals("Corrupted TAR header", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCopyEntry() throws IOException {
+        String large = repeat('x', 100000);
+        entry("large.vmg", '0', large);
+        entry("failed.vmg", '0', large);
+        entry("after.vmg", '0', "short");
+
+        TarReader reader = finish();
+        assertEquals("large.vmg", reader.next().getName());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.copyEntry(out);
+        assertEquals(large, new String(out.toByteArray(), UTF_8));
+
+        assertEquals("failed.vmg", reader.next().getName());
+        try {
+            reader.copyEntry(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Disk is full");
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    throw new IOException("Disk is full");
+                }
+            });
+            fail("Failed output is ignored");
+        } catch (IOException e) {
+            assertEquals("Disk is full", e.getMessage());
+        }
+        // the rest of the failed entry is skipped
+        assertEntry(reader, "after.vmg", "short");
+        assertNull(reader.next());
+    }
+
+    private static void assertEntry(TarReader reader, String name, String content) throws IOException {
+        TarReader.Entry entry = reader.next();
+        assertEquals(name, entry.getName());
+        assertEquals(content.length(), entry.getSize());
+        assertEquals(content, new String(reader.readEntry(), UTF_8));
+    }
+
+    private void entry(String name, char type, String content) {
+        header(name, content.getBytes(UTF_8).length, type, null, 0);
+        data(content);
+    }
+
+    /**
+     * Writes ustar header with octal numbers and checksum
+     */
+    private void header(String name, long size, char type, String prefix, long mtime) {
+        byte[] block = new byte[BLOCK_SIZE];
+        put(block, 0, name);
+        put(block, 100, "0000644");
+        put(block, 124, String.format("%011o", size));
+        put(block, 136, String.format("%011o", mtime));
+        block[156] = (byte) type;
+        put(block, 257, "ustar");
+        put(block, 263, "00");
+        if (prefix != null) {
+            put(block, 345, prefix);
+        }
+        put(block, 148, "        ");
+        long sum = 0;
+        for (byte b : block) {
+            sum += b & 0xFF;
+        }
+        put(block, 148, String.format("%06o", sum));
+        block[154] = 0;
+        archive.write(block, 0, block.length);
+    }
+
+    private void data(String content) {
+        byte[] bytes = content.getBytes(UTF_8);
+        int padding = (BLOCK_SIZE - bytes.length % BLOCK_SIZE) % BLOCK_SIZE;
+        archive.write(bytes, 0, bytes.length);
+        archive.write(new byte[padding], 0, padding);
+    }
+
+    private TarReader finish() {
+        archive.write(new byte[2 * BLOCK_SIZE], 0, 2 * BLOCK_SIZE);
+        return new TarReader(new ByteArrayInputStream(archive.toByteArray()));
+    }
+
+    private static void put(byte[] block, int offset, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        System.arraycopy(bytes, 0, block, offset, bytes.length);
+    }
+
+    /**
+     * Returns pax record "length key=value\n", length includes its own digits
+     */
+    private static String record(String key, String value) {
+        int length = key.length() + value.length() + 3;
+        length += Integer.toString(length).length();
+        if (Integer.toString(length).length() + key.length() + value.length() + 3 != length) {
+            length++;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package org.karpukhin.smsviewer.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Normalizes numbers written in different ways and interns them in {@link ContactTable}
+ *
+ * @author Pavel Karpukhin
+ */
+public class PhoneNumberNormalizerTest {
+
+    private final PhoneNumberNormalizer normalizer = new PhoneNumberNormalizer("7", "8", 10);
+
+    @Test
+    public void testFormsOfNumberHaveOneKey() {
+        long key = normalizer.normalize("+79161234567");
+        assertEquals(79161234567L, key);
+        assertEquals(key, normalizer.normalize("89161234567"));
+        assertEquals(key, normalizer.normalize("+7 916 123-45-67"));
+        assertEquals(key, normalizer.normalize("8 (916) 123 45 67"));
+        assertEquals(key, normalizer.normalize("0079161234567"));
+        assertEquals(key, normalizer.normalize("79161234567"));
+        assertEquals(key, normalizer.normalize("9161234567"));
+        assertEquals("+79161234567", PhoneNumberNormalizer.format(key));
+    }
+
+    @Test
+    public void testForeignNumbersKeepCountryCode() {
+        assertEquals(4915112345678L, normalizer.normalize("+49 151 12345678"));
+        assertFalse(normalizer.normalize("+49 151 12345678") == normalizer.normalize("8 151 1234567"));
+    }
+
+    @Test
+    public void testLocalNumbersKeepLeadingZeros() {
+        long key = normalizer.normalize("0611");
+        assertTrue(PhoneNumberNormalizer.isNumeric(key));
+        assertEquals("0611", PhoneNumberNormalizer.format(key));
+        assertFalse(key == normalizer.normalize("611"));
+        assertEquals("611", PhoneNumberNormalizer.format(normalizer.normalize("611")));
+    }
+
+    @Test
+    public void testNumbersWithLettersAreUnknown() {
+        assertEquals(PhoneNumberNormalizer.UNKNOWN, normalizer.normalize("MegaFon"));
+        assertEquals(PhoneNumberNormalizer.UNKNOWN, normalizer.normalize("+7+916"));
+        assertEquals(PhoneNumberNormalizer.UNKNOWN, normalizer.normalize(""));
+        assertEquals(PhoneNumberNormalizer.UNKNOWN, normalizer.normalize(null));
+
+        long key = PhoneNumberNormalizer.getUnknownKey("MegaFon");
+        assertFalse(PhoneNumberNormalizer.isNumeric(key));
+        assertFalse(key == PhoneNumberNormalizer.UNKNOWN);
+        assertEquals(key, PhoneNumberNormalizer.getUnknownKey("MegaFon"));
+        assertFalse(key == PhoneNumberNormalizer.getUnknownKey("Beeline"));
+    }
+
+    @Test
+    public void testContactTableGroupsForms() {
+        ContactTable contacts = new ContactTable(normalizer);
+        Contact plus = contacts.intern("+79161234567");
+        Contact trunk = contacts.intern("89161234567");
+        Contact spaced = contacts.intern("+7 916 123-45-67");
+        assertNotSame(plus, trunk);
+        assertEquals(plus.getKey(), trunk.getKey());
+        assertEquals(plus.getKey(), spaced.getKey());
+        assertEquals("+79161234567", spaced.getLabel());
+        assertEquals("+7 916 123-45-67", spaced.getNumber());
+        assertEquals(trunk, contacts.intern("89161234567"));
+        assertEquals(3, contacts.size());
+
+        // numbers which could not be normalized have the same key in every table
+        Contact name = contacts.intern("MegaFon");
+        assertEquals("MegaFon", name.getLabel());
+        assertEquals(name.getKey(), new ContactTable(normalizer).intern("MegaFon").getKey());
+    }
+}
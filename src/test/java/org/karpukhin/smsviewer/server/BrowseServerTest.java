@@ -0,0 +1,168 @@
+package org.karpukhin.smsviewer.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.karpukhin.smsviewer.index.MessageStore;
+import org.karpukhin.smsviewer.loader.LoadedFile;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Requests {@link BrowseServer} with {@link HttpURLConnection} on the loopback address
+ *
+ * @author Pavel Karpukhin
+ */
+public class BrowseServerTest {
+
+    private static final String NUMBER = "+79160000001";
+
+    private final ContactTable contacts = new ContactTable();
+    private MessageStore store;
+    private BrowseServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new MessageStore();
+        store.replace(Collections.singletonList(file("/a.vmg", NUMBER, 1000L, 2000L, 2000L, 3000L)));
+        server = new BrowseServer(store, 0, 2);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testContacts() throws IOException {
+        HttpURLConnection connection = open(BrowseServer.CONTACTS_PATH);
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("application/json"));
+        String body = read(connection);
+        assertTrue(body, body.contains("\"number\":\"" + NUMBER + "\""));
+        assertTrue(body, body.contains("\"messages\":4"));
+    }
+
+    @Test
+    public void testNotModifiedUntilStoreIsChanged() throws IOException {
+        HttpURLConnection connection = open(BrowseServer.CONTACTS_PATH);
+        assertEquals(200, connection.getResponseCode());
+        String etag = connection.getHeaderField("ETag");
+        assertNotNull(etag);
+        read(connection);
+
+        connection = open(BrowseServer.CONTACTS_PATH);
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(304, connection.getResponseCode());
+
+        store.update(Collections.singletonList(file("/b.vmg", "+79160000002", 4000L)), Collections.<String>emptyList());
+        connection = open(BrowseServer.CONTACTS_PATH);
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(200, connection.getResponseCode());
+        assertFalse(etag.equals(connection.getHeaderField("ETag")));
+        assertTrue(read(connection).contains("+79160000002"));
+    }
+
+    @Test
+    public void testEtagOfAnotherServerDoesNotMatch() throws IOException {
+        BrowseServer other = new BrowseServer(store, 0, 1);
+        other.start();
+        try {
+            HttpURLConnection connection = open(BrowseServer.CONTACTS_PATH);
+            String etag = connection.getHeaderField("ETag");
+            read(connection);
+
+            connection = open(other, BrowseServer.CONTACTS_PATH);
+            connection.setRequestProperty("If-None-Match", etag);
+            assertEquals(200, connection.getResponseCode());
+            read(connection);
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testConversationPages() throws IOException {
+        List<Long> timestamps = new ArrayList<Long>();
+        String cursor = null;
+        do {
+            HttpURLConnection connection = open(BrowseServer.CONVERSATIONS_PATH + NUMBER + "?limit=2"
+                    + (cursor != null ? "&cursor=" + cursor : ""));
+            assertEquals(200, connection.getResponseCode());
+            String body = read(connection);
+            for (String part : body.split("\"timestamp\":")) {
+                if (Character.isDigit(part.charAt(0))) {
+                    timestamps.add(Long.parseLong(part.substring(0, part.indexOf(','))));
+                }
+            }
+            cursor = body.contains("\"next\":null") ? null : value(body, "next");
+        } while (cursor != null);
+        assertEquals(Arrays.asList(1000L, 2000L, 2000L, 3000L), timestamps);
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        assertEquals(404, open(BrowseServer.CONVERSATIONS_PATH + "+70000000000").getResponseCode());
+        assertEquals(400, open(BrowseServer.CONVERSATIONS_PATH + NUMBER + "?limit=0").getResponseCode());
+        assertEquals(400, open(BrowseServer.CONVERSATIONS_PATH + NUMBER + "?cursor=x").getResponseCode());
+        HttpURLConnection connection = open(BrowseServer.CONTACTS_PATH);
+        connection.setRequestMethod("DELETE");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return open(server, path);
+    }
+
+    private static HttpURLConnection open(BrowseServer server, String path) throws IOException {
+        URL url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = in.read(chunk)) >= 0) {
+                out.write(chunk, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String value(String json, String name) {
+        int start = json.indexOf("\"" + name + "\":\"") + name.length() + 4;
+        return json.substring(start, json.indexOf('"', start));
+    }
+
+    private LoadedFile file(String path, String number, long... timestamps) {
+        List<Message> messages = new ArrayList<Message>();
+        for (long timestamp : timestamps) {
+            messages.add(new Message.Builder(contacts).setNumber(number).setTimestamp(timestamp)
+                    .setText("Message " + timestamp).setInbox(true).build());
+        }
+        return new LoadedFile(path, messages);
+    }
+}
@@ -0,0 +1,59 @@
+package org.karpukhin.smsviewer.utils;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares parsing of "X-NOK-DT" values without {@link SimpleDateFormat} with parsing by it
+ *
+ * @author Pavel Karpukhin
+ */
+public class DateUtilsTest {
+
+    @Test
+    public void testFastParsingMatchesSimpleDateFormat() throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat(VmessageParser.DATE_FORMAT);
+        SimpleDateFormat utc = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        utc.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        long from = -11676096000000L; // 1600-01-01
+        long to = 4102444800000L; // 2100-01-01
+        for (int i = 0; i < 10000; i++) {
+            long timestamp = (from + (long) (random.nextDouble() * (to - from))) / 1000 * 1000;
+            String value = utc.format(timestamp);
+            assertEquals(value, timestamp, DateUtils.parseUtcFast(value));
+            assertEquals(value, format.parse(value.replace("Z", "GMT+00:00")).getTime(), DateUtils.parseUtcFast(value));
+        }
+    }
+
+    @Test
+    public void testLeapDays() throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat(VmessageParser.DATE_FORMAT);
+        for (String value : new String[] {"20000229T235959Z", "20120229T000000Z", "16000229T120000Z",
+                "19700101T000000Z", "19691231T235959Z"}) {
+            assertEquals(value, format.parse(value.replace("Z", "GMT+00:00")).getTime(), DateUtils.parseUtcFast(value));
+        }
+        assertEquals(Long.MIN_VALUE, DateUtils.parseUtcFast("19000229T000000Z"));
+        assertEquals(Long.MIN_VALUE, DateUtils.parseUtcFast("20110229T000000Z"));
+    }
+
+    @Test
+    public void testOtherValuesAreLeftToSimpleDateFormat() throws ParseException {
+        assertEquals(Long.MIN_VALUE, DateUtils.parseUtcFast("20100115T101530"));
+        assertEquals(Long.MIN_VALUE, DateUtils.parseUtcFast("20100115T1015300"));
+        assertEquals(Long.MIN_VALUE, DateUtils.parseUtcFast("2010011xT101530Z"));
+        assertEquals(Long.MIN_VALUE, DateUtils.parseUtcFast("20101315T101530Z"));
+        assertEquals(Long.MIN_VALUE, DateUtils.parseUtcFast("20100115T241530Z"));
+        assertEquals(Long.MIN_VALUE, DateUtils.parseUtcFast("15000115T101530Z"));
+
+        // value with time zone is parsed by SimpleDateFormat
+        assertEquals(1263550530000L, DateUtils.parseVmessageDate("20100115T101530Z"));
+        assertEquals(1263550530000L, DateUtils.parseVmessageDate("20100115T131530GMT+03:00"));
+    }
+}
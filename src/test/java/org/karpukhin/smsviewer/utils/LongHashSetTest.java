@@ -0,0 +1,74 @@
+package org.karpukhin.smsviewer.utils;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link LongHashSet} with {@link HashSet}
+ *
+ * @author Pavel Karpukhin
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void testFreeKeyIsKept() {
+        LongHashSet set = new LongHashSet(0);
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void testRemovedValuesDoNotHideTheirCluster() {
+        // small table filled up to its load factor, so values form clusters
+        LongHashSet set = new LongHashSet(6);
+        for (long value = 1; value <= 6; value++) {
+            assertTrue(set.add(value));
+        }
+        for (long removed = 1; removed <= 6; removed++) {
+            assertTrue(set.remove(removed));
+            assertFalse(set.contains(removed));
+            for (long value = removed + 1; value <= 6; value++) {
+                assertTrue("value " + value + " after removal of " + removed, set.contains(value));
+            }
+        }
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void testAddsAndRemovesLikeHashSet() {
+        LongHashSet set = new LongHashSet(0);
+        Set<Long> expected = new HashSet<Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            long value = random.nextInt(512) - 256;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+            if (i % 1000 == 0) {
+                for (long v = -260; v < 260; v++) {
+                    assertEquals("value " + v + " at step " + i, expected.contains(v), set.contains(v));
+                }
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        for (long v = -260; v < 260; v++) {
+            assertEquals(expected.contains(v), set.contains(v));
+        }
+    }
+}
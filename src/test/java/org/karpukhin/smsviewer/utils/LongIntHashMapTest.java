@@ -0,0 +1,75 @@
+package org.karpukhin.smsviewer.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link LongIntHashMap} with {@link HashMap}
+ *
+ * @author Pavel Karpukhin
+ */
+public class LongIntHashMapTest {
+
+    @Test
+    public void testFreeKeyIsMapped() {
+        LongIntHashMap map = new LongIntHashMap(0, -1);
+        assertEquals(-1, map.get(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(-1, map.put(0, 5));
+        assertEquals(5, map.put(0, 6));
+        assertEquals(6, map.get(0));
+        assertTrue(map.containsKey(0));
+        assertEquals(1, map.size());
+        assertTrue(Arrays.equals(new long[] {0}, map.keys()));
+    }
+
+    @Test
+    public void testMapsLikeHashMap() {
+        LongIntHashMap map = new LongIntHashMap(0, -1);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // narrow range makes clusters and repeated keys, including negative keys and 0
+            long key = random.nextInt(4000) - 2000;
+            Integer previous = expected.put(key, i);
+            assertEquals(previous != null ? previous : -1, map.put(key, i));
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = -2100; key < 2100; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value != null ? value : -1, map.get(key));
+            assertEquals(value != null, map.containsKey(key));
+        }
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        assertEquals(expected.size(), keys.length);
+        for (long key : keys) {
+            assertTrue(expected.containsKey(key));
+        }
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        map.put(1, 1);
+        LongIntHashMap copy = map.copy();
+        copy.put(1, 2);
+        copy.put(0, 3);
+        for (int i = 2; i < 100; i++) {
+            copy.put(i, i);
+        }
+        assertEquals(1, map.get(1));
+        assertEquals(-1, map.get(0));
+        assertEquals(1, map.size());
+        assertEquals(2, copy.get(1));
+        assertEquals(100, copy.size());
+    }
+}
@@ -0,0 +1,257 @@
+package org.karpukhin.smsviewer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.karpukhin.smsviewer.model.ContactTable;
+import org.karpukhin.smsviewer.model.Message;
+import org.karpukhin.smsviewer.model.SourceFile;
+import org.karpukhin.smsviewer.model.SourceLocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parses the same files by every {@link ParserEngine} and by parts and windows of
+ * {@link ByteBufferVmessageParser}
+ *
+ * @author Pavel Karpukhin
+ */
+public class ParserEngineTest {
+
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    /** Inbox message with both dates and text of two lines */
+    private static final String INBOX = "BEGIN:VMSG\r\n"
+            + "VERSION:1.1\r\n"
+            + "X-IRMC-BOX:INBOX\r\n"
+            + "X-NOK-DT:20100115T101530Z\r\n"
+            + "X-MESSAGE-TYPE:DELIVER\r\n"
+            + "BEGIN:VCARD\r\n"
+            + "VERSION:3.0\r\n"
+            + "TEL:+79161234567\r\n"
+            + "END:VCARD\r\n"
+            + "BEGIN:VENV\r\n"
+            + "BEGIN:VBODY\r\n"
+            + "Date:15.01.2010 10:15:30\r\n"
+            + "\u041f\u0440\u0438\u0432\u0435\u0442!\r\n"
+            + "See you tomorrow\r\n"
+            + "END:VBODY\r\n"
+            + "END:VENV\r\n"
+            + "END:VMSG\r\n";
+
+    /** Sent message with LF line ends and number in the envelope */
+    private static final String SENT = "BEGIN:VMSG\n"
+            + "VERSION:1.1\n"
+            + "X-NOK-DT:20100116T080000Z\n"
+            + "X-MESSAGE-TYPE:SUBMIT\n"
+            + "BEGIN:VENV\n"
+            + "TEL:89161234567\n"
+            + "BEGIN:VBODY\n"
+            + "ok\n"
+            + "END:VBODY\n"
+            + "END:VENV\n"
+            + "END:VMSG\n";
+
+    /** Message with CR line ends and the date in the body only */
+    private static final String BODY_DATE = "BEGIN:VMSG\r"
+            + "BEGIN:VCARD\r"
+            + "TEL:0611\r"
+            + "END:VCARD\r"
+            + "BEGIN:VENV\r"
+            + "BEGIN:VBODY\r"
+            + "Date:01.02.2011 12:00:00\r"
+            + "Balance\r"
+            + "END:VBODY\r"
+            + "END:VENV\r"
+            + "END:VMSG\r";
+
+    /** Block without phone number */
+    private static final String NO_NUMBER = "BEGIN:VMSG\r\n"
+            + "X-NOK-DT:20100117T080000Z\r\n"
+            + "BEGIN:VENV\r\n"
+            + "BEGIN:VBODY\r\n"
+            + "lost\r\n"
+            + "END:VBODY\r\n"
+            + "END:VENV\r\n"
+            + "END:VMSG\r\n";
+
+    private static final String FIXTURE = INBOX + SENT + BODY_DATE + NO_NUMBER;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEnginesParseFileAlike() throws IOException {
+        File file = write(FIXTURE);
+        Collector reader = new Collector();
+        Collector byteBuffer = new Collector();
+        assertEquals(4, ParserEngine.READER.parse(file, reader));
+        assertEquals(4, ParserEngine.BYTE_BUFFER.parse(file, byteBuffer));
+
+        assertEquals(3, reader.messages.size());
+        assertEquals(Arrays.asList(3), reader.failures);
+        assertEquals(reader.describe(), byteBuffer.describe());
+        assertEquals(reader.failures, byteBuffer.failures);
+
+        Message inbox = byteBuffer.messages.get(0);
+        assertEquals("+79161234567", inbox.getNumber());
+        assertEquals(1263550530000L, inbox.getTimestamp());
+        assertTrue(inbox.getInbox());
+        assertEquals("\u041f\u0440\u0438\u0432\u0435\u0442!See you tomorrow", inbox.getText());
+        // numbers written in different ways belong to the same contact
+        assertEquals(inbox.getContact().getKey(), byteBuffer.messages.get(1).getContact().getKey());
+    }
+
+    @Test
+    public void testEnginesParseStreamAlike() throws IOException {
+        byte[] bytes = FIXTURE.getBytes(UTF_16LE);
+        Collector reader = new Collector();
+        Collector byteBuffer = new Collector();
+        ParserEngine.READER.parse(new ByteArrayInputStream(bytes), bytes.length, reader);
+        ParserEngine.BYTE_BUFFER.parse(new ByteArrayInputStream(bytes), -1, byteBuffer);
+
+        Collector file = new Collector();
+        ParserEngine.READER.parse(write(FIXTURE), file);
+        assertEquals(file.describe(), reader.describe());
+        assertEquals(file.describe(), byteBuffer.describe());
+    }
+
+    @Test
+    public void testPartsParseAsWholeBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(repeat(FIXTURE, 25).getBytes(UTF_16LE));
+        Collector whole = new Collector();
+        assertEquals(100, ByteBufferVmessageParser.parse(buffer, whole));
+
+        for (int parts : new int[] {2, 3, 7, 16}) {
+            List<ByteBuffer> split = ByteBufferVmessageParser.split(buffer, parts);
+            assertEquals(parts, split.size());
+            Collector collector = new Collector();
+            int blocks = 0;
+            for (ByteBuffer part : split) {
+                blocks += ByteBufferVmessageParser.parse(part, collector);
+            }
+            assertEquals(100, blocks);
+            assertEquals(whole.describe(), collector.describe());
+        }
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testWindowsParseAsWholeFile() throws IOException {
+        // windows overlap by 1 MB, so the file is larger
+        File file = write(repeat(FIXTURE, 2000));
+        SourceFile source = new SourceFile(file.getAbsolutePath(), file.length(), file.lastModified());
+        Collector whole = new Collector();
+        ByteBufferVmessageParser.parseHeaders(ByteBufferVmessageParser.map(file).get(0).getBuffer(), source, whole);
+        assertEquals(6000, whole.messages.size());
+
+        List<ByteBufferVmessageParser.Window> windows = ByteBufferVmessageParser.map(file, 4096);
+        assertTrue(windows.size() > 3);
+        Collector windowed = new Collector();
+        for (ByteBufferVmessageParser.Window window : windows) {
+            for (ByteBuffer part : ByteBufferVmessageParser.split(window.getBuffer(), 3)) {
+                ByteBufferVmessageParser.parseHeaders(part, window.getOffset(), source, windowed);
+            }
+        }
+        assertEquals(whole.describe(), windowed.describe());
+        assertEquals(whole.locations(), windowed.locations());
+
+        // locations point to blocks whose text has the same hash as the text parsed from the file
+        Collector eager = new Collector();
+        ParserEngine.BYTE_BUFFER.parse(file, eager);
+        for (int i = 0; i < eager.messages.size(); i++) {
+            SourceLocation location = windowed.messages.get(i).getSource();
+            assertNotNull(location);
+            assertEquals(ByteBufferVmessageParser.hashText(eager.messages.get(i).getText()), location.getTextHash());
+        }
+    }
+
+    @Test
+    public void testFileUnderMapThresholdIsReadIntoHeap() throws IOException {
+        File file = write(repeat(FIXTURE, 200));
+        List<ByteBufferVmessageParser.Window> windows = ByteBufferVmessageParser.read(file);
+        assertEquals(1, windows.size());
+        assertEquals(0, windows.get(0).getOffset());
+        assertFalse(windows.get(0).getBuffer().isDirect());
+        assertEquals(ByteBufferVmessageParser.map(file).get(0).getBuffer(), windows.get(0).getBuffer());
+    }
+
+    private File write(String content) throws IOException {
+        File file = folder.newFile("messages-" + content.length() + ".vmg");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(UTF_16LE));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Keeps parsed messages and indexes of failed blocks
+     */
+    private static class Collector implements MessageSink {
+
+        private final ContactTable contacts = new ContactTable();
+        private final List<Message> messages = new ArrayList<Message>();
+        private final List<Integer> failures = new ArrayList<Integer>();
+
+        @Override
+        public void message(Message message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void failed(int index, String reason) {
+            failures.add(index);
+        }
+
+        @Override
+        public ContactTable getContacts() {
+            return contacts;
+        }
+
+        /**
+         * Returns fields of messages except text of messages parsed without text
+         */
+        private List<String> describe() {
+            List<String> result = new ArrayList<String>(messages.size());
+            for (Message message : messages) {
+                result.add(message.getNumber() + "|" + message.getTimestamp() + "|" + message.getInbox()
+                        + (message.hasText() ? "|" + message.getText() : ""));
+            }
+            return result;
+        }
+
+        private List<String> locations() {
+            List<String> result = new ArrayList<String>(messages.size());
+            for (Message message : messages) {
+                SourceLocation location = message.getSource();
+                result.add(location.getOffset() + "+" + location.getLength() + "#" + location.getTextHash());
+            }
+            return result;
+        }
+    }
+}